@@ -0,0 +1,106 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.benchmarks;
+
+import hudson.EnvVars;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildParameter;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.entities.StageRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Synthetic builds for the benchmarks, shaped like a typical controller's: the variables Jenkins always sets, then
+ * job variables of a few dozen characters, one in ten holding a quote and one in twenty marked sensitive.
+ */
+public final class BuildFixtures {
+    public static final long START = 1500000000000L;
+
+    private BuildFixtures() {}
+
+    /**
+     * @param variables Number of variables in the environment, Jenkins' own included
+     *
+     * @return Environment of a completed build
+     */
+    public static EnvVars env(int variables) {
+        EnvVars env = new EnvVars();
+        env.put("BUILD_TAG", "jenkins-folder-service-build-1234");
+        env.put("JOB_NAME", "folder/service-build");
+        env.put("BUILD_NUMBER", "1234");
+        env.put("BUILD_URL", "https://ci.example.com/job/folder/job/service-build/1234/");
+        env.put("JENKINS_URL", "https://ci.example.com/");
+        env.put("EXECUTOR_NUMBER", "3");
+        env.put("WORKSPACE", "/var/lib/jenkins/workspace/folder/service-build");
+        env.put("GIT_COMMIT", "0123456789abcdef0123456789abcdef01234567");
+        env.put("GIT_URL", "git@github.com:example/service.git");
+        env.put("GIT_BRANCH", "origin/master");
+        for (int i = env.size(); i < variables; i++) {
+            env.put(String.format("VAR_%04d", i), i % 10 == 0
+                    ? "it's value " + i + " of the build's environment"
+                    : "value " + i + " of the build environment, /usr/local/bin");
+        }
+        return env;
+    }
+
+    /**
+     * @return Names of the variables marked sensitive in the environment
+     */
+    public static Set<String> sensitive(Map<String, String> env) {
+        Set<String> sensitive = new HashSet<String>();
+        int i = 0;
+        for (String key : env.keySet()) {
+            if (i++ % 20 == 7) {
+                sensitive.add(key);
+            }
+        }
+        return sensitive;
+    }
+
+    /**
+     * @param variables Number of exported parameters
+     *
+     * @return A captured record carrying that many parameters
+     */
+    public static BuildRecord record(int variables) {
+        EnvVars env = env(variables);
+        Set<String> sensitive = sensitive(env);
+        List<BuildParameter> params = new ArrayList<BuildParameter>(env.size());
+        for (Map.Entry<String, String> variable : env.entrySet()) {
+            boolean masked = sensitive.contains(variable.getKey());
+            params.add(new BuildParameter(variable.getKey(), masked ? "********" : variable.getValue(), masked));
+        }
+        return record(env, params);
+    }
+
+    /**
+     * @return A record filled the way the capture fills it from this environment and these parameters
+     */
+    public static BuildRecord record(EnvVars env, List<BuildParameter> params) {
+        return new BuildRecord(env.get("BUILD_TAG"), env.get("JOB_NAME"), env.get("BUILD_NUMBER"),
+                START, START + 42000L, "SUCCESS", env.get("BUILD_URL"), env.get("JENKINS_URL"),
+                env.get("EXECUTOR_NUMBER"), env.get("WORKSPACE"), params, env.get("GIT_COMMIT"), env.get("GIT_URL"),
+                env.get("GIT_BRANCH"), "job/folder/upstream/", "77", "folder/upstream", true,
+                "folder/service-build#1234", Collections.<StageRecord>emptyList(), 0, 1200L, 0L, 41000L,
+                "linux && docker", "agent-3");
+    }
+}
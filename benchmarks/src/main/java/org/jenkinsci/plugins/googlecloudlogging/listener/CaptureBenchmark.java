@@ -0,0 +1,114 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.listener;
+
+import hudson.EnvVars;
+import org.jenkinsci.plugins.googlecloudlogging.benchmarks.BuildFixtures;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildParameter;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the listener does on the executor thread once the environment is in hand: filtering the variables into
+ * parameters and building the record from them. {@link #legacyCapture()} is the capture as it was before it moved
+ * into BuildRecordCapture, kept as the baseline the current path is measured against.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureBenchmark {
+    /** Fields the legacy capture expanded one template at a time */
+    private static final String[] LEGACY_TEMPLATES = {"${BUILD_TAG}", "${JOB_NAME}", "${BUILD_NUMBER}", "${BUILD_URL}",
+            "${BUILD_TIMESTAMP}", "${JENKINS_URL}", "${EXECUTOR_NUMBER}", "${WORKSPACE}", "${GIT_COMMIT}", "${GIT_URL}",
+            "${GIT_BRANCH}"};
+
+    @Param({"10", "100", "1000"})
+    public int variables;
+
+    private EnvVars env;
+    private Set<String> sensitive;
+    private ParameterFilter filter;
+    private List<BuildParameter> params;
+
+    @Setup
+    public void setUp() {
+        env = BuildFixtures.env(variables);
+        sensitive = BuildFixtures.sensitive(env);
+        filter = new ParameterFilter("", "^PATH$\n^HOME$", 1024);
+        params = BuildRecordCapture.collectParams(env, sensitive, filter);
+    }
+
+    @Benchmark
+    public List<BuildParameter> collectParams() {
+        return BuildRecordCapture.collectParams(env, sensitive, filter);
+    }
+
+    @Benchmark
+    public BuildRecord buildRecord() {
+        return BuildFixtures.record(env, params);
+    }
+
+    @Benchmark
+    public BuildRecord capture() {
+        return BuildFixtures.record(env, BuildRecordCapture.collectParams(env, sensitive, filter));
+    }
+
+    @Benchmark
+    public String[] legacyCapture() {
+        String params = "";
+        for (Map.Entry<String, String> variable : env.entrySet()) {
+            if (!params.equals("")) {
+                params += "&";
+            }
+
+            if (sensitive.contains(variable.getKey())) {
+                params += "Key:" + variable.getKey() + ", Value: ********";
+            } else {
+                params += "Key:" + variable.getKey() + ", Value: " + variable.getValue().replace("'", "\\'");
+            }
+        }
+
+        String[] fields = new String[LEGACY_TEMPLATES.length + 1];
+        for (int i = 0; i < LEGACY_TEMPLATES.length; i++) {
+            fields[i] = checkForEmpty(env.expand(LEGACY_TEMPLATES[i]));
+        }
+        fields[LEGACY_TEMPLATES.length] = params;
+        return fields;
+    }
+
+    private static String checkForEmpty(String input) {
+        return (input.contains("${")) ? "" : input;
+    }
+}
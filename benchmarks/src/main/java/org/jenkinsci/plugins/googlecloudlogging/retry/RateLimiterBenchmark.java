@@ -0,0 +1,57 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.retry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the rate limiter costs a call that is let straight through: one acquire and one success report against a
+ * limiter whose rate is never reached, from one thread and from eight sharing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+    private final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("benchmark", 1e12, 1e12);
+
+    @Benchmark
+    public void acquire() throws InterruptedException {
+        limiter.acquire();
+        limiter.onSuccess();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void acquireShared() throws InterruptedException {
+        limiter.acquire();
+        limiter.onSuccess();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.sink;
+
+import com.google.api.client.json.JsonGenerator;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.bigquery.model.TableDataInsertAllRequest;
+import org.jenkinsci.plugins.googlecloudlogging.benchmarks.BuildFixtures;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildParameter;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.entities.JenkinsBuild;
+import org.jenkinsci.plugins.googlecloudlogging.manager.PooledByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning captured records into what the sinks send: the QUERY mode SQL, the Datastore entity and the insertAll
+ * request body of STREAMING mode, written the way BigQueryManager writes it. Each call encodes a batch of records.
+ * {@link #insertAllBodyFromMaps()} is the body as it was built before rows were streamed: a map per record wrapped in
+ * the client's request model, serialized into a fresh buffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final JacksonFactory JSON = JacksonFactory.getDefaultInstance();
+
+    @Param({"10", "100", "1000"})
+    public int variables;
+
+    @Param({"1", "100"})
+    public int batch;
+
+    private List<BuildRecord> records;
+    private BuildRecordRows rows;
+
+    @Setup
+    public void setUp() {
+        records = new ArrayList<BuildRecord>(batch);
+        for (int i = 0; i < batch; i++) {
+            records.add(BuildFixtures.record(variables));
+        }
+        rows = new BuildRecordRows(records);
+    }
+
+    @Benchmark
+    public List<String> querySql() {
+        return BigQuerySink.toQuerySql(records);
+    }
+
+    @Benchmark
+    public List<JenkinsBuild> jenkinsBuild() {
+        List<JenkinsBuild> builds = new ArrayList<JenkinsBuild>(records.size());
+        for (BuildRecord record : records) {
+            builds.add(DatastoreSink.toJenkinsBuild(record));
+        }
+        return builds;
+    }
+
+    @Benchmark
+    public int insertAllBody() throws IOException {
+        PooledByteBuffer body = PooledByteBuffer.acquire();
+        try {
+            JsonGenerator generator = JSON.createJsonGenerator(body, UTF_8);
+            generator.writeStartObject();
+            generator.writeFieldName("rows");
+            generator.writeStartArray();
+            for (int i = 0; i < rows.size(); i++) {
+                generator.writeStartObject();
+                generator.writeFieldName("insertId");
+                generator.writeString(rows.getInsertId(i));
+                generator.writeFieldName("json");
+                rows.writeRow(generator, i);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.close();
+            return body.size();
+        } finally {
+            body.release();
+        }
+    }
+
+    @Benchmark
+    public int insertAllBodyFromMaps() throws IOException {
+        List<TableDataInsertAllRequest.Rows> rows = new ArrayList<TableDataInsertAllRequest.Rows>(records.size());
+        for (BuildRecord record : records) {
+            rows.add(new TableDataInsertAllRequest.Rows().setInsertId(record.getBuildTag()).setJson(toJson(record)));
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        JsonGenerator generator = JSON.createJsonGenerator(body, UTF_8);
+        generator.serialize(new TableDataInsertAllRequest().setRows(rows));
+        generator.close();
+        return body.size();
+    }
+
+    private static Map<String, Object> toJson(BuildRecord record) {
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("build_tag", record.getBuildTag());
+        row.put("job_name", record.getJobName());
+        row.put("build_number", record.getBuildNumber());
+        row.put("build_start_ts", record.getBuildStartTime() / 1000.0);
+        row.put("build_end_ts", record.getBuildEndTime() / 1000.0);
+        row.put("build_duration", record.getBuildDurationSeconds());
+        row.put("build_result", record.getBuildResult());
+        row.put("build_url", record.getBuildUrl());
+        row.put("jenkins_url", record.getJenkinsUrl());
+        row.put("executor_number", record.getExecutorNumber());
+        row.put("workspace", record.getWorkspace());
+        row.put("params", BuildParameter.join(record.getParams()));
+        row.put("git_commit", record.getGitCommit());
+        row.put("git_url", record.getGitUrl());
+        row.put("git_branch", record.getGitBranch());
+        row.put("upstream_url", record.getUpstreamUrl());
+        row.put("upstream_build_number", record.getUpstreamBuildNumber());
+        row.put("upstream_project", record.getUpstreamProject());
+        row.put("pipeline", record.isPipeline());
+        row.put("queue_wait_ms", record.getQueueWaitMillis());
+        row.put("blocked_ms", record.getBlockedMillis());
+        row.put("execution_ms", record.getExecutionMillis());
+        row.put("assigned_label", record.getAssignedLabel());
+        row.put("node_name", record.getNodeName());
+        List<Map<String, Object>> params = new ArrayList<Map<String, Object>>(record.getParams().size());
+        for (BuildParameter param : record.getParams()) {
+            Map<String, Object> kv = new LinkedHashMap<String, Object>(4);
+            kv.put("key", param.getKey());
+            kv.put("value", param.getValue());
+            kv.put("sensitive", param.isSensitive());
+            params.add(kv);
+        }
+        row.put("params_kv", params);
+        return row;
+    }
+}
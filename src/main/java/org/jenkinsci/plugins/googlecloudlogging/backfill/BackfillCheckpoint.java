@@ -0,0 +1,137 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.backfill;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers, per job, the last build number the backfill has handed to the export dispatcher, so an interrupted
+ * backfill resumes from there. Builds are walked in ascending order within a job, so one number per job is enough.
+ *
+ * The file is rewritten through a temporary file and a rename, so it is never left half written. Whether the last
+ * backfill finished is kept in the same file, under a key no job can have.
+ */
+public class BackfillCheckpoint {
+    /** Jenkins does not allow ':' in item names, so no job's full name can be this key */
+    private static final String COMPLETE = ":complete";
+
+    private final File file;
+    private final Map<String, Integer> lastExported = new ConcurrentHashMap<String, Integer>();
+    private volatile boolean complete;
+    private long lastSaved;
+
+    private BackfillCheckpoint(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param file Checkpoint file, which does not have to exist yet
+     *
+     * @return The checkpoint as last saved
+     *
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static BackfillCheckpoint load(File file) throws IOException {
+        BackfillCheckpoint checkpoint = new BackfillCheckpoint(file);
+        Properties properties = PropertiesFile.read(file);
+        for (String job : properties.stringPropertyNames()) {
+            if (COMPLETE.equals(job)) {
+                checkpoint.complete = Boolean.parseBoolean(properties.getProperty(job));
+                continue;
+            }
+            try {
+                checkpoint.lastExported.put(job, Integer.parseInt(properties.getProperty(job)));
+            } catch (NumberFormatException e) {
+                // Start that job over
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @param job Full name of the job
+     *
+     * @return Last build number handed off for the job, 0 if none
+     */
+    public int getLastExported(String job) {
+        Integer number = lastExported.get(job);
+        return number != null ? number : 0;
+    }
+
+    /**
+     * @param job Full name of the job
+     * @param number Build number that has just been handed off
+     */
+    public void advance(String job, int number) {
+        lastExported.put(job, number);
+    }
+
+    /**
+     * @return true if a previous backfill walked every job to the end
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * Forgets all progress so the next backfill starts from the first build of every job.
+     *
+     * @throws IOException If the file cannot be deleted
+     */
+    public synchronized void reset() throws IOException {
+        lastExported.clear();
+        complete = false;
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to delete " + file);
+        }
+    }
+
+    /**
+     * Saves the checkpoint if it was last saved longer ago than the given interval.
+     *
+     * @param intervalMillis Minimum time between two saves
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void saveIfDue(long intervalMillis) throws IOException {
+        if (System.currentTimeMillis() - lastSaved >= intervalMillis) {
+            save();
+        }
+    }
+
+    /**
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Integer> entry : lastExported.entrySet()) {
+            properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        properties.setProperty(COMPLETE, String.valueOf(complete));
+        PropertiesFile.write(file, properties, "Google Cloud Logging backfill progress");
+        lastSaved = System.currentTimeMillis();
+    }
+}
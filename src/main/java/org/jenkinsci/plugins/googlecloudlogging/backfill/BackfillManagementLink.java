@@ -0,0 +1,109 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.backfill;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import java.io.IOException;
+
+/**
+ * Manage Jenkins page to start, follow and cancel the backfill of builds that completed before the plugin was set up.
+ */
+@Extension
+public class BackfillManagementLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "/images/48x48/clock.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Google Cloud Logging Backfill";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Export builds that completed before Google Cloud Logging was enabled";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "google-cloud-logging-backfill";
+    }
+
+    public BackfillTask getBackfill() {
+        GoogleCloudLoggingPlugin plugin = getPlugin();
+        return plugin != null ? plugin.getBackfill() : null;
+    }
+
+    public int getDefaultParallelism() {
+        return GoogleCloudLoggingConstants.DEFAULT_BACKFILL_PARALLELISM;
+    }
+
+    public double getDefaultRunsPerSecond() {
+        return GoogleCloudLoggingConstants.DEFAULT_BACKFILL_RUNS_PER_SECOND;
+    }
+
+    /**
+     * Starts a backfill, carrying on from the last checkpoint unless asked to start over.
+     */
+    @RequirePOST
+    public HttpResponse doStart(@QueryParameter int parallelism, @QueryParameter double runsPerSecond,
+                                @QueryParameter boolean restart) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        GoogleCloudLoggingPlugin plugin = getPlugin();
+        if (plugin == null) {
+            return HttpResponses.error(503, "Google Cloud Logging is not running");
+        }
+        if (!plugin.isEnableBigQuery() && !plugin.isEnableDatastore()) {
+            return HttpResponses.error(400, "Both BigQuery and Datastore Logging Disabled, No Logging to Perform");
+        }
+
+        plugin.startBackfill(parallelism > 0 ? parallelism : getDefaultParallelism(),
+                runsPerSecond > 0 ? runsPerSecond : getDefaultRunsPerSecond(), restart);
+        return HttpResponses.redirectToDot();
+    }
+
+    /**
+     * Cancels the running backfill, keeping its checkpoint.
+     */
+    @RequirePOST
+    public HttpResponse doCancel() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        BackfillTask backfill = getBackfill();
+        if (backfill != null) {
+            backfill.cancel();
+        }
+        return HttpResponses.redirectToDot();
+    }
+
+    private static GoogleCloudLoggingPlugin getPlugin() {
+        return Jenkins.getInstance().getPlugin(GoogleCloudLoggingPlugin.class);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.backfill;
+
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.dispatch.ExportDispatcher;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.listener.BuildRecordCapture;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exports the builds already on disk, using the same capture as a completing build, through the plugin's dispatcher.
+ *
+ * Jobs are split across a fork-join pool, each job being walked from its oldest build not exported yet up to the first
+ * build the live listener took on, which exports that build and the ones after it. The walk is
+ * throttled both by a rate limit on the builds loaded and by leaving half the export queue free for live builds, so it
+ * neither floods the controller nor starves the listener. Progress is checkpointed per job so a cancelled or
+ * interrupted backfill resumes where it stopped.
+ */
+public class BackfillTask implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(BackfillTask.class.getName());
+
+    public enum State { RUNNING, COMPLETED, CANCELLED, FAILED }
+
+    private final GoogleCloudLoggingPlugin plugin;
+    private final BackfillCheckpoint checkpoint;
+    private final LiveExportMarks liveMarks;
+    private final int parallelism;
+    private final long permitIntervalNanos;
+    private long nextPermitNanos;
+
+    private final AtomicLong exported = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong jobsDone = new AtomicLong();
+    private volatile int jobCount;
+    private volatile boolean cancelled;
+    private volatile State state = State.RUNNING;
+    private volatile ForkJoinPool pool;
+
+    /**
+     * @param plugin Plugin whose dispatcher and parameter filter the builds go through
+     * @param checkpoint Progress of any earlier backfill
+     * @param liveMarks First build of each job exported by the listener
+     * @param parallelism Jobs walked at the same time
+     * @param runsPerSecond Most builds loaded per second, across all jobs
+     */
+    public BackfillTask(GoogleCloudLoggingPlugin plugin, BackfillCheckpoint checkpoint, LiveExportMarks liveMarks, int parallelism, double runsPerSecond) {
+        this.plugin = plugin;
+        this.checkpoint = checkpoint;
+        this.liveMarks = liveMarks;
+        this.parallelism = Math.max(1, parallelism);
+        this.permitIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / Math.max(0.1, runsPerSecond));
+    }
+
+    @Override
+    public void run() {
+        List<Job> jobs = new ArrayList<Job>(Jenkins.getInstance().getAllItems(Job.class));
+        jobCount = jobs.size();
+        LOGGER.log(Level.INFO, "Starting Google Cloud Logging backfill of " + jobCount + " jobs");
+
+        pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new JobWalk(jobs, 0, jobs.size()));
+            if (cancelled) {
+                state = State.CANCELLED;
+            } else {
+                checkpoint.setComplete(true);
+                state = State.COMPLETED;
+            }
+        } catch (CancellationException e) {
+            state = State.CANCELLED;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Google Cloud Logging backfill failed", e);
+            state = State.FAILED;
+        } finally {
+            pool.shutdownNow();
+            try {
+                checkpoint.save();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error saving Google Cloud Logging backfill checkpoint :: " + e.getMessage());
+            }
+        }
+
+        LOGGER.log(Level.INFO, "Google Cloud Logging backfill " + state.name().toLowerCase() + " after exporting "
+                + exported.get() + " builds, " + failed.get() + " failed");
+    }
+
+    /**
+     * Stops the walk after the builds in hand, keeping the checkpoint so the next backfill carries on from there.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getExportedCount() {
+        return exported.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getJobsDone() {
+        return jobsDone.get();
+    }
+
+    public int getJobCount() {
+        return jobCount;
+    }
+
+    /**
+     * Walks a slice of the job list, splitting it in half until a single job is left.
+     */
+    private class JobWalk extends RecursiveAction {
+        private final List<Job> jobs;
+        private final int from;
+        private final int to;
+
+        JobWalk(List<Job> jobs, int from, int to) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                return;
+            }
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new JobWalk(jobs, from, middle), new JobWalk(jobs, middle, to));
+            } else if (to > from) {
+                walk(jobs.get(from));
+            }
+        }
+    }
+
+    /**
+     * Exports every finished build of the job after the checkpoint and before the listener's first, oldest first.
+     */
+    private void walk(Job<?, ?> job) {
+        String name = job.getFullName();
+        int last = checkpoint.getLastExported(name);
+
+        try {
+            Run<?, ?> run = job.getNearestBuild(last + 1);
+            while (run != null && !cancelled) {
+                // Stop at the first build the listener took on or still running, it exports that build and the rest
+                if (run.getNumber() >= liveMarks.getFirstLive(name) || run.isBuilding()) {
+                    break;
+                }
+
+                throttle();
+                if (!export(run)) {
+                    return;
+                }
+                checkpoint.advance(name, run.getNumber());
+                checkpoint.saveIfDue(GoogleCloudLoggingConstants.BACKFILL_CHECKPOINT_INTERVAL_MS);
+
+                run = run.getNextBuild();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error saving Google Cloud Logging backfill checkpoint :: " + e.getMessage());
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // One broken job should not end the backfill of all the others
+            LOGGER.log(Level.WARNING, "Error backfilling " + name, e);
+        }
+
+        if (!cancelled) {
+            jobsDone.incrementAndGet();
+        }
+    }
+
+    /**
+     * Spaces the builds loaded evenly at the configured rate across all walking threads.
+     */
+    private void throttle() throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextPermitNanos - now < 0) {
+                nextPermitNanos = now;
+            }
+            wait = nextPermitNanos - now;
+            nextPermitNanos += permitIntervalNanos;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * @return false if the dispatcher has gone away and the backfill has to stop
+     */
+    private boolean export(Run<?, ?> run) throws InterruptedException {
+        ExportDispatcher dispatcher = waitForRoom();
+        if (dispatcher == null) {
+            cancelled = true;
+            return false;
+        }
+
+        BuildRecord record;
+        try {
+            record = BuildRecordCapture.capture(run, TaskListener.NULL, plugin.getParameterFilter());
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Skipping " + run.getFullDisplayName() + " :: " + e.getMessage());
+            failed.incrementAndGet();
+            return true;
+        }
+
+        if (!dispatcher.submit(record)) {
+            cancelled = true;
+            return false;
+        }
+        exported.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Holds the walk while the export queue is more than half full, so live builds always find room.
+     *
+     * @return The dispatcher to submit to, or null if the plugin has been stopped
+     */
+    private ExportDispatcher waitForRoom() throws InterruptedException {
+        while (!cancelled) {
+            ExportDispatcher dispatcher = plugin.getDispatcher();
+            if (dispatcher == null) {
+                return null;
+            }
+            if (dispatcher.getRemainingCapacity() * 2 >= plugin.getExportQueueCapacity()) {
+                return dispatcher;
+            }
+            Thread.sleep(GoogleCloudLoggingConstants.BACKFILL_QUEUE_WAIT_MS);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.backfill;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers, per job, the first build number the live listener took on. That build and every later one are exported
+ * as they complete, so the backfill stops short of it rather than exporting them a second time.
+ *
+ * A job gets its mark once, the first time the listener sees one of its builds, so the file is only rewritten when a
+ * job is seen for the first time. It is kept apart from the backfill checkpoint, which Start Over deletes.
+ */
+public class LiveExportMarks {
+    private final File file;
+    private final Map<String, Integer> firstLive = new ConcurrentHashMap<String, Integer>();
+
+    private LiveExportMarks(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param file Marks file, which does not have to exist yet
+     *
+     * @return The marks as last saved
+     *
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static LiveExportMarks load(File file) throws IOException {
+        LiveExportMarks marks = new LiveExportMarks(file);
+        Properties properties = PropertiesFile.read(file);
+        for (String job : properties.stringPropertyNames()) {
+            try {
+                marks.firstLive.put(job, Integer.parseInt(properties.getProperty(job)));
+            } catch (NumberFormatException e) {
+                // Without a mark the backfill walks the job to its running build, as before
+            }
+        }
+        return marks;
+    }
+
+    /**
+     * @param job Full name of the job
+     *
+     * @return First build number the listener took on for the job, {@link Integer#MAX_VALUE} if none
+     */
+    public int getFirstLive(String job) {
+        Integer number = firstLive.get(job);
+        return number != null ? number : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Called by the listener for every build it exports, only the first one per job, or an earlier one, is kept.
+     *
+     * @param job Full name of the job
+     * @param number Build number the listener is taking on
+     *
+     * @throws IOException If a new mark cannot be written
+     */
+    public void record(String job, int number) throws IOException {
+        Integer current = firstLive.get(job);
+        if (current != null && current <= number) {
+            return;
+        }
+        synchronized (this) {
+            current = firstLive.get(job);
+            if (current != null && current <= number) {
+                return;
+            }
+            firstLive.put(job, number);
+            save();
+        }
+    }
+
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Integer> entry : firstLive.entrySet()) {
+            properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        PropertiesFile.write(file, properties, "Google Cloud Logging first build exported live per job");
+    }
+}
@@ -0,0 +1,80 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.backfill;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Reads and writes the small properties files of the backfill. A file is replaced through a synced temporary file and
+ * a rename, so it is never left half written.
+ */
+final class PropertiesFile {
+
+    private PropertiesFile() {}
+
+    /**
+     * @param file File to read, which does not have to exist
+     *
+     * @return The properties in the file, none if it does not exist
+     *
+     * @throws IOException If the file exists but cannot be read
+     */
+    static Properties read(File file) throws IOException {
+        Properties properties = new Properties();
+        if (!file.exists()) {
+            return properties;
+        }
+
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    /**
+     * @param file File to replace
+     * @param properties Properties to write
+     * @param comment Header line of the file
+     *
+     * @throws IOException If the file cannot be written
+     */
+    static void write(File file, Properties properties, String comment) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, comment);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            // Windows does not replace an existing file on rename
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        }
+    }
+}
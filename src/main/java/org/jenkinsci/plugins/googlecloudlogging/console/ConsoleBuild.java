@@ -0,0 +1,105 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.console;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Console shipping state of one running build. Line numbers count every line the build wrote, shipped or not, so
+ * gaps in a shipped console show where lines were left out.
+ */
+public final class ConsoleBuild {
+    private final int id;
+    private final String buildTag;
+    private final String jobName;
+    private final String buildNumber;
+    private final long maxBytes;
+    private final AtomicInteger lines = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+
+    public ConsoleBuild(int id, String buildTag, String jobName, String buildNumber, long maxBytes) {
+        this.id = id;
+        this.buildTag = buildTag;
+        this.jobName = jobName;
+        this.buildNumber = buildNumber;
+        this.maxBytes = maxBytes;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getBuildTag() {
+        return buildTag;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public String getBuildNumber() {
+        return buildNumber;
+    }
+
+    /**
+     * @return Number of the next line
+     */
+    int nextLineNumber() {
+        return lines.incrementAndGet();
+    }
+
+    /**
+     * @param length Bytes of the line about to be shipped
+     *
+     * @return false once the build has shipped as much as it may, the line is not counted then
+     */
+    boolean reserve(int length) {
+        while (true) {
+            long current = bytes.get();
+            if (current + length > maxBytes) {
+                return false;
+            }
+            if (bytes.compareAndSet(current, current + length)) {
+                return true;
+            }
+        }
+    }
+
+    AtomicInteger getPending() {
+        return pending;
+    }
+
+    void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.console;
+
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.TableDataInsertAllRequest;
+import hudson.console.ConsoleNote;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryManager;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.jenkinsci.plugins.googlecloudlogging.retry.CircuitOpenException;
+import org.jenkinsci.plugins.googlecloudlogging.retry.InvalidRowsException;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams the buffered console lines to the console table in batches, with the plugin's BigQuery client, rate limit
+ * and circuit breaker. A batch that cannot be written is dropped, the lines behind it keep the buffer busy and the
+ * builds fall back to sampling until the sink catches up.
+ */
+public class ConsoleFlushTask implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(ConsoleFlushTask.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final GoogleCloudLoggingPlugin plugin;
+
+    public ConsoleFlushTask(GoogleCloudLoggingPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (!plugin.isEnableBigQuery() || !plugin.isEnableConsoleLogs()) {
+                return;
+            }
+
+            ConsoleLogShipper shipper = plugin.getConsoleLogShipper();
+            while (true) {
+                List<ConsoleLine> lines = shipper.drain(GoogleCloudLoggingConstants.CONSOLE_BATCH_MAX_LINES,
+                        GoogleCloudLoggingConstants.CONSOLE_BATCH_MAX_BYTES);
+                if (lines.isEmpty()) {
+                    break;
+                }
+                if (!write(shipper, lines)) {
+                    break;
+                }
+            }
+            shipper.evictClosed();
+        } catch (RuntimeException e) {
+            // Keep the scheduled task alive, a thrown exception would cancel it
+            LOGGER.log(Level.WARNING, "Error flushing Google Cloud Logging console lines", e);
+        }
+    }
+
+    private boolean write(ConsoleLogShipper shipper, List<ConsoleLine> lines) {
+        List<TableDataInsertAllRequest.Rows> rows = new ArrayList<TableDataInsertAllRequest.Rows>(lines.size());
+        for (ConsoleLine line : lines) {
+            ConsoleBuild build = shipper.release(line);
+            if (build != null) {
+                rows.add(new TableDataInsertAllRequest.Rows()
+                        .setInsertId(build.getBuildTag() + "-log-" + line.getLineNumber())
+                        .setJson(toConsoleJson(build, line)));
+            }
+        }
+        if (rows.isEmpty()) {
+            return true;
+        }
+
+        try {
+            Bigquery bigquery = plugin.getBigQueryClient().get();
+            BigQueryManager.insertRows(bigquery, plugin.getBqProject(), plugin.getBqDataset(),
+                    plugin.getBqTable() + GoogleCloudLoggingConstants.CONSOLE_TABLE_SUFFIX, rows,
+                    plugin.getConsoleRetryPolicy(), plugin.getConsoleBreaker());
+            return true;
+        } catch (InvalidRowsException e) {
+            // The other lines are written, only the refused ones are lost
+            LOGGER.log(Level.WARNING, "Dropped " + e.getIndexes().size() + " console lines refused by BigQuery :: " + e.getMessage());
+            shipper.recordFailed(e.getIndexes().size());
+            return true;
+        } catch (CircuitOpenException e) {
+            LOGGER.log(Level.FINE, "Dropped " + rows.size() + " console lines, BigQuery console circuit is open");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Dropped " + rows.size() + " console lines that could not be written to BigQuery :: " + e.getMessage());
+        }
+        shipper.recordFailed(rows.size());
+        return false;
+    }
+
+    /**
+     * @param build Build the line belongs to
+     * @param line Line taken from the buffer
+     *
+     * @return The line as a row of the console table, with console annotations removed
+     */
+    static Map<String, Object> toConsoleJson(ConsoleBuild build, ConsoleLine line) {
+        Map<String, Object> row = new LinkedHashMap<String, Object>(8);
+        row.put("build_tag", build.getBuildTag());
+        row.put("job_name", build.getJobName());
+        row.put("build_number", build.getBuildNumber());
+        row.put("line_number", line.getLineNumber());
+        row.put("log_ts", line.getTimestamp() / 1000.0);
+        row.put("line", ConsoleNote.removeNotes(new String(line.getBytes(), UTF_8)));
+        return row;
+    }
+}
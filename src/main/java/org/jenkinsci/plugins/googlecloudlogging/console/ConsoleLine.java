@@ -0,0 +1,50 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.console;
+
+/**
+ * A console line taken out of the ring buffer, still as the bytes the build wrote.
+ */
+public final class ConsoleLine {
+    private final int buildId;
+    private final int lineNumber;
+    private final long timestamp;
+    private final byte[] bytes;
+
+    public ConsoleLine(int buildId, int lineNumber, long timestamp, byte[] bytes) {
+        this.buildId = buildId;
+        this.lineNumber = lineNumber;
+        this.timestamp = timestamp;
+        this.bytes = bytes;
+    }
+
+    public int getBuildId() {
+        return buildId;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.console;
+
+import hudson.Util;
+import hudson.model.Run;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Takes console lines from running builds into the ring buffer and hands them to the flush task.
+ *
+ * Lines are never waited on. Once the buffer is more than {@value GoogleCloudLoggingConstants#CONSOLE_SAMPLE_PERCENT}
+ * percent full, which means the sink is falling behind, only every
+ * {@value GoogleCloudLoggingConstants#CONSOLE_SAMPLE_EVERY}th line is kept, and lines that do not fit at all are
+ * dropped. A build that has shipped its byte cap ships nothing more, so one chatty build cannot take the buffer from
+ * the others.
+ */
+public final class ConsoleLogShipper {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ConsoleRingBuffer buffer;
+    private final int sampleThreshold;
+    private final ConcurrentMap<Integer, ConsoleBuild> builds = new ConcurrentHashMap<Integer, ConsoleBuild>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicLong capped = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param bufferBytes Size of the ring buffer
+     */
+    public ConsoleLogShipper(int bufferBytes) {
+        this.buffer = new ConsoleRingBuffer(bufferBytes);
+        this.sampleThreshold = (int) (bufferBytes * (long) GoogleCloudLoggingConstants.CONSOLE_SAMPLE_PERCENT / 100);
+    }
+
+    /**
+     * @param run Build starting to write its console
+     * @param maxBytes Most console bytes the build may ship
+     *
+     * @return State to pass with the build's lines
+     */
+    public ConsoleBuild register(Run<?, ?> run, long maxBytes) {
+        // Same as the BUILD_TAG environment variable, which is not worth computing the whole environment for
+        String buildTag = "jenkins-" + Util.rawEncode(run.getParent().getFullName().replace('/', '-')) + "-" + run.getNumber();
+        ConsoleBuild build = new ConsoleBuild(nextId.incrementAndGet(), buildTag, run.getParent().getFullName(),
+                String.valueOf(run.getNumber()), maxBytes);
+        builds.put(build.getId(), build);
+        return build;
+    }
+
+    /**
+     * Runs on the build's own thread, right after the line was written to the console.
+     *
+     * @param build Build the line belongs to
+     * @param line Bytes of the line, ending with its line separator
+     * @param length Number of bytes of the line in the array
+     */
+    public void offer(ConsoleBuild build, byte[] line, int length) {
+        int lineNumber = build.nextLineNumber();
+        while (length > 0 && (line[length - 1] == '\n' || line[length - 1] == '\r')) {
+            length--;
+        }
+        if (length == 0) {
+            return;
+        }
+        length = Math.min(length, GoogleCloudLoggingConstants.CONSOLE_MAX_LINE_BYTES);
+
+        if (buffer.getUsedBytes() > sampleThreshold && lineNumber % GoogleCloudLoggingConstants.CONSOLE_SAMPLE_EVERY != 0) {
+            sampled.incrementAndGet();
+            build.dropped();
+            return;
+        }
+        if (!build.reserve(length)) {
+            capped.incrementAndGet();
+            build.dropped();
+            return;
+        }
+        append(build, lineNumber, line, length);
+    }
+
+    /**
+     * Called once the build's console is closed. If any of its lines were left out a last line says how many, so
+     * the shipped console is not mistaken for the whole of it.
+     *
+     * @param build Build whose console was closed
+     */
+    public void close(ConsoleBuild build) {
+        long count = build.getDroppedCount();
+        if (count > 0) {
+            byte[] note = ("[Google Cloud Logging] " + count + " console lines were not shipped").getBytes(UTF_8);
+            append(build, build.nextLineNumber(), note, note.length);
+        }
+        build.close();
+    }
+
+    private void append(ConsoleBuild build, int lineNumber, byte[] line, int length) {
+        build.getPending().incrementAndGet();
+        if (!buffer.offer(build.getId(), lineNumber, System.currentTimeMillis(), line, length)) {
+            build.getPending().decrementAndGet();
+            dropped.incrementAndGet();
+            build.dropped();
+        }
+    }
+
+    /**
+     * @param maxLines Most lines to take
+     * @param maxBytes Most line bytes to take
+     *
+     * @return Lines waiting to be shipped, oldest first
+     */
+    public List<ConsoleLine> drain(int maxLines, int maxBytes) {
+        return buffer.drain(maxLines, maxBytes);
+    }
+
+    /**
+     * Looks up the build of a drained line and counts the line as no longer pending.
+     *
+     * @param line Line taken from {@link #drain(int, int)}
+     *
+     * @return The line's build, or null if it is unknown
+     */
+    public ConsoleBuild release(ConsoleLine line) {
+        ConsoleBuild build = builds.get(line.getBuildId());
+        if (build != null) {
+            build.getPending().decrementAndGet();
+        }
+        return build;
+    }
+
+    /**
+     * Forgets the builds that have closed their console and have no lines left in the buffer.
+     */
+    public void evictClosed() {
+        Iterator<ConsoleBuild> it = builds.values().iterator();
+        while (it.hasNext()) {
+            ConsoleBuild build = it.next();
+            if (build.isClosed() && build.getPending().get() <= 0) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param count Lines drained but not written by the sink
+     */
+    public void recordFailed(int count) {
+        dropped.addAndGet(count);
+    }
+
+    public int getBufferedBytes() {
+        return buffer.getUsedBytes();
+    }
+
+    public int getBufferCapacity() {
+        return buffer.getCapacity();
+    }
+
+    public int getBuildCount() {
+        return builds.size();
+    }
+
+    /**
+     * @return Lines left out because the buffer was filling up
+     */
+    public long getSampledCount() {
+        return sampled.get();
+    }
+
+    /**
+     * @return Lines left out because their build had reached its byte cap
+     */
+    public long getCappedCount() {
+        return capped.get();
+    }
+
+    /**
+     * @return Lines lost because the buffer was full or the sink failed to write them
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
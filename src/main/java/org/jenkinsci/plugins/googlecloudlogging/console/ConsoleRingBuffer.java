@@ -0,0 +1,133 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.console;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed size ring of console lines kept in a direct buffer, outside the Java heap, so a backlog of unsent lines
+ * neither grows nor adds to garbage collection. Each line is stored as a 20 byte header, the build id, line number,
+ * timestamp and length, followed by its bytes, and may wrap around the end of the buffer.
+ *
+ * A line that does not fit is refused rather than waited for, writers never block on the reader.
+ */
+public final class ConsoleRingBuffer {
+    private static final int HEADER_BYTES = 20;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final byte[] header = new byte[HEADER_BYTES];
+    private final ByteBuffer headerView = ByteBuffer.wrap(header);
+    private long head;
+    private long tail;
+    private volatile int used;
+
+    /**
+     * @param capacity Size of the buffer in bytes
+     */
+    public ConsoleRingBuffer(int capacity) {
+        this.capacity = capacity;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * @param buildId Id the build was registered with
+     * @param lineNumber Position of the line in the build's console
+     * @param timestamp Time the line was written
+     * @param line Bytes of the line
+     * @param length Number of bytes to keep from the start of line
+     *
+     * @return false if there was no room for the line
+     */
+    public synchronized boolean offer(int buildId, int lineNumber, long timestamp, byte[] line, int length) {
+        if (HEADER_BYTES + length > capacity - (tail - head)) {
+            return false;
+        }
+
+        headerView.clear();
+        headerView.putInt(buildId).putInt(lineNumber).putLong(timestamp).putInt(length);
+        put(header, HEADER_BYTES);
+        put(line, length);
+        used = (int) (tail - head);
+        return true;
+    }
+
+    /**
+     * Takes lines out in the order they were offered. At least one line is taken if any is waiting.
+     *
+     * @param maxLines Most lines to take
+     * @param maxBytes Most line bytes to take
+     *
+     * @return The lines taken, empty if none were waiting
+     */
+    public synchronized List<ConsoleLine> drain(int maxLines, int maxBytes) {
+        List<ConsoleLine> lines = new ArrayList<ConsoleLine>();
+        int bytes = 0;
+        while (head < tail && lines.size() < maxLines && (lines.isEmpty() || bytes < maxBytes)) {
+            get(header, HEADER_BYTES);
+            headerView.clear();
+            int buildId = headerView.getInt();
+            int lineNumber = headerView.getInt();
+            long timestamp = headerView.getLong();
+            byte[] line = new byte[headerView.getInt()];
+            get(line, line.length);
+            lines.add(new ConsoleLine(buildId, lineNumber, timestamp, line));
+            bytes += line.length;
+        }
+        used = (int) (tail - head);
+        return lines;
+    }
+
+    /**
+     * Read without the lock, writers check it on every line.
+     *
+     * @return Bytes taken by lines not drained yet, headers included
+     */
+    public int getUsedBytes() {
+        return used;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void put(byte[] src, int length) {
+        int position = (int) (tail % capacity);
+        int first = Math.min(length, capacity - position);
+        buffer.position(position);
+        buffer.put(src, 0, first);
+        if (first < length) {
+            buffer.position(0);
+            buffer.put(src, first, length - first);
+        }
+        tail += length;
+    }
+
+    private void get(byte[] dst, int length) {
+        int position = (int) (head % capacity);
+        int first = Math.min(length, capacity - position);
+        buffer.position(position);
+        buffer.get(dst, 0, first);
+        if (first < length) {
+            buffer.position(0);
+            buffer.get(dst, first, length - first);
+        }
+        head += length;
+    }
+}
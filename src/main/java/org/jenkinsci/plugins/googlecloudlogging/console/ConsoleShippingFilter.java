@@ -0,0 +1,46 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.console;
+
+import hudson.Extension;
+import hudson.console.ConsoleLogFilter;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Wraps the console of every build so its lines are shipped while the build runs, when console shipping is enabled.
+ */
+@Extension
+public class ConsoleShippingFilter extends ConsoleLogFilter implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public OutputStream decorateLogger(Run build, OutputStream logger) {
+        GoogleCloudLoggingPlugin plugin = Jenkins.getInstance().getPlugin(GoogleCloudLoggingPlugin.class);
+        if (plugin == null || !plugin.isEnableBigQuery() || !plugin.isEnableConsoleLogs()) {
+            return logger;
+        }
+
+        ConsoleLogShipper shipper = plugin.getConsoleLogShipper();
+        ConsoleBuild consoleBuild = shipper.register(build, plugin.getConsoleMaxMegabytesPerBuild() * 1024L * 1024L);
+        return new ConsoleShippingOutputStream(logger, shipper, consoleBuild);
+    }
+}
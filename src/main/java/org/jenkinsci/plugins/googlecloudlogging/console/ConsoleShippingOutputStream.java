@@ -0,0 +1,67 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.console;
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Passes the build's console through unchanged and copies each line to the shipper once it has been written.
+ */
+public class ConsoleShippingOutputStream extends LineTransformationOutputStream {
+    private static final Logger LOGGER = Logger.getLogger(ConsoleShippingOutputStream.class.getName());
+
+    private final OutputStream out;
+    private final ConsoleLogShipper shipper;
+    private final ConsoleBuild build;
+
+    public ConsoleShippingOutputStream(OutputStream out, ConsoleLogShipper shipper, ConsoleBuild build) {
+        this.out = out;
+        this.shipper = shipper;
+        this.build = build;
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        out.write(b, 0, len);
+        try {
+            shipper.offer(build, b, len);
+        } catch (RuntimeException e) {
+            // Shipping must never break the console it copies from
+            LOGGER.log(Level.FINE, "Error shipping console line of " + build.getBuildTag(), e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+            out.close();
+        } finally {
+            shipper.close(build);
+        }
+    }
+}
@@ -18,39 +18,174 @@ package org.jenkinsci.plugins.googlecloudlogging.constants;
 
 public class GoogleCloudLoggingConstants {
 
-    /** Tags from the Jenkins environment */
-    public static final String BUILD_TAG = "${BUILD_TAG}";
-    public static final String JOB_NAME = "${JOB_NAME}";
-    public static final String BUILD_NUMBER = "${BUILD_NUMBER}";
-    public static final String BUILD_URL = "${BUILD_URL}";
-    public static final String BUILD_TS = "${BUILD_TIMESTAMP}";
-    public static final String JENKINS_URL = "${JENKINS_URL}";
-    public static final String EXECUTOR_NUMBER = "${EXECUTOR_NUMBER}";
-    public static final String WORKSPACE = "${WORKSPACE}";
-    public static final String GIT_COMMIT = "${GIT_COMMIT}";
-    public static final String GIT_URL = "${GIT_URL}";
-    public static final String GIT_BRANCH = "${GIT_BRANCH}";
+    /** Variable names read from the build environment snapshot */
+    public static final String BUILD_TAG = "BUILD_TAG";
+    public static final String JOB_NAME = "JOB_NAME";
+    public static final String BUILD_NUMBER = "BUILD_NUMBER";
+    public static final String BUILD_URL = "BUILD_URL";
+    public static final String JENKINS_URL = "JENKINS_URL";
+    public static final String EXECUTOR_NUMBER = "EXECUTOR_NUMBER";
+    public static final String WORKSPACE = "WORKSPACE";
+    public static final String GIT_COMMIT = "GIT_COMMIT";
+    public static final String GIT_URL = "GIT_URL";
+    public static final String GIT_BRANCH = "GIT_BRANCH";
 
     /** Query text to replace with values from Jenkins environment */
-    public static final String QUERY_TEXT = "SELECT '%1$s' as build_tag," +
-            " '%2$s' as job_name," +
-            " '%3$s' as build_number," +
-            " TIMESTAMP('%4$s') as build_start_ts," +
-            " CURRENT_TIMESTAMP() as build_end_ts," +
-            " TIMESTAMP_DIFF(CURRENT_TIMESTAMP(), TIMESTAMP('%5$s'), SECOND) as build_duration, " +
-            " '%6$s' as build_result," +
-            " '%7$s' as build_url," +
-            " '%8$s' as jenkins_url," +
-            " '%9$s' as executor_number," +
-            " '%10$s' as WORKSPACE," +
-            " '%11$s' as params," +
-            " '%12$s' as git_commit," +
-            " '%13$s' as git_url," +
-            " '%14$s' as git_branch," +
-            " '%15$s' as upstream_url," +
-            " '%16$s' as upstream_build_number," +
-            " '%17$s' as upstream_project," +
-            " %18$s as pipeline";
+    public static final String QUERY_TEXT = "SELECT %1$s as build_tag," +
+            " %2$s as job_name," +
+            " %3$s as build_number," +
+            " TIMESTAMP_MILLIS(%4$s) as build_start_ts," +
+            " TIMESTAMP_MILLIS(%5$s) as build_end_ts," +
+            " DIV(%5$s - %4$s, 1000) as build_duration, " +
+            " %6$s as build_result," +
+            " %7$s as build_url," +
+            " %8$s as jenkins_url," +
+            " %9$s as executor_number," +
+            " %10$s as WORKSPACE," +
+            " %11$s as params," +
+            " %12$s as git_commit," +
+            " %13$s as git_url," +
+            " %14$s as git_branch," +
+            " %15$s as upstream_url," +
+            " %16$s as upstream_build_number," +
+            " %17$s as upstream_project," +
+            " %18$s as pipeline," +
+            " %19$s as queue_wait_ms," +
+            " %20$s as blocked_ms," +
+            " %21$s as execution_ms," +
+            " %22$s as assigned_label," +
+            " %23$s as node_name," +
+            " %24$s as params_kv";
+
+    /** Query text selecting one stage of a pipeline, every value is passed as a ready made literal */
+    public static final String STAGE_QUERY_TEXT = "SELECT %1$s as build_tag," +
+            " %2$s as job_name," +
+            " %3$s as build_number," +
+            " %4$s as stage_id," +
+            " %5$s as parent_stage_id," +
+            " %6$s as stage_name," +
+            " %7$s as parallel_branch," +
+            " TIMESTAMP_MILLIS(%8$s) as stage_start_ts," +
+            " TIMESTAMP_MILLIS(%9$s) as stage_end_ts," +
+            " %10$s as stage_duration_ms," +
+            " %11$s as stage_result," +
+            " %12$s as node_label";
+
+    /** Stage rows go to the build table's name with this suffix */
+    public static final String STAGES_TABLE_SUFFIX = "_stages";
+
+    /** Stop collecting stages past this many for a single build */
+    public static final int MAX_STAGES_PER_BUILD = 1000;
+
+    /** Type of the params_kv literal in the query, kept typed so a build without parameters still has the column */
+    public static final String PARAMS_ARRAY_TYPE = "ARRAY<STRUCT<key STRING, value STRING, sensitive BOOL>>";
+
+    /** Export dispatcher defaults */
+    public static final int DEFAULT_EXPORT_QUEUE_CAPACITY = 1000;
+    public static final int DEFAULT_EXPORT_WORKERS = 2;
+    public static final long EXPORT_SHUTDOWN_TIMEOUT_MS = 30000;
+    /** Batches waiting for each sink before the dispatcher workers are held up */
+    public static final int SINK_QUEUE_CAPACITY = 16;
+
+    /** Spool of build records not exported yet, relative to JENKINS_HOME */
+    public static final String SPOOL_DIRECTORY = "google-cloud-logging-spool";
+    public static final long SPOOL_SEGMENT_MAX_BYTES = 4 * 1024 * 1024;
+    public static final long SPOOL_REPLAY_INTERVAL_SECONDS = 30;
+
+    /** Batching defaults, kept well under the streaming insert limits of 10,000 rows and 10MB per request */
+    public static final int DEFAULT_BATCH_MAX_ROWS = 500;
+    public static final long DEFAULT_BATCH_MAX_BYTES = 1024 * 1024;
+    public static final long DEFAULT_BATCH_MAX_AGE_MS = 2000;
+
+    /** Retry and circuit breaker defaults */
+    public static final int DEFAULT_RETRY_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_RETRY_INITIAL_BACKOFF_MS = 500;
+    public static final long DEFAULT_RETRY_MAX_BACKOFF_MS = 30000;
+    public static final int DEFAULT_BREAKER_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_BREAKER_OPEN_MS = 60000;
+
+    /** Rate limits, the rate is cut on throttling down to the minimum and recovers up to the maximum */
+    public static final double DEFAULT_BQ_MAX_REQUESTS_PER_SECOND = 20;
+    public static final double DEFAULT_DATASTORE_MAX_REQUESTS_PER_SECOND = 50;
+    public static final double DEFAULT_CONSOLE_MAX_REQUESTS_PER_SECOND = 5;
+    public static final double DEFAULT_MIN_REQUESTS_PER_SECOND = 0.5;
+
+    /** Load mode segments, relative to JENKINS_HOME */
+    public static final String LOAD_DIRECTORY = "google-cloud-logging-load";
+    public static final int DEFAULT_LOAD_INTERVAL_MINUTES = 5;
+    public static final int DEFAULT_LOAD_MAX_MEGABYTES = 64;
+    public static final long LOAD_CHECK_INTERVAL_SECONDS = 60;
+
+    /** Backfill of existing builds, the checkpoint is relative to JENKINS_HOME */
+    public static final String BACKFILL_CHECKPOINT_FILE = "google-cloud-logging-backfill.properties";
+    public static final String BACKFILL_LIVE_MARKS_FILE = "google-cloud-logging-live-builds.properties";
+    public static final int DEFAULT_BACKFILL_PARALLELISM = 2;
+    public static final double DEFAULT_BACKFILL_RUNS_PER_SECOND = 50;
+    public static final long BACKFILL_CHECKPOINT_INTERVAL_MS = 10000;
+    public static final long BACKFILL_QUEUE_WAIT_MS = 500;
+
+    /** Datastore rejects commits with more mutations than this */
+    public static final int DATASTORE_MAX_ENTITIES_PER_COMMIT = 500;
+
+    /** Shards of the SHARDED Datastore key layout, the prefix has room for three digits */
+    public static final int DEFAULT_DATASTORE_KEY_SHARDS = 16;
+    public static final int MAX_DATASTORE_KEY_SHARDS = 1000;
+
+    /** JUnit test case rows, written to the build table's name with this suffix, a chunk at a time */
+    public static final String TESTS_TABLE_SUFFIX = "_tests";
+    public static final int TEST_CASE_CHUNK_ROWS = 500;
+
+    /** Executor utilization samples, written to the build table's name with this suffix */
+    public static final String UTILIZATION_TABLE_SUFFIX = "_utilization";
+    public static final int DEFAULT_UTILIZATION_SAMPLE_SECONDS = 60;
+    public static final int MIN_UTILIZATION_SAMPLE_SECONDS = 5;
+    public static final int UTILIZATION_FLUSH_SAMPLES = 5;
+    public static final int UTILIZATION_MAX_PENDING_SAMPLES = 60;
+
+    /** Queue timelines of builds, swept once idle for this long, and how many may be tracked at once */
+    public static final long QUEUE_TIMELINE_MAX_AGE_MS = 48L * 60 * 60 * 1000;
+    public static final long QUEUE_TIMELINE_SWEEP_INTERVAL_MS = 60000;
+    public static final int QUEUE_TIMELINE_MAX_ENTRIES = 10000;
+
+    /** Console lines shipped while builds run, written to the build table's name with this suffix */
+    public static final String CONSOLE_TABLE_SUFFIX = "_console";
+    public static final int DEFAULT_CONSOLE_BUFFER_MEGABYTES = 8;
+    public static final int MAX_CONSOLE_BUFFER_MEGABYTES = 256;
+    public static final int DEFAULT_CONSOLE_MAX_MEGABYTES_PER_BUILD = 16;
+    public static final int CONSOLE_MAX_LINE_BYTES = 4096;
+    public static final int CONSOLE_SAMPLE_PERCENT = 75;
+    public static final int CONSOLE_SAMPLE_EVERY = 10;
+    public static final int CONSOLE_BATCH_MAX_LINES = 500;
+    public static final int CONSOLE_BATCH_MAX_BYTES = 512 * 1024;
+    public static final long CONSOLE_FLUSH_INTERVAL_MS = 1000;
+
+    /** Per job rollups, written to the build table's name with this suffix */
+    public static final String ROLLUPS_TABLE_SUFFIX = "_rollups";
+    public static final int DEFAULT_ROLLUP_BUCKET_MINUTES = 60;
+    public static final long ROLLUP_FLUSH_INTERVAL_SECONDS = 60;
+    public static final int ROLLUP_MAX_KEYS = 10000;
+
+    /** Longest parameter value exported, longer values are cut */
+    public static final int DEFAULT_PARAM_MAX_VALUE_LENGTH = 1024;
+
+    /** Polling of submitted BigQuery jobs */
+    public static final long JOB_POLL_INITIAL_MS = 250;
+    public static final long JOB_POLL_MAX_MS = 5000;
+    public static final long JOB_POLL_TIMEOUT_MS = 120000;
+
+    /** Pooled buffers rows are encoded into, buffers grown past the retained size are not pooled */
+    public static final int ENCODE_BUFFER_INITIAL_BYTES = 64 * 1024;
+    public static final int ENCODE_BUFFER_MAX_RETAINED_BYTES = 4 * 1024 * 1024;
+    public static final int ENCODE_BUFFER_POOL_SIZE = 8;
+
+    /** Longest query text sent in a single query job */
+    public static final int QUERY_MAX_LENGTH = 1000000;
+
+    /** Refresh the cached access token once it has less than this long left */
+    public static final long TOKEN_REFRESH_MARGIN_SECONDS = 300;
+
+    /** A client replaced by new settings is closed this long after, once the exports using it have finished */
+    public static final long REPLACED_CLIENT_CLOSE_DELAY_SECONDS = 300;
 
     /** Miscellaneous constants */
     public static final String WRITE_DISPOSITION = "WRITE_APPEND";
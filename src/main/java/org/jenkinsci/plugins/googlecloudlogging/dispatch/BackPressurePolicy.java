@@ -0,0 +1,30 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.dispatch;
+
+/**
+ * What the dispatcher does with a new build record when its queue is full.
+ */
+public enum BackPressurePolicy {
+    /** Hold the completing build until a worker frees up a slot */
+    BLOCK,
+    /** Discard the oldest queued record to make room for the new one */
+    DROP_OLDEST,
+    /** Park the record in an overflow area that the workers drain once the queue is empty */
+    SPILL
+}
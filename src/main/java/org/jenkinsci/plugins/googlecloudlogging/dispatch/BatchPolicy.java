@@ -0,0 +1,71 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.dispatch;
+
+/**
+ * When a worker flushes the batch it is collecting. Whichever limit is reached first triggers the flush.
+ */
+public final class BatchPolicy {
+    private final int maxRows;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    /**
+     * @param maxRows Flush once the batch holds this many records
+     * @param maxBytes Flush once the records in the batch add up to roughly this many bytes
+     * @param maxAgeMillis Flush once the first record in the batch has waited this long
+     */
+    public BatchPolicy(int maxRows, long maxBytes, long maxAgeMillis) {
+        this.maxRows = Math.max(1, maxRows);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxAgeMillis = Math.max(0, maxAgeMillis);
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * @return true if a batch of this size has to be flushed now
+     */
+    public boolean isFull(int rows, long bytes) {
+        return rows >= maxRows || bytes >= maxBytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof BatchPolicy)) {
+            return false;
+        }
+        BatchPolicy other = (BatchPolicy) o;
+        return maxRows == other.maxRows && maxBytes == other.maxBytes && maxAgeMillis == other.maxAgeMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (31 * (31 * maxRows + maxBytes) + maxAgeMillis);
+    }
+}
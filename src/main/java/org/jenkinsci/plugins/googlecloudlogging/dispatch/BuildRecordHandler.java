@@ -0,0 +1,41 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.dispatch;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.jenkinsci.plugins.googlecloudlogging.spool.SpoolEntry;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives build records on the dispatcher worker threads.
+ */
+public interface BuildRecordHandler {
+
+    /**
+     * Starts exporting a batch of build records to every destination, leaving out the ones each record was already
+     * written to. May block while the exporters are backed up, but does not wait for the export itself.
+     *
+     * @param entries captured build records, oldest first
+     *
+     * @return One future per destination the batch was handed to, keyed by its name, each completing once that
+     * destination has written every record it was given, or failing if it could not
+     */
+    Map<String, ListenableFuture<?>> handle(List<SpoolEntry> entries);
+}
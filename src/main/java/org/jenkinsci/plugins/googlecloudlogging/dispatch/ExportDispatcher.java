@@ -0,0 +1,414 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.dispatch;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.retry.ErrorClassifier;
+import org.jenkinsci.plugins.googlecloudlogging.spool.BuildRecordSpool;
+import org.jenkinsci.plugins.googlecloudlogging.spool.SpoolEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands captured build records from the completing build's thread to a small pool of background workers.
+ * The queue is bounded, and what happens when it fills up is decided by the {@link BackPressurePolicy}.
+ * Each worker collects records into a batch and flushes it to the handler according to the {@link BatchPolicy}.
+ *
+ * Records are written to the {@link BuildRecordSpool} before they are queued and acknowledged once every sink has
+ * written them. A sink that succeeds while another fails is noted against each record, so the replay only goes to the
+ * sink that failed, and a batch is only handed back to the spool once all of its writes have finished. Records pushed out of the queue by back pressure, or whose export failed, stay in the spool and
+ * are replayed later. Only records the service rejected as invalid count towards moving them to the dead letter file.
+ * Records that could not be spooled are spilled to an in-memory overflow no larger than the queue itself, and
+ * dropped once that is full as well.
+ */
+public class ExportDispatcher {
+    private final static Logger LOGGER = Logger.getLogger(ExportDispatcher.class.getName());
+    private static final long POLL_INTERVAL_MS = 500;
+
+    private final BlockingQueue<SpoolEntry> queue;
+    private final Queue<SpoolEntry> overflow = new ConcurrentLinkedQueue<SpoolEntry>();
+    private final AtomicInteger overflowSize = new AtomicInteger();
+    private final int overflowCapacity;
+    private final BackPressurePolicy policy;
+    private final BatchPolicy batchPolicy;
+    private final BuildRecordHandler handler;
+    private final BuildRecordSpool spool;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean accepting = true;
+
+    /**
+     * Creates the dispatcher and starts its worker threads.
+     *
+     * @param capacity Maximum number of records waiting in the queue
+     * @param workerCount Number of worker threads exporting records
+     * @param policy What to do when the queue is full
+     * @param batchPolicy When a worker flushes its batch to the handler
+     * @param handler Exports the records on the worker threads
+     * @param spool Spool records are persisted to before being queued, or null to keep them in memory only
+     */
+    public ExportDispatcher(int capacity, int workerCount, BackPressurePolicy policy, BatchPolicy batchPolicy,
+                            BuildRecordHandler handler, BuildRecordSpool spool) {
+        this.queue = new ArrayBlockingQueue<SpoolEntry>(capacity);
+        this.overflowCapacity = capacity;
+        this.policy = policy;
+        this.batchPolicy = batchPolicy;
+        this.handler = handler;
+        this.spool = spool;
+
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(new Worker(), "Google Cloud Logging export worker " + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Persists a record to the spool and queues it for export. Only {@link BackPressurePolicy#BLOCK} ever waits,
+     * and only while the queue is full.
+     *
+     * @param record Build record to export
+     *
+     * @return false if the dispatcher has been shut down and the record was not queued
+     *
+     * @throws InterruptedException
+     */
+    public boolean submit(BuildRecord record) throws InterruptedException {
+        if (!accepting) {
+            return false;
+        }
+
+        SpoolEntry entry = persist(record);
+        switch (policy) {
+            case BLOCK:
+                queue.put(entry);
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(entry)) {
+                    SpoolEntry oldest = queue.poll();
+                    if (oldest != null) {
+                        defer(oldest);
+                    }
+                }
+                break;
+            case SPILL:
+            default:
+                if (!queue.offer(entry)) {
+                    if (entry.isSpooled()) {
+                        // Already on disk, the spool replays it once the queue has room
+                        spool.release(entry.getId());
+                    } else {
+                        spill(entry);
+                    }
+                }
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Queues a record read back from the spool, without waiting.
+     *
+     * @param entry Spooled record to export again
+     *
+     * @return false if the queue is full or the dispatcher is shut down, the record is then released back to the spool
+     */
+    public boolean offer(SpoolEntry entry) {
+        if (accepting && queue.offer(entry)) {
+            return true;
+        }
+        if (spool != null && entry.isSpooled()) {
+            spool.release(entry.getId());
+        }
+        return false;
+    }
+
+    /**
+     * @return Number of records that can be queued right now without back pressure
+     */
+    public int getRemainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    private SpoolEntry persist(BuildRecord record) {
+        if (spool != null) {
+            try {
+                return spool.append(record);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to spool " + record.getBuildTag() + ", exporting from memory only :: " + e.getMessage());
+            }
+        }
+        return new SpoolEntry(SpoolEntry.NOT_SPOOLED, record);
+    }
+
+    /**
+     * Pushes a queued record out of the queue. Spooled records are replayed later, others are lost.
+     */
+    private void defer(SpoolEntry entry) {
+        if (entry.isSpooled()) {
+            spool.release(entry.getId());
+        } else {
+            dropped.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Google Cloud Logging queue full, dropping " + entry.getRecord().getBuildTag());
+        }
+    }
+
+    /**
+     * Keeps a record that could not be spooled in memory until the queue has room, or drops it if the overflow
+     * is full too.
+     */
+    private void spill(SpoolEntry entry) {
+        if (overflowSize.incrementAndGet() > overflowCapacity) {
+            overflowSize.decrementAndGet();
+            dropped.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Google Cloud Logging queue and overflow full, dropping " + entry.getRecord().getBuildTag());
+            return;
+        }
+        overflow.add(entry);
+    }
+
+    /**
+     * Notes against each spooled record of the batch that the sink has written it.
+     */
+    private void completeSink(List<SpoolEntry> batch, String sink) {
+        if (spool == null) {
+            return;
+        }
+        for (SpoolEntry entry : batch) {
+            if (entry.isSpooled()) {
+                spool.ackSink(entry.getId(), sink);
+            }
+        }
+    }
+
+    /**
+     * Acknowledges the batch once every sink has written it, otherwise hands it back to the spool. Called only after
+     * all of the batch's writes have finished.
+     */
+    private void complete(List<SpoolEntry> batch, Map<String, ListenableFuture<?>> writes) {
+        Throwable failure = null;
+        for (ListenableFuture<?> write : writes.values()) {
+            Throwable t = failureOf(write);
+            // A rejection decides what happens to the records, so it wins over any other failure
+            if (t != null && (failure == null || ErrorClassifier.isRejected(t))) {
+                failure = t;
+            }
+        }
+        complete(batch, failure);
+    }
+
+    private static Throwable failureOf(Future<?> write) {
+        try {
+            write.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (CancellationException e) {
+            return e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        }
+    }
+
+    /**
+     * @param failure Why the export failed, or null if it succeeded
+     */
+    private void complete(List<SpoolEntry> batch, Throwable failure) {
+        if (spool == null) {
+            return;
+        }
+        boolean rejected = failure != null && ErrorClassifier.isRejected(failure);
+        for (SpoolEntry entry : batch) {
+            if (!entry.isSpooled()) {
+                continue;
+            }
+            if (failure == null) {
+                spool.ack(entry.getId());
+            } else if (rejected) {
+                spool.reject(entry, failure.getMessage());
+            } else {
+                spool.release(entry.getId());
+            }
+        }
+    }
+
+    /**
+     * @return Number of records waiting to be exported, including spilled ones
+     */
+    public int getQueueDepth() {
+        return queue.size() + overflowSize.get();
+    }
+
+    /**
+     * @return Number of records lost to back pressure because they could not be spooled
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops accepting records and gives the workers until the deadline to drain what is already queued.
+     *
+     * @param timeoutMillis How long to wait for the queue to drain
+     *
+     * @return Number of records that were still queued when the deadline passed
+     */
+    public int shutdown(long timeoutMillis) {
+        accepting = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        try {
+            for (Thread worker : workers) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining > 0) {
+                    worker.join(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+
+        int remaining = getQueueDepth();
+        if (remaining > 0) {
+            LOGGER.log(Level.WARNING, "Google Cloud Logging shut down with " + remaining + " build records not exported, "
+                    + "spooled records will be replayed on the next start");
+        }
+        return remaining;
+    }
+
+    /**
+     * Takes the next record, waiting at most the given time for one to arrive.
+     * Once the dispatcher is shut down it stops waiting and only drains what is left.
+     */
+    private SpoolEntry next(long waitMillis) throws InterruptedException {
+        SpoolEntry record = queue.poll();
+        if (record == null) {
+            record = overflow.poll();
+            if (record != null) {
+                overflowSize.decrementAndGet();
+            }
+        }
+        if (record == null && accepting && waitMillis > 0) {
+            record = queue.poll(waitMillis, TimeUnit.MILLISECONDS);
+        }
+        return record;
+    }
+
+    /**
+     * Collects records after the first one until the batch is full or the first record is too old.
+     */
+    private List<SpoolEntry> fillBatch(SpoolEntry first) throws InterruptedException {
+        List<SpoolEntry> batch = new ArrayList<SpoolEntry>(Math.min(batchPolicy.getMaxRows(), 64));
+        batch.add(first);
+        long bytes = first.getRecord().getApproximateSize();
+        long flushAt = System.currentTimeMillis() + batchPolicy.getMaxAgeMillis();
+
+        while (!batchPolicy.isFull(batch.size(), bytes)) {
+            long wait = flushAt - System.currentTimeMillis();
+            SpoolEntry entry = next(wait);
+            if (entry == null) {
+                if (wait <= 0 || !accepting) {
+                    break;
+                }
+                continue;
+            }
+            batch.add(entry);
+            bytes += entry.getRecord().getApproximateSize();
+        }
+        return batch;
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    SpoolEntry first = next(POLL_INTERVAL_MS);
+                    if (first == null) {
+                        if (!accepting && getQueueDepth() == 0) {
+                            return;
+                        }
+                        continue;
+                    }
+
+                    final List<SpoolEntry> batch = fillBatch(first);
+                    final Map<String, ListenableFuture<?>> writes;
+                    try {
+                        writes = handler.handle(batch);
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Google Cloud Logging failed to hand off " + batch.size()
+                                + " builds starting at " + batch.get(0).getRecord().getBuildTag(), e);
+                        complete(batch, e);
+                        continue;
+                    }
+
+                    // Note each sink as it finishes, and acknowledge or release once all of them have, the worker
+                    // moves straight on to the next batch
+                    for (final Map.Entry<String, ListenableFuture<?>> write : writes.entrySet()) {
+                        Futures.addCallback(write.getValue(), new FutureCallback<Object>() {
+                            @Override
+                            public void onSuccess(Object result) {
+                                completeSink(batch, write.getKey());
+                            }
+
+                            @Override
+                            public void onFailure(Throwable t) {
+                                LOGGER.log(Level.WARNING, "Google Cloud Logging " + write.getKey() + " failed for "
+                                        + batch.size() + " builds starting at " + batch.get(0).getRecord().getBuildTag()
+                                        + " :: " + t.getMessage(), t);
+                            }
+                        }, MoreExecutors.directExecutor());
+                    }
+                    Futures.successfulAsList(writes.values()).addListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            complete(batch, writes);
+                        }
+                    }, MoreExecutors.directExecutor());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
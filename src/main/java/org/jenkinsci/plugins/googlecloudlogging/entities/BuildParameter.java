@@ -0,0 +1,71 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.entities;
+
+import java.util.List;
+
+/**
+ * One environment variable of a build as it is exported. Sensitive values are already masked when captured.
+ */
+public final class BuildParameter {
+    private final String key;
+    private final String value;
+    private final boolean sensitive;
+
+    public BuildParameter(String key, String value, boolean sensitive) {
+        this.key = key;
+        this.value = value;
+        this.sensitive = sensitive;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public boolean isSensitive() {
+        return sensitive;
+    }
+
+    /**
+     * Joins parameters the way they were exported before they had a structure of their own: "Key:k, Value: v" pairs
+     * delimited by an ampersand. Datastore and the legacy BigQuery params column still take this form.
+     *
+     * @param params Exported parameters of a build
+     *
+     * @return The joined parameters
+     */
+    public static String join(List<BuildParameter> params) {
+        int capacity = 0;
+        for (BuildParameter param : params) {
+            capacity += 16 + param.getKey().length() + (param.getValue() != null ? param.getValue().length() : 0);
+        }
+
+        StringBuilder joined = new StringBuilder(capacity);
+        for (BuildParameter param : params) {
+            if (joined.length() > 0) {
+                joined.append('&');
+            }
+            joined.append("Key:").append(param.getKey()).append(", Value: ").append(param.getValue());
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.entities;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable snapshot of a completed build, captured on the build thread and handed to the export dispatcher.
+ * Nothing in here references the {@link hudson.model.Run} so the record can safely outlive the build.
+ */
+public final class BuildRecord {
+    private final String buildTag;
+    private final String jobName;
+    private final String buildNumber;
+    private final long buildStartTime;
+    private final long buildEndTime;
+    private final String buildResult;
+    private final String buildUrl;
+    private final String jenkinsUrl;
+    private final String executorNumber;
+    private final String workspace;
+    private final List<BuildParameter> params;
+    private final String gitCommit;
+    private final String gitUrl;
+    private final String gitBranch;
+    private final String upstreamUrl;
+    private final String upstreamBuildNumber;
+    private final String upstreamProject;
+    private final boolean pipeline;
+    private final String runId;
+    private final List<StageRecord> stages;
+    private final int testCaseCount;
+    private final Long queueWaitMillis;
+    private final Long blockedMillis;
+    private final long executionMillis;
+    private final String assignedLabel;
+    private final String nodeName;
+
+    public BuildRecord(String buildTag, String jobName, String buildNumber, long buildStartTime, long buildEndTime, String buildResult, String buildUrl, String jenkinsUrl, String executorNumber, String workspace, List<BuildParameter> params, String gitCommit, String gitUrl, String gitBranch, String upstreamUrl, String upstreamBuildNumber, String upstreamProject, boolean pipeline, String runId, List<StageRecord> stages, int testCaseCount, Long queueWaitMillis, Long blockedMillis, long executionMillis, String assignedLabel, String nodeName) {
+        this.buildTag = buildTag;
+        this.jobName = jobName;
+        this.buildNumber = buildNumber;
+        this.buildStartTime = buildStartTime;
+        this.buildEndTime = buildEndTime;
+        this.buildResult = buildResult;
+        this.buildUrl = buildUrl;
+        this.jenkinsUrl = jenkinsUrl;
+        this.executorNumber = executorNumber;
+        this.workspace = workspace;
+        this.params = Collections.unmodifiableList(params);
+        this.gitCommit = gitCommit;
+        this.gitUrl = gitUrl;
+        this.gitBranch = gitBranch;
+        this.upstreamUrl = upstreamUrl;
+        this.upstreamBuildNumber = upstreamBuildNumber;
+        this.upstreamProject = upstreamProject;
+        this.pipeline = pipeline;
+        this.runId = runId;
+        this.stages = Collections.unmodifiableList(stages);
+        this.testCaseCount = testCaseCount;
+        this.queueWaitMillis = queueWaitMillis;
+        this.blockedMillis = blockedMillis;
+        this.executionMillis = executionMillis;
+        this.assignedLabel = assignedLabel;
+        this.nodeName = nodeName;
+    }
+
+    public String getBuildTag() {
+        return buildTag;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public String getBuildNumber() {
+        return buildNumber;
+    }
+
+    /** Time the build started, in epoch millis */
+    public long getBuildStartTime() {
+        return buildStartTime;
+    }
+
+    /** Time the build completed, in epoch millis */
+    public long getBuildEndTime() {
+        return buildEndTime;
+    }
+
+    /** Build duration in whole seconds */
+    public long getBuildDurationSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(buildEndTime - buildStartTime);
+    }
+
+    public String getBuildResult() {
+        return buildResult;
+    }
+
+    public String getBuildUrl() {
+        return buildUrl;
+    }
+
+    public String getJenkinsUrl() {
+        return jenkinsUrl;
+    }
+
+    public String getExecutorNumber() {
+        return executorNumber;
+    }
+
+    public String getWorkspace() {
+        return workspace;
+    }
+
+    /** Environment variables kept by the parameter filter, sensitive values masked */
+    public List<BuildParameter> getParams() {
+        return params;
+    }
+
+    public String getGitCommit() {
+        return gitCommit;
+    }
+
+    public String getGitUrl() {
+        return gitUrl;
+    }
+
+    public String getGitBranch() {
+        return gitBranch;
+    }
+
+    public String getUpstreamUrl() {
+        return upstreamUrl;
+    }
+
+    public String getUpstreamBuildNumber() {
+        return upstreamBuildNumber;
+    }
+
+    public String getUpstreamProject() {
+        return upstreamProject;
+    }
+
+    public boolean isPipeline() {
+        return pipeline;
+    }
+
+    /** Externalizable id of the run, used to read its flow graph off the build thread */
+    public String getRunId() {
+        return runId;
+    }
+
+    /** Stages and parallel branches of a pipeline, empty until they have been collected */
+    public List<StageRecord> getStages() {
+        // Records spooled before stages were tracked have none
+        return stages != null ? stages : Collections.<StageRecord>emptyList();
+    }
+
+    /** Number of JUnit test cases the build reported, their rows are read from the run when exported */
+    public int getTestCaseCount() {
+        return testCaseCount;
+    }
+
+    /** Time the build waited in the queue in millis, null if the plugin did not see it enter and leave */
+    public Long getQueueWaitMillis() {
+        return queueWaitMillis;
+    }
+
+    /** Part of the queue wait the build spent blocked in millis, null along with the queue wait */
+    public Long getBlockedMillis() {
+        return blockedMillis;
+    }
+
+    /** Time from the build starting on its executor to completing, in millis */
+    public long getExecutionMillis() {
+        return executionMillis;
+    }
+
+    /** Label expression the build was restricted to, null if it could run anywhere or was not tracked */
+    public String getAssignedLabel() {
+        return assignedLabel;
+    }
+
+    /** Node the build ran on, empty for the built-in node, null if not tracked */
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    /**
+     * @param stages Stages collected for this build
+     *
+     * @return A copy of this record carrying the given stages
+     */
+    public BuildRecord withStages(List<StageRecord> stages) {
+        return new BuildRecord(buildTag, jobName, buildNumber, buildStartTime, buildEndTime, buildResult, buildUrl,
+                jenkinsUrl, executorNumber, workspace, params, gitCommit, gitUrl, gitBranch, upstreamUrl,
+                upstreamBuildNumber, upstreamProject, pipeline, runId, stages, testCaseCount, queueWaitMillis, blockedMillis,
+                executionMillis, assignedLabel, nodeName);
+    }
+
+    /**
+     * @return Rough size of the record once encoded, used to bound batches
+     */
+    public long getApproximateSize() {
+        // Column names and JSON framing
+        long size = 256;
+        for (String value : new String[] {buildTag, jobName, buildNumber, buildResult, buildUrl,
+                jenkinsUrl, executorNumber, workspace, gitCommit, gitUrl, gitBranch, upstreamUrl,
+                upstreamBuildNumber, upstreamProject, assignedLabel, nodeName}) {
+            if (value != null) {
+                size += value.length();
+            }
+        }
+        for (BuildParameter param : params) {
+            size += 32 + param.getKey().length() + (param.getValue() != null ? param.getValue().length() : 0);
+        }
+        for (StageRecord stage : getStages()) {
+            size += 128 + stage.getName().length() + stage.getNodeLabel().length();
+        }
+        return size;
+    }
+}
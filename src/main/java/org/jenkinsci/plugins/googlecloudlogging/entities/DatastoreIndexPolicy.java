@@ -0,0 +1,28 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.entities;
+
+/**
+ * Which properties of a {@link JenkinsBuild} get indexed when it is written to Datastore.
+ */
+public enum DatastoreIndexPolicy {
+    /** Index every queryable property, as {@link JenkinsBuild} always has */
+    ALL,
+    /** Index only the job name and end time, see {@link MinimalIndexJenkinsBuild} */
+    MINIMAL
+}
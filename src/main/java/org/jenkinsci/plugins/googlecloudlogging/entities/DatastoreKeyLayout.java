@@ -0,0 +1,69 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.entities;
+
+/**
+ * How the key of a {@link JenkinsBuild} is made from its job name and build number. Datastore splits its key space
+ * into ranges, so keys that sort next to each other, like the builds of one busy job, all land on the same range.
+ * The prefixed layouts spread them out while still being computed from the job name and build number alone, so a
+ * build can always be read back by key.
+ */
+public enum DatastoreKeyLayout {
+    /** jobName-buildNumber, the layout used before prefixes could be configured */
+    SEQUENTIAL {
+        @Override
+        String prefix(String id, String buildNumber, int shards) {
+            return "";
+        }
+    },
+    /** Four hex characters of a hash of the key in front of it, spreading builds evenly */
+    HASHED {
+        @Override
+        String prefix(String id, String buildNumber, int shards) {
+            // String.hashCode is fixed by the language spec, so the prefix is the same on every JVM
+            return String.format("%04x-", (id.hashCode() * 0x9E3779B1) >>> 16);
+        }
+    },
+    /** The build number modulo the shard count in front of it, so a job's builds can still be scanned per shard */
+    SHARDED {
+        @Override
+        String prefix(String id, String buildNumber, int shards) {
+            int number;
+            try {
+                number = Integer.parseInt(buildNumber);
+            } catch (NumberFormatException e) {
+                number = buildNumber != null ? buildNumber.hashCode() : 0;
+            }
+            return String.format("%03d-", (number & Integer.MAX_VALUE) % Math.max(1, shards));
+        }
+    };
+
+    abstract String prefix(String id, String buildNumber, int shards);
+
+    /**
+     * @param jobName Full name of the job
+     * @param buildNumber Number of the build
+     * @param shards Shards used by {@link #SHARDED}, ignored otherwise
+     *
+     * @return Key of the build's entity
+     */
+    public String toId(String jobName, String buildNumber, int shards) {
+        String id = jobName + "-" + buildNumber;
+        return prefix(id, buildNumber, shards) + id;
+    }
+}
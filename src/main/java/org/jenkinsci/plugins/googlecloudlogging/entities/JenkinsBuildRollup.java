@@ -0,0 +1,212 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.entities;
+
+import com.jmethods.catatumbo.Entity;
+import com.jmethods.catatumbo.Identifier;
+import com.jmethods.catatumbo.Property;
+
+import java.util.Date;
+
+/**
+ * Counts and durations, in milliseconds, of the builds of one job and branch within one time bucket. Every flush
+ * writes a new entity, so the entities of a bucket add up to its totals.
+ */
+@Entity
+public class JenkinsBuildRollup {
+    @Identifier(autoGenerated=false)
+    private String id;
+
+    private String jobName;
+    private String branch;
+    private Date bucketStart;
+    @Property(indexed = false)
+    private Integer bucketMinutes;
+    @Property(indexed = false)
+    private Long builds;
+    @Property(indexed = false)
+    private Long successes;
+    @Property(indexed = false)
+    private Long failures;
+    @Property(indexed = false)
+    private Long unstable;
+    @Property(indexed = false)
+    private Long aborted;
+    @Property(indexed = false)
+    private Long totalDuration;
+    @Property(indexed = false)
+    private Long minDuration;
+    @Property(indexed = false)
+    private Long maxDuration;
+    @Property(indexed = false)
+    private Long p50Duration;
+    @Property(indexed = false)
+    private Long p95Duration;
+    @Property(indexed = false)
+    private String durationHistogram;
+
+
+    public JenkinsBuildRollup() {}
+
+    public JenkinsBuildRollup(String id, String jobName, String branch, Date bucketStart, Integer bucketMinutes, Long builds, Long successes, Long failures, Long unstable, Long aborted, Long totalDuration, Long minDuration, Long maxDuration, Long p50Duration, Long p95Duration, String durationHistogram) {
+        this.id = id;
+        this.jobName = jobName;
+        this.branch = branch;
+        this.bucketStart = bucketStart;
+        this.bucketMinutes = bucketMinutes;
+        this.builds = builds;
+        this.successes = successes;
+        this.failures = failures;
+        this.unstable = unstable;
+        this.aborted = aborted;
+        this.totalDuration = totalDuration;
+        this.minDuration = minDuration;
+        this.maxDuration = maxDuration;
+        this.p50Duration = p50Duration;
+        this.p95Duration = p95Duration;
+        this.durationHistogram = durationHistogram;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public void setJobName(String jobName) {
+        this.jobName = jobName;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    public void setBranch(String branch) {
+        this.branch = branch;
+    }
+
+    public Date getBucketStart() {
+        return bucketStart;
+    }
+
+    public void setBucketStart(Date bucketStart) {
+        this.bucketStart = bucketStart;
+    }
+
+    public Integer getBucketMinutes() {
+        return bucketMinutes;
+    }
+
+    public void setBucketMinutes(Integer bucketMinutes) {
+        this.bucketMinutes = bucketMinutes;
+    }
+
+    public Long getBuilds() {
+        return builds;
+    }
+
+    public void setBuilds(Long builds) {
+        this.builds = builds;
+    }
+
+    public Long getSuccesses() {
+        return successes;
+    }
+
+    public void setSuccesses(Long successes) {
+        this.successes = successes;
+    }
+
+    public Long getFailures() {
+        return failures;
+    }
+
+    public void setFailures(Long failures) {
+        this.failures = failures;
+    }
+
+    public Long getUnstable() {
+        return unstable;
+    }
+
+    public void setUnstable(Long unstable) {
+        this.unstable = unstable;
+    }
+
+    public Long getAborted() {
+        return aborted;
+    }
+
+    public void setAborted(Long aborted) {
+        this.aborted = aborted;
+    }
+
+    public Long getTotalDuration() {
+        return totalDuration;
+    }
+
+    public void setTotalDuration(Long totalDuration) {
+        this.totalDuration = totalDuration;
+    }
+
+    public Long getMinDuration() {
+        return minDuration;
+    }
+
+    public void setMinDuration(Long minDuration) {
+        this.minDuration = minDuration;
+    }
+
+    public Long getMaxDuration() {
+        return maxDuration;
+    }
+
+    public void setMaxDuration(Long maxDuration) {
+        this.maxDuration = maxDuration;
+    }
+
+    public Long getP50Duration() {
+        return p50Duration;
+    }
+
+    public void setP50Duration(Long p50Duration) {
+        this.p50Duration = p50Duration;
+    }
+
+    public Long getP95Duration() {
+        return p95Duration;
+    }
+
+    public void setP95Duration(Long p95Duration) {
+        this.p95Duration = p95Duration;
+    }
+
+    public String getDurationHistogram() {
+        return durationHistogram;
+    }
+
+    public void setDurationHistogram(String durationHistogram) {
+        this.durationHistogram = durationHistogram;
+    }
+}
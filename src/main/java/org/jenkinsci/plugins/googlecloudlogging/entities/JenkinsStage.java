@@ -0,0 +1,169 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.entities;
+
+import com.jmethods.catatumbo.Entity;
+import com.jmethods.catatumbo.Identifier;
+import com.jmethods.catatumbo.Property;
+
+import java.util.Date;
+
+@Entity
+public class JenkinsStage {
+    @Identifier(autoGenerated=false)
+    private String id;
+
+    private String buildId;
+    private String jobName;
+    private String buildNumber;
+    @Property(indexed = false)
+    private String stageId;
+    @Property(indexed = false)
+    private String parentStageId;
+    private String stageName;
+    @Property(indexed = false)
+    private boolean parallelBranch;
+    private Date stageStartTimestamp;
+    private Date stageEndTimestamp;
+    private Long stageDuration;
+    private String stageResult;
+    private String nodeLabel;
+
+
+    public JenkinsStage() {}
+
+    public JenkinsStage(String buildId, String jobName, String buildNumber, String stageId, String parentStageId, String stageName, boolean parallelBranch, Date stageStartTimestamp, Date stageEndTimestamp, String stageResult, String nodeLabel) {
+        this.id = buildId + "-" + stageId;
+        this.buildId = buildId;
+        this.jobName = jobName;
+        this.buildNumber = buildNumber;
+        this.stageId = stageId;
+        this.parentStageId = parentStageId;
+        this.stageName = stageName;
+        this.parallelBranch = parallelBranch;
+        this.stageStartTimestamp = stageStartTimestamp;
+        this.stageEndTimestamp = stageEndTimestamp;
+        this.stageDuration = stageEndTimestamp.getTime() - stageStartTimestamp.getTime();
+        this.stageResult = stageResult;
+        this.nodeLabel = nodeLabel;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getBuildId() {
+        return buildId;
+    }
+
+    public void setBuildId(String buildId) {
+        this.buildId = buildId;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public void setJobName(String jobName) {
+        this.jobName = jobName;
+    }
+
+    public String getBuildNumber() {
+        return buildNumber;
+    }
+
+    public void setBuildNumber(String buildNumber) {
+        this.buildNumber = buildNumber;
+    }
+
+    public String getStageId() {
+        return stageId;
+    }
+
+    public void setStageId(String stageId) {
+        this.stageId = stageId;
+    }
+
+    public String getParentStageId() {
+        return parentStageId;
+    }
+
+    public void setParentStageId(String parentStageId) {
+        this.parentStageId = parentStageId;
+    }
+
+    public String getStageName() {
+        return stageName;
+    }
+
+    public void setStageName(String stageName) {
+        this.stageName = stageName;
+    }
+
+    public boolean isParallelBranch() {
+        return parallelBranch;
+    }
+
+    public void setParallelBranch(boolean parallelBranch) {
+        this.parallelBranch = parallelBranch;
+    }
+
+    public Date getStageStartTimestamp() {
+        return stageStartTimestamp;
+    }
+
+    public void setStageStartTimestamp(Date stageStartTimestamp) {
+        this.stageStartTimestamp = stageStartTimestamp;
+    }
+
+    public Date getStageEndTimestamp() {
+        return stageEndTimestamp;
+    }
+
+    public void setStageEndTimestamp(Date stageEndTimestamp) {
+        this.stageEndTimestamp = stageEndTimestamp;
+    }
+
+    public Long getStageDuration() {
+        return stageDuration;
+    }
+
+    public void setStageDuration(Long stageDuration) {
+        this.stageDuration = stageDuration;
+    }
+
+    public String getStageResult() {
+        return stageResult;
+    }
+
+    public void setStageResult(String stageResult) {
+        this.stageResult = stageResult;
+    }
+
+    public String getNodeLabel() {
+        return nodeLabel;
+    }
+
+    public void setNodeLabel(String nodeLabel) {
+        this.nodeLabel = nodeLabel;
+    }
+}
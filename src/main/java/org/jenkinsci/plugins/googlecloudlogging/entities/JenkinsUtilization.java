@@ -0,0 +1,158 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.entities;
+
+import com.jmethods.catatumbo.Entity;
+import com.jmethods.catatumbo.Identifier;
+import com.jmethods.catatumbo.Property;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One sample of the executors of every computer. The per computer values are parallel lists, the nth entry of
+ * each belongs to the nth node name. Node labels are kept as configured, separated by spaces.
+ */
+@Entity
+public class JenkinsUtilization {
+    @Identifier(autoGenerated=false)
+    private String id;
+
+    private String jenkinsUrl;
+    private Date sampleTimestamp;
+    @Property(indexed = false)
+    private Long busyExecutors;
+    @Property(indexed = false)
+    private Long totalExecutors;
+    @Property(indexed = false)
+    private Long offlineNodes;
+    @Property(indexed = false)
+    private List<String> nodeNames;
+    @Property(indexed = false)
+    private List<String> nodeLabels;
+    @Property(indexed = false)
+    private List<Long> busy;
+    @Property(indexed = false)
+    private List<Long> executors;
+    @Property(indexed = false)
+    private List<Boolean> offline;
+
+
+    public JenkinsUtilization() {}
+
+    public JenkinsUtilization(String id, String jenkinsUrl, Date sampleTimestamp, Long busyExecutors, Long totalExecutors, Long offlineNodes, List<String> nodeNames, List<String> nodeLabels, List<Long> busy, List<Long> executors, List<Boolean> offline) {
+        this.id = id;
+        this.jenkinsUrl = jenkinsUrl;
+        this.sampleTimestamp = sampleTimestamp;
+        this.busyExecutors = busyExecutors;
+        this.totalExecutors = totalExecutors;
+        this.offlineNodes = offlineNodes;
+        this.nodeNames = nodeNames;
+        this.nodeLabels = nodeLabels;
+        this.busy = busy;
+        this.executors = executors;
+        this.offline = offline;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getJenkinsUrl() {
+        return jenkinsUrl;
+    }
+
+    public void setJenkinsUrl(String jenkinsUrl) {
+        this.jenkinsUrl = jenkinsUrl;
+    }
+
+    public Date getSampleTimestamp() {
+        return sampleTimestamp;
+    }
+
+    public void setSampleTimestamp(Date sampleTimestamp) {
+        this.sampleTimestamp = sampleTimestamp;
+    }
+
+    public Long getBusyExecutors() {
+        return busyExecutors;
+    }
+
+    public void setBusyExecutors(Long busyExecutors) {
+        this.busyExecutors = busyExecutors;
+    }
+
+    public Long getTotalExecutors() {
+        return totalExecutors;
+    }
+
+    public void setTotalExecutors(Long totalExecutors) {
+        this.totalExecutors = totalExecutors;
+    }
+
+    public Long getOfflineNodes() {
+        return offlineNodes;
+    }
+
+    public void setOfflineNodes(Long offlineNodes) {
+        this.offlineNodes = offlineNodes;
+    }
+
+    public List<String> getNodeNames() {
+        return nodeNames;
+    }
+
+    public void setNodeNames(List<String> nodeNames) {
+        this.nodeNames = nodeNames;
+    }
+
+    public List<String> getNodeLabels() {
+        return nodeLabels;
+    }
+
+    public void setNodeLabels(List<String> nodeLabels) {
+        this.nodeLabels = nodeLabels;
+    }
+
+    public List<Long> getBusy() {
+        return busy;
+    }
+
+    public void setBusy(List<Long> busy) {
+        this.busy = busy;
+    }
+
+    public List<Long> getExecutors() {
+        return executors;
+    }
+
+    public void setExecutors(List<Long> executors) {
+        this.executors = executors;
+    }
+
+    public List<Boolean> getOffline() {
+        return offline;
+    }
+
+    public void setOffline(List<Boolean> offline) {
+        this.offline = offline;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.entities;
+
+import com.jmethods.catatumbo.Entity;
+import com.jmethods.catatumbo.Identifier;
+import com.jmethods.catatumbo.Property;
+
+import java.util.Date;
+
+/**
+ * Same kind and properties as {@link JenkinsBuild}, with only the job name and end time indexed. Each upsert then writes
+ * two indexed properties instead of eleven, at the cost of only being able to query by job and time range. Single builds are still
+ * read by key, through {@link DatastoreKeyLayout}, and can be loaded as {@link JenkinsBuild} since index settings only
+ * matter when writing.
+ */
+@Entity(kind = "JenkinsBuild")
+public class MinimalIndexJenkinsBuild {
+    @Identifier(autoGenerated=false)
+    private String id;
+
+    @Property(indexed = false)
+    private String buildTag;
+    private String jobName;
+    @Property(indexed = false)
+    private String buildNumber;
+    @Property(indexed = false)
+    private Date buildStartTimestamp;
+    private Date buildEndTimestamp;
+    @Property(indexed = false)
+    private Long buildDuration;
+    @Property(indexed = false)
+    private String buildResult;
+    @Property(indexed = false)
+    private String buildUrl;
+    @Property(indexed = false)
+    private String jenkinsUrl;
+    @Property(indexed = false)
+    private String executorNumber;
+    @Property(indexed = false)
+    private String workspace;
+    @Property(indexed = false)
+    private String params;
+    @Property(indexed = false)
+    private String gitCommit;
+    @Property(indexed = false)
+    private String gitUrl;
+    @Property(indexed = false)
+    private String gitBranch;
+    @Property(indexed = false)
+    private String upstreamUrl;
+    @Property(indexed = false)
+    private String upstreamBuildNumber;
+    @Property(indexed = false)
+    private String upstreamProject;
+    @Property(indexed = false)
+    private boolean pipeline = false;
+
+
+    public MinimalIndexJenkinsBuild() {}
+
+    public MinimalIndexJenkinsBuild(JenkinsBuild build) {
+        this.id = build.getId();
+        this.buildTag = build.getBuildTag();
+        this.jobName = build.getJobName();
+        this.buildNumber = build.getBuildNumber();
+        this.buildStartTimestamp = build.getBuildStartTimestamp();
+        this.buildEndTimestamp = build.getBuildEndTimestamp();
+        this.buildDuration = build.getBuildDuration();
+        this.buildResult = build.getBuildResult();
+        this.buildUrl = build.getBuildUrl();
+        this.jenkinsUrl = build.getJenkinsUrl();
+        this.executorNumber = build.getExecutorNumber();
+        this.workspace = build.getWorkspace();
+        this.params = build.getParams();
+        this.gitCommit = build.getGitCommit();
+        this.gitUrl = build.getGitUrl();
+        this.gitBranch = build.getGitBranch();
+        this.upstreamUrl = build.getUpstreamUrl();
+        this.upstreamBuildNumber = build.getUpstreamBuildNumber();
+        this.upstreamProject = build.getUpstreamProject();
+        this.pipeline = build.isPipeline();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getBuildTag() {
+        return buildTag;
+    }
+
+    public void setBuildTag(String buildTag) {
+        this.buildTag = buildTag;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public void setJobName(String jobName) {
+        this.jobName = jobName;
+    }
+
+    public String getBuildNumber() {
+        return buildNumber;
+    }
+
+    public void setBuildNumber(String buildNumber) {
+        this.buildNumber = buildNumber;
+    }
+
+    public Date getBuildStartTimestamp() {
+        return buildStartTimestamp;
+    }
+
+    public void setBuildStartTimestamp(Date buildStartTimestamp) {
+        this.buildStartTimestamp = buildStartTimestamp;
+    }
+
+    public Date getBuildEndTimestamp() {
+        return buildEndTimestamp;
+    }
+
+    public void setBuildEndTimestamp(Date buildEndTimestamp) {
+        this.buildEndTimestamp = buildEndTimestamp;
+    }
+
+    public Long getBuildDuration() {
+        return buildDuration;
+    }
+
+    public void setBuildDuration(Long buildDuration) {
+        this.buildDuration = buildDuration;
+    }
+
+    public String getBuildResult() {
+        return buildResult;
+    }
+
+    public void setBuildResult(String buildResult) {
+        this.buildResult = buildResult;
+    }
+
+    public String getBuildUrl() {
+        return buildUrl;
+    }
+
+    public void setBuildUrl(String buildUrl) {
+        this.buildUrl = buildUrl;
+    }
+
+    public String getJenkinsUrl() {
+        return jenkinsUrl;
+    }
+
+    public void setJenkinsUrl(String jenkinsUrl) {
+        this.jenkinsUrl = jenkinsUrl;
+    }
+
+    public String getExecutorNumber() {
+        return executorNumber;
+    }
+
+    public void setExecutorNumber(String executorNumber) {
+        this.executorNumber = executorNumber;
+    }
+
+    public String getWorkspace() {
+        return workspace;
+    }
+
+    public void setWorkspace(String workspace) {
+        this.workspace = workspace;
+    }
+
+    public String getParams() {
+        return params;
+    }
+
+    public void setParams(String params) {
+        this.params = params;
+    }
+
+    public String getGitCommit() {
+        return gitCommit;
+    }
+
+    public void setGitCommit(String gitCommit) {
+        this.gitCommit = gitCommit;
+    }
+
+    public String getGitUrl() {
+        return gitUrl;
+    }
+
+    public void setGitUrl(String gitUrl) {
+        this.gitUrl = gitUrl;
+    }
+
+    public String getGitBranch() {
+        return gitBranch;
+    }
+
+    public void setGitBranch(String gitBranch) {
+        this.gitBranch = gitBranch;
+    }
+
+    public String getUpstreamUrl() {
+        return upstreamUrl;
+    }
+
+    public void setUpstreamUrl(String upstreamUrl) {
+        this.upstreamUrl = upstreamUrl;
+    }
+
+    public String getUpstreamBuildNumber() {
+        return upstreamBuildNumber;
+    }
+
+    public void setUpstreamBuildNumber(String upstreamBuildNumber) {
+        this.upstreamBuildNumber = upstreamBuildNumber;
+    }
+
+    public String getUpstreamProject() {
+        return upstreamProject;
+    }
+
+    public void setUpstreamProject(String upstreamProject) {
+        this.upstreamProject = upstreamProject;
+    }
+
+    public boolean isPipeline() {
+        return pipeline;
+    }
+
+    public void setPipeline(boolean pipeline) {
+        this.pipeline = pipeline;
+    }
+}
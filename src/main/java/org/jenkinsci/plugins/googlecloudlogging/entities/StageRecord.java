@@ -0,0 +1,85 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.entities;
+
+/**
+ * Timing of one stage or parallel branch of a pipeline build, exported as a child row of its {@link BuildRecord}.
+ */
+public final class StageRecord {
+    private final String stageId;
+    private final String parentStageId;
+    private final String name;
+    private final boolean parallelBranch;
+    private final long startTime;
+    private final long endTime;
+    private final String result;
+    private final String nodeLabel;
+
+    public StageRecord(String stageId, String parentStageId, String name, boolean parallelBranch, long startTime, long endTime, String result, String nodeLabel) {
+        this.stageId = stageId;
+        this.parentStageId = parentStageId;
+        this.name = name;
+        this.parallelBranch = parallelBranch;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.result = result;
+        this.nodeLabel = nodeLabel;
+    }
+
+    /** Id of the flow node that opened the stage, unique within the build */
+    public String getStageId() {
+        return stageId;
+    }
+
+    /** Id of the enclosing stage or branch, empty for a top level stage */
+    public String getParentStageId() {
+        return parentStageId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** true for a branch of a parallel step, false for a stage */
+    public boolean isParallelBranch() {
+        return parallelBranch;
+    }
+
+    /** Time the stage started, in epoch millis */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /** Time the stage ended, in epoch millis */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public long getDurationMillis() {
+        return endTime - startTime;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    /** Name of the agent the stage ran on, empty for the master or if it never allocated one */
+    public String getNodeLabel() {
+        return nodeLabel;
+    }
+}
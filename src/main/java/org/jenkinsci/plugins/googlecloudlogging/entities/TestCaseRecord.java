@@ -0,0 +1,60 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.entities;
+
+/**
+ * Outcome of a single JUnit test case of a build. Only a chunk of these exists at a time while a build's results are
+ * being exported.
+ */
+public final class TestCaseRecord {
+    private final String className;
+    private final String name;
+    private final long durationMillis;
+    private final String status;
+    private final String errorHash;
+
+    public TestCaseRecord(String className, String name, long durationMillis, String status, String errorHash) {
+        this.className = className;
+        this.name = name;
+        this.durationMillis = durationMillis;
+        this.status = status;
+        this.errorHash = errorHash;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /** PASSED, SKIPPED, FAILED, FIXED or REGRESSION, as reported by the JUnit plugin */
+    public String getStatus() {
+        return status;
+    }
+
+    /** Hash of the failure message with digits masked, so the same failure hashes alike across builds, null on success */
+    public String getErrorHash() {
+        return errorHash;
+    }
+}
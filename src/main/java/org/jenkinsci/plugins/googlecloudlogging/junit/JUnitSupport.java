@@ -0,0 +1,36 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.junit;
+
+import jenkins.model.Jenkins;
+
+/**
+ * The JUnit plugin is an optional dependency, only touch {@link TestCaseCollector} once this says it is installed.
+ */
+public final class JUnitSupport {
+
+    private JUnitSupport() {}
+
+    /**
+     * @return true if the JUnit plugin is installed and active
+     */
+    public static boolean isAvailable() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null && jenkins.getPlugin("junit") != null;
+    }
+}
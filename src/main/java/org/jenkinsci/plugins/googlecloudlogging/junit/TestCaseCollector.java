@@ -0,0 +1,305 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.junit;
+
+import hudson.model.Run;
+import hudson.tasks.junit.TestResultAction;
+import org.jenkinsci.plugins.googlecloudlogging.entities.TestCaseRecord;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the JUnit results a build saved in junitResult.xml and hands the test cases out in fixed size chunks. The file
+ * is parsed as a stream, one test case at a time, instead of being loaded as a whole through the JUnit plugin, so the
+ * export never holds more than one chunk of rows however many tests the build ran. Test output and full stack traces
+ * are skipped over, and statuses come from the case alone, without looking up the previous build.
+ */
+public final class TestCaseCollector {
+    private static final Logger LOGGER = Logger.getLogger(TestCaseCollector.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern DIGITS = Pattern.compile("[0-9]+");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static final String RESULTS_FILE = "junitResult.xml";
+    static final String PASSED = "PASSED";
+    static final String SKIPPED = "SKIPPED";
+    static final String FAILED = "FAILED";
+
+    private static final XMLInputFactory XML_INPUT = newInputFactory();
+
+    /**
+     * Receives the test cases of a build one chunk at a time.
+     */
+    public interface ChunkHandler {
+        /**
+         * @param chunk Test cases, the list is reused for the next chunk once this returns
+         * @param offset Position of the chunk's first test case among all of the build's
+         *
+         * @throws Exception to stop the walk
+         */
+        void handle(List<TestCaseRecord> chunk, int offset) throws Exception;
+    }
+
+    private TestCaseCollector() {}
+
+    /**
+     * Reads only the totals kept with the build, not the results file.
+     *
+     * @param run Completed build
+     *
+     * @return Number of test cases the build reported, 0 without JUnit results
+     */
+    public static int countTestCases(Run<?, ?> run) {
+        TestResultAction action = run.getAction(TestResultAction.class);
+        return action != null ? action.getTotalCount() : 0;
+    }
+
+    /**
+     * @param runId Externalizable id of the build
+     * @param chunkSize Most test cases per chunk
+     * @param handler Receiver of the chunks
+     *
+     * @return Number of test cases handed out
+     *
+     * @throws Exception thrown by the handler, or when the results file cannot be read
+     */
+    public static int collect(String runId, int chunkSize, ChunkHandler handler) throws Exception {
+        Run<?, ?> run = Run.fromExternalizableId(runId);
+        File file = run != null ? new File(run.getRootDir(), RESULTS_FILE) : null;
+        if (file == null || !file.isFile()) {
+            LOGGER.log(Level.FINE, "No JUnit results for " + runId);
+            return 0;
+        }
+
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return collect(in, chunkSize, handler);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param in Contents of a junitResult.xml file, left open
+     * @param chunkSize Most test cases per chunk
+     * @param handler Receiver of the chunks
+     *
+     * @return Number of test cases handed out
+     *
+     * @throws Exception thrown by the handler, or when the contents cannot be parsed
+     */
+    static int collect(InputStream in, int chunkSize, ChunkHandler handler) throws Exception {
+        MessageDigest digest = newDigest();
+        List<TestCaseRecord> chunk = new ArrayList<TestCaseRecord>(chunkSize);
+        CaseFields test = new CaseFields();
+        int offset = 0;
+
+        XMLStreamReader reader = XML_INPUT.createXMLStreamReader(in);
+        try {
+            // The cases sit at result/suites/suite/cases/case, their fields are the elements right below
+            int depth = 0;
+            int caseDepth = -1;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if (caseDepth < 0) {
+                        if ("case".equals(name) && depth == 5) {
+                            caseDepth = depth;
+                            test.clear();
+                        }
+                    } else if (depth == caseDepth + 1 && test.read(name, reader)) {
+                        // Reading the text moved the reader to the field's end tag
+                        depth--;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == caseDepth) {
+                        caseDepth = -1;
+                        chunk.add(test.toRecord(digest));
+                        if (chunk.size() >= chunkSize) {
+                            handler.handle(chunk, offset);
+                            offset += chunk.size();
+                            chunk.clear();
+                        }
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (!chunk.isEmpty()) {
+            handler.handle(chunk, offset);
+            offset += chunk.size();
+        }
+        return offset;
+    }
+
+    /**
+     * The fields of the test case being read, reused from one case to the next.
+     */
+    private static final class CaseFields {
+        private final StringBuilder text = new StringBuilder();
+        private String className;
+        private String testName;
+        private String duration;
+        private boolean skipped;
+        private String errorDetails;
+        private String errorFirstLine;
+
+        void clear() {
+            className = null;
+            testName = null;
+            duration = null;
+            skipped = false;
+            errorDetails = null;
+            errorFirstLine = null;
+        }
+
+        /**
+         * @return Whether the element was one of the fields kept, in which case the reader is on its end tag
+         */
+        boolean read(String name, XMLStreamReader reader) throws XMLStreamException {
+            if ("className".equals(name)) {
+                className = readText(reader, false);
+            } else if ("testName".equals(name)) {
+                testName = readText(reader, false);
+            } else if ("duration".equals(name)) {
+                duration = readText(reader, false);
+            } else if ("skipped".equals(name)) {
+                skipped = "true".equals(readText(reader, false));
+            } else if ("errorDetails".equals(name)) {
+                errorDetails = readText(reader, false);
+            } else if ("errorStackTrace".equals(name)) {
+                // Only the first line is used, the rest of the trace is never copied out of the parser
+                errorFirstLine = readText(reader, true);
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        private String readText(XMLStreamReader reader, boolean firstLineOnly) throws XMLStreamException {
+            text.setLength(0);
+            boolean full = false;
+            int event;
+            while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+                if (full || (event != XMLStreamConstants.CHARACTERS && event != XMLStreamConstants.CDATA
+                        && event != XMLStreamConstants.SPACE)) {
+                    continue;
+                }
+                char[] chars = reader.getTextCharacters();
+                int start = reader.getTextStart();
+                int length = reader.getTextLength();
+                if (firstLineOnly) {
+                    for (int i = 0; i < length; i++) {
+                        if (chars[start + i] == '\n') {
+                            length = i;
+                            full = true;
+                            break;
+                        }
+                    }
+                }
+                text.append(chars, start, length);
+            }
+            return firstLineOnly ? text.toString().trim() : text.toString();
+        }
+
+        /**
+         * Same status as the JUnit plugin's isPassed and isSkipped, regressions and fixes would need the previous
+         * build's results and are reported as failed and passed.
+         */
+        TestCaseRecord toRecord(MessageDigest digest) {
+            String status;
+            String errorHash = null;
+            if (skipped) {
+                status = SKIPPED;
+            } else if (errorDetails != null || errorFirstLine != null) {
+                status = FAILED;
+                errorHash = hash(digest, errorDetails != null && !errorDetails.isEmpty() ? errorDetails : errorFirstLine);
+            } else {
+                status = PASSED;
+            }
+            return new TestCaseRecord(className, testName, parseDurationMs(duration), status, errorHash);
+        }
+    }
+
+    private static long parseDurationMs(String seconds) {
+        if (seconds == null) {
+            return 0L;
+        }
+        try {
+            return Math.round(Float.parseFloat(seconds.trim()) * 1000.0);
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Masks digits, which are mostly ports, ids and timings, before hashing so a recurring failure hashes alike.
+     *
+     * @return First 16 hex characters of the SHA-1 of the message
+     */
+    static String hash(MessageDigest digest, String error) {
+        if (error == null) {
+            error = "";
+        }
+        byte[] bytes = digest.digest(DIGITS.matcher(error).replaceAll("0").getBytes(UTF_8));
+        char[] hex = new char[16];
+        for (int i = 0; i < 8; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE has to provide SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // The file is written by Jenkins, but never resolve anything it points to
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.listener;
+
+import hudson.EnvVars;
+import hudson.model.*;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildParameter;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.entities.StageRecord;
+import org.jenkinsci.plugins.googlecloudlogging.junit.JUnitSupport;
+import org.jenkinsci.plugins.googlecloudlogging.junit.TestCaseCollector;
+import org.jenkinsci.plugins.googlecloudlogging.queue.RunTimeline;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns a finished run into a {@link BuildRecord} in a single pass.
+ *
+ * This runs on the executor thread of every completed build, so it takes exactly one environment snapshot,
+ * reads the job name and build number straight from the run and filters the parameters in a single walk.
+ */
+public final class BuildRecordCapture {
+
+    private static final String MASK = "********";
+
+    private BuildRecordCapture() {
+    }
+
+    /**
+     * Captures the record for a completed build whose queue timeline is not known.
+     *
+     * @see #capture(Run, TaskListener, ParameterFilter, RunTimeline)
+     */
+    public static BuildRecord capture(Run<?, ?> build, TaskListener listener, ParameterFilter filter) throws IOException, InterruptedException {
+        return capture(build, listener, filter, null);
+    }
+
+    /**
+     * Captures the record for a completed build.
+     *
+     * @param build The completed run
+     * @param listener Task listener the environment is resolved with
+     * @param filter Which environment variables are exported as parameters
+     * @param timeline What happened to the build in the queue, or null if it was not tracked
+     *
+     * @return The captured record
+     *
+     * @throws IOException If the build tag is missing or the environment cannot be read
+     * @throws InterruptedException If interrupted while reading the environment
+     */
+    public static BuildRecord capture(Run<?, ?> build, TaskListener listener, ParameterFilter filter, RunTimeline timeline) throws IOException, InterruptedException {
+        EnvVars env = build.getEnvironment(listener);
+
+        String buildTag = env.get(GoogleCloudLoggingConstants.BUILD_TAG);
+        if (buildTag == null || buildTag.isEmpty()) {
+            throw new IOException("Build Tag from Jenkins came empty.");
+        }
+
+        String upstreamUrl = "";
+        String upstreamBuildNum = "";
+        String upstreamProject = "";
+
+        // The last upstream cause wins, same as before
+        for (final CauseAction action : build.getActions(CauseAction.class)) {
+            for (final Cause cause : action.getCauses()) {
+                if (cause instanceof Cause.UpstreamCause) {
+                    final Cause.UpstreamCause upstreamCause = (Cause.UpstreamCause) cause;
+                    upstreamUrl = upstreamCause.getUpstreamUrl();
+                    upstreamBuildNum = String.valueOf(upstreamCause.getUpstreamBuild());
+                    upstreamProject = upstreamCause.getUpstreamProject();
+                }
+            }
+        }
+
+        Result result = build.getResult();
+
+        // The duration is set just before the completion listeners fire, fall back to now if it is not there yet
+        long start = build.getStartTimeInMillis();
+        long duration = build.getDuration();
+        long end = duration > 0 ? start + duration : System.currentTimeMillis();
+        long started = timeline != null && timeline.getStartedAt() > 0 ? timeline.getStartedAt() : start;
+
+        return new BuildRecord(buildTag, build.getParent().getFullName(), String.valueOf(build.getNumber()),
+                start, end, String.valueOf(result), get(env, GoogleCloudLoggingConstants.BUILD_URL),
+                get(env, GoogleCloudLoggingConstants.JENKINS_URL), get(env, GoogleCloudLoggingConstants.EXECUTOR_NUMBER),
+                get(env, GoogleCloudLoggingConstants.WORKSPACE), collectParams(env, getSensitiveBuildVariables(build), filter),
+                get(env, GoogleCloudLoggingConstants.GIT_COMMIT), get(env, GoogleCloudLoggingConstants.GIT_URL),
+                get(env, GoogleCloudLoggingConstants.GIT_BRANCH), upstreamUrl, upstreamBuildNum, upstreamProject,
+                build instanceof WorkflowRun, build.getExternalizableId(), Collections.<StageRecord>emptyList(),
+                JUnitSupport.isAvailable() ? TestCaseCollector.countTestCases(build) : 0,
+                timeline != null ? timeline.getQueueWaitMillis() : null, timeline != null ? timeline.getBlockedMillis() : null,
+                Math.max(0, end - started), timeline != null ? timeline.getAssignedLabel() : null,
+                timeline != null ? timeline.getNodeName() : null);
+    }
+
+    /**
+     * Turns the environment into the exported parameters, dropping filtered variables, masking sensitive ones
+     * and capping the size of the remaining values.
+     *
+     * @param env Environment snapshot of the build
+     * @param sensitive Names of the variables to mask
+     * @param filter Allowlist, denylist and size cap from the plugin settings
+     *
+     * @return The exported parameters in environment order
+     */
+    static List<BuildParameter> collectParams(Map<String, String> env, Set<String> sensitive, ParameterFilter filter) {
+        List<BuildParameter> params = new ArrayList<BuildParameter>(env.size());
+        for (Map.Entry<String, String> variable : env.entrySet()) {
+            String key = variable.getKey();
+            if (!filter.accepts(key)) {
+                continue;
+            }
+
+            if (sensitive.contains(key)) {
+                params.add(new BuildParameter(key, MASK, true));
+            } else {
+                params.add(new BuildParameter(key, filter.truncate(variable.getValue()), false));
+            }
+        }
+        return params;
+    }
+
+    private static String get(EnvVars env, String key) {
+        String value = env.get(key);
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Gets a list of any build variables listed as sensitive within a run.
+     *
+     * @param build The run
+     *
+     * @return Set of all sensitive build variables for a build.
+     */
+    static Set<String> getSensitiveBuildVariables(Run<?, ?> build) {
+        ParametersAction parameters = build.getAction(ParametersAction.class);
+        if (parameters == null) {
+            return Collections.emptySet();
+        }
+
+        Set<String> sensitive = new HashSet<String>();
+        for (ParameterValue value : parameters) {
+            if (value.isSensitive()) {
+                sensitive.add(value.getName());
+            }
+        }
+
+        return sensitive;
+    }
+}
@@ -16,23 +16,18 @@ limitations under the License.
 
 package org.jenkinsci.plugins.googlecloudlogging.listener;
 
-import com.jmethods.catatumbo.EntityManager;
-import com.jmethods.catatumbo.EntityManagerFactory;
-import hudson.EnvVars;
 import hudson.Extension;
 import hudson.PluginManager;
 import hudson.model.*;
 import hudson.model.listeners.RunListener;
 import jenkins.model.Jenkins;
-import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
-import org.jenkinsci.plugins.googlecloudlogging.entities.JenkinsBuild;
-import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryManager;
+import org.jenkinsci.plugins.googlecloudlogging.dispatch.ExportDispatcher;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.metrics.ExportMetrics;
 import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
-import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.googlecloudlogging.queue.RunTimeline;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.*;
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,9 +35,7 @@ import java.util.logging.Logger;
 public class GoogleCloudLoggingJobsListener extends RunListener<Run> {
 
     private static GoogleCloudLoggingPlugin plugin;
-    private static EntityManager em;
     private final static Logger LOGGER = Logger.getLogger(GoogleCloudLoggingJobsListener.class.getName());
-    private static final DateFormat DF = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
 
     public GoogleCloudLoggingJobsListener() {
         super(Run.class);
@@ -50,20 +43,31 @@ public class GoogleCloudLoggingJobsListener extends RunListener<Run> {
         Jenkins jenkins = Jenkins.getInstance();
         PluginManager pm = jenkins.getPluginManager();
         plugin = (GoogleCloudLoggingPlugin) pm.getPlugin(GoogleCloudLoggingPlugin.class).getPlugin();
-
-        EntityManagerFactory emf = EntityManagerFactory.getInstance();
-        em = emf.createDefaultEntityManager();
     }
 
     /**
-     * If the parameter is empty, then the value will be the same as the key so it should match the ${ pattern
-     **/
-    private static String checkForEmpty(String input) {
-        return (input.contains("${")) ? "" : input;
+     * Notes when and where the build started, for the execution time and node of its record.
+     *
+     * @param build current build starting in Jenkins
+     * @param listener Task listener of the build
+     */
+    @Override
+    public void onStarted(Run build, TaskListener listener) {
+        super.onStarted(build, listener);
+        if (!plugin.isEnableBigQuery() && !plugin.isEnableDatastore()) {
+            return;
+        }
+        markLive(build);
+
+        Executor executor = build.getExecutor();
+        Computer computer = executor != null ? executor.getOwner() : null;
+        plugin.getQueueTimelineTracker().started(build.getQueueId(), System.currentTimeMillis(),
+                computer != null ? computer.getName() : null);
     }
 
     /**
      * After the execution of any build in jenkins, the onCompleted is call the build to log to Google.
+     * Only the capture happens here, the export itself runs on the plugin's dispatcher so the executor is freed.
      *
      * @param build current build executed in Jenkins from the environment.
      * @param listener Task listener to print out with
@@ -73,129 +77,59 @@ public class GoogleCloudLoggingJobsListener extends RunListener<Run> {
     @Override
     public void onCompleted(Run build, TaskListener listener) throws RuntimeException {
         super.onCompleted(build, listener);
-
+        long start = System.nanoTime();
         try {
-            EnvVars env = build.getEnvironment(listener);
-
-            String upstreamUrl = "";
-            String upstreamBuildNum = "";
-            String upstreamProject = "";
-            boolean isPipeline = false;
-
-            // Loop through build actions and get the upstream url, build number, and project if available
-            for (final CauseAction action : build.getActions(CauseAction.class)) {
-                for (final Cause cause : action.getCauses()) {
-                    if (!(cause instanceof Cause.UpstreamCause)) {
-                        continue;
-                    }
-
-                    final Cause.UpstreamCause upstreamCause = (Cause.UpstreamCause) cause;
-
-                    upstreamUrl = upstreamCause.getUpstreamUrl();
-                    upstreamBuildNum = String.valueOf(upstreamCause.getUpstreamBuild());
-                    upstreamProject = upstreamCause.getUpstreamProject();
-                }
-            }
-
-            // Build params list
-            String params = "";
-            Map<String, String> varMap = build.getEnvironment(listener);
-
-            // Check for sensitive build vars and mask them
-            Set<String> sensVarMap = getSensitiveBuildVariables(build);
-            for (Map.Entry<String, String> variable : varMap.entrySet()) {
-                if (!params.equals("")) {
-                    params += "&";
-                }
-
-                if (sensVarMap.contains(variable.getKey())) {
-                    params += "Key:" + variable.getKey() + ", Value: ********";
-                } else {
-                    params += "Key:" + variable.getKey() + ", Value: " + variable.getValue().replace("'", "\\'");
-                }
-            }
-
-            Result buildResult = build.getResult();
-
-            // Expand Env Strings
-            String buildTagExpanded = env.expand(GoogleCloudLoggingConstants.BUILD_TAG);
-            String jobNameExpanded = env.expand(GoogleCloudLoggingConstants.JOB_NAME);
-            String buildNumberExpanded = env.expand(GoogleCloudLoggingConstants.BUILD_NUMBER);
-            String buildURLExpanded = env.expand(GoogleCloudLoggingConstants.BUILD_URL);
-            String buildTSExpanded = env.expand(GoogleCloudLoggingConstants.BUILD_TS);
-            String jenkinsURLExpanded = env.expand(GoogleCloudLoggingConstants.JENKINS_URL);
-            String executorNumberExpanded = env.expand(GoogleCloudLoggingConstants.EXECUTOR_NUMBER);
-            String workspaceExpanded = env.expand(GoogleCloudLoggingConstants.WORKSPACE);
-            String gitCommitExpanded = env.expand(GoogleCloudLoggingConstants.GIT_COMMIT);
-            String gitURLExpanded = env.expand(GoogleCloudLoggingConstants.GIT_URL);
-            String gitBranchExpanded = env.expand(GoogleCloudLoggingConstants.GIT_BRANCH);
-
-            // Check for empty build tags and set to empty strings
-            if (buildTagExpanded.contains("${")) {
-                throw new Exception("Build Tag from Jenkins came empty.");
-            }
-
-            buildTagExpanded = checkForEmpty(buildTagExpanded);
-            jobNameExpanded = checkForEmpty(jobNameExpanded);
-            buildNumberExpanded = checkForEmpty(buildNumberExpanded);
-            buildURLExpanded = checkForEmpty(buildURLExpanded);
-            buildTSExpanded = checkForEmpty(buildTSExpanded);
-            jenkinsURLExpanded = checkForEmpty(jenkinsURLExpanded);
-            executorNumberExpanded = checkForEmpty(executorNumberExpanded);
-            workspaceExpanded = checkForEmpty(workspaceExpanded);
-            gitCommitExpanded = checkForEmpty(gitCommitExpanded);
-            gitURLExpanded = checkForEmpty(gitURLExpanded);
-            gitBranchExpanded = checkForEmpty(gitBranchExpanded);
-
-            // Check if build is a pipeline
-            if (build instanceof WorkflowRun) {
-                isPipeline = true;
-            }
-
-            // Check if Datstore logging is enabled and log out to Datastore if so
-            if (plugin.isEnableDatastore()){
-                logToConsole(listener, "Logging Job Details to Datastore");
-
-                JenkinsBuild jenkinsBuild = new JenkinsBuild(buildTagExpanded, jobNameExpanded, buildNumberExpanded, DF.parse(buildTSExpanded), Calendar.getInstance().getTime(), buildResult.toString(),
-                        buildURLExpanded, jenkinsURLExpanded, executorNumberExpanded, workspaceExpanded, params, gitCommitExpanded, gitURLExpanded, gitBranchExpanded,
-                        upstreamUrl, upstreamBuildNum, upstreamProject, isPipeline);
-
-                em.upsert(jenkinsBuild);
-
-                logToConsole(listener, "Datastore Logging Successful");
-
-            }
-
-            // Check if BigQuery logging is enabled and log out to BigQuery if so
-            if (plugin.isEnableBigQuery()){
-                            // Build Query SQL
-            String querySql = String.format(GoogleCloudLoggingConstants.QUERY_TEXT,
-                    buildTagExpanded, jobNameExpanded, buildNumberExpanded, buildTSExpanded, buildTSExpanded, buildResult.toString(),
-                    buildURLExpanded, jenkinsURLExpanded, executorNumberExpanded, workspaceExpanded, params, gitCommitExpanded, gitURLExpanded, gitBranchExpanded,
-                    upstreamUrl, upstreamBuildNum, upstreamProject, String.valueOf(isPipeline));
-
-            logToConsole(listener, "Logging Job Details to BigQuery");
-            logToConsole(listener, "Query Used in Logging Job Details to BigQuery :: " + querySql);
-
-            new BigQueryManager(plugin.getBqProject(),
-                    plugin.getBqDataset(),
-                    plugin.getBqTable(), querySql);
+            queueForExport(build, listener);
+        } finally {
+            ExportMetrics.recordCapture(System.nanoTime() - start);
+        }
+    }
 
-                logToConsole(listener, "BigQuery Logging Successful");
+    /**
+     * Captures the build and hands it to the dispatcher, this is all the time the export takes on the executor.
+     */
+    private static void queueForExport(Run build, TaskListener listener) {
+        // If both logging types are disabled, alert in console that on logging was performed.
+        if (!plugin.isEnableBigQuery() && !plugin.isEnableDatastore()){
+            logToConsole(listener, "Both BigQuery and Datastore Logging Disabled, No Logging to Perform");
+            return;
+        }
 
+        try {
+            // Marked again for builds that started before the marks were kept
+            markLive(build);
+            RunTimeline timeline = plugin.getQueueTimelineTracker().complete(build.getQueueId(), System.currentTimeMillis());
+            BuildRecord record = BuildRecordCapture.capture(build, listener, plugin.getParameterFilter(), timeline);
+            if (plugin.isEnableRollups()) {
+                plugin.getRollupAggregator().record(record);
             }
 
-            // If both logging types are disabled, alert in console that on logging was performed.
-            if (!plugin.isEnableBigQuery() && !plugin.isEnableDatastore()){
-                logToConsole(listener, "Both BigQuery and Datastore Logging Disabled, No Logging to Perform");
+            ExportDispatcher dispatcher = plugin.getDispatcher();
+            if (dispatcher != null && dispatcher.submit(record)) {
+                logToConsole(listener, "Job Details Queued for Google Cloud Logging");
+            } else {
+                logToConsole(listener, "Google Cloud Logging Is Shutting Down, Job Details Not Logged");
             }
 
-
+        } catch (InterruptedException e) {
+            logToConsole(listener, "Google Cloud Logging Interrupted, Job Details Not Logged");
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             logToConsole(listener, "Google Cloud Logging Failed :: " + e.getMessage());
         }
     }
 
+    /**
+     * Records the build as taken on by the listener, so a backfill does not export it a second time.
+     */
+    private static void markLive(Run build) {
+        try {
+            plugin.getLiveExportMarks().record(build.getParent().getFullName(), build.getNumber());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error saving Google Cloud Logging live build marks :: " + e.getMessage());
+        }
+    }
+
     /**
      * Prints a message out to the console of the Jenkins job.
      *
@@ -205,29 +139,4 @@ public class GoogleCloudLoggingJobsListener extends RunListener<Run> {
     private static void logToConsole(TaskListener listener, String message){
         listener.getLogger().println("========\n" + message + "\n========");
     }
-
-    /**
-     * Gets a list of any build variables listed as sensitive within a run.
-     *
-     * @param build The run
-     *
-     * @return Set of all sensitive build variables for a build.
-     */
-    private static Set<String> getSensitiveBuildVariables(Run build) {
-        HashSet s = new HashSet();
-        ParametersAction parameters = build.getAction(ParametersAction.class);
-        Iterator i$;
-        if(parameters != null) {
-            i$ = parameters.iterator();
-
-            while(i$.hasNext()) {
-                ParameterValue bw = (ParameterValue)i$.next();
-                if(bw.isSensitive()) {
-                    s.add(bw.getName());
-                }
-            }
-        }
-
-        return s;
-    }
 }
@@ -0,0 +1,114 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.listener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides which environment variables of a build are exported and caps the size of their values.
+ *
+ * The allowlist and denylist hold one regular expression per line, matched against the whole variable name.
+ * An empty allowlist keeps every variable, and the denylist wins over the allowlist. The patterns are compiled
+ * once here instead of on every build.
+ */
+public final class ParameterFilter {
+    private final static Logger LOGGER = Logger.getLogger(ParameterFilter.class.getName());
+
+    private final String allowlist;
+    private final String denylist;
+    private final int maxValueLength;
+    private final List<Pattern> allowed;
+    private final List<Pattern> denied;
+
+    public ParameterFilter(String allowlist, String denylist, int maxValueLength) {
+        this.allowlist = allowlist;
+        this.denylist = denylist;
+        this.maxValueLength = maxValueLength;
+        this.allowed = compile(allowlist);
+        this.denied = compile(denylist);
+    }
+
+    /**
+     * @param key Name of the environment variable
+     *
+     * @return true if the variable should be exported
+     */
+    public boolean accepts(String key) {
+        if (!allowed.isEmpty() && !matchesAny(allowed, key)) {
+            return false;
+        }
+        return !matchesAny(denied, key);
+    }
+
+    /**
+     * @param value Value of the environment variable
+     *
+     * @return The value cut down to the configured maximum length
+     */
+    public String truncate(String value) {
+        if (value == null || maxValueLength <= 0 || value.length() <= maxValueLength) {
+            return value;
+        }
+        return value.substring(0, maxValueLength);
+    }
+
+    /**
+     * @return true if this filter was built from the given settings
+     */
+    public boolean matches(String allowlist, String denylist, int maxValueLength) {
+        return this.maxValueLength == maxValueLength && same(this.allowlist, allowlist) && same(this.denylist, denylist);
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String key) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(key).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern> compile(String patterns) {
+        List<Pattern> compiled = new ArrayList<Pattern>();
+        if (patterns == null) {
+            return compiled;
+        }
+
+        for (String line : patterns.split("\\r?\\n")) {
+            String regex = line.trim();
+            if (regex.isEmpty()) {
+                continue;
+            }
+            try {
+                compiled.add(Pattern.compile(regex));
+            } catch (PatternSyntaxException e) {
+                LOGGER.log(Level.SEVERE, "Ignoring invalid Google Cloud Logging parameter pattern " + regex + " :: " + e.getMessage());
+            }
+        }
+        return compiled;
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.manager;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.BigqueryScopes;
+import com.google.common.util.concurrent.SettableFuture;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long lived, authorized BigQuery client shared by all the export workers.
+ * The transport, JSON factory and credential are created once and the access token is refreshed shortly before
+ * it expires, so exports do not pay for connection setup or a credential lookup on every batch.
+ * The refresh runs outside the holder's lock and only once at a time: other threads keep using the current token
+ * while it is still valid, and only wait for the refresh once it has expired.
+ */
+public class BigQueryClientHolder {
+    private static final Logger LOGGER = Logger.getLogger(BigQueryClientHolder.class.getName());
+
+    private final HttpTransportType transportType;
+    private final String credentialsFile;
+    private final String rootUrl;
+
+    private HttpTransport transport;
+    private GoogleCredential credential;
+    private Bigquery client;
+    private SettableFuture<Void> refresh;
+    private boolean closed;
+
+    /**
+     * @param transportType HTTP transport to build the client on
+     * @param credentialsFile Service account JSON key file, or blank to use the Application Default Credentials
+     * @param rootUrl Endpoint to send requests to instead of BigQuery, or blank for BigQuery itself
+     */
+    public BigQueryClientHolder(HttpTransportType transportType, String credentialsFile, String rootUrl) {
+        this.transportType = transportType;
+        this.credentialsFile = credentialsFile;
+        this.rootUrl = rootUrl == null ? "" : rootUrl.trim();
+    }
+
+    /**
+     * Returns the shared client, creating it on first use and refreshing its token if it is about to expire.
+     *
+     * @return an authorized BigQuery client
+     *
+     * @throws IOException
+     */
+    public Bigquery get() throws IOException {
+        Bigquery current;
+        GoogleCredential currentCredential;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("BigQuery client has been closed");
+            }
+            if (client == null) {
+                client = createAuthorizedClient();
+            }
+            current = client;
+            currentCredential = credential;
+        }
+
+        // A local stand-in may be running without any credentials around
+        if (currentCredential != null) {
+            Long expiresIn = currentCredential.getExpiresInSeconds();
+            if (expiresIn == null || expiresIn < GoogleCloudLoggingConstants.TOKEN_REFRESH_MARGIN_SECONDS) {
+                refreshToken(currentCredential, expiresIn != null && expiresIn > 0);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Refreshes the token unless another thread already is, in which case this one waits for it, or goes on right
+     * away if the current token is still valid.
+     */
+    private void refreshToken(GoogleCredential currentCredential, boolean stillValid) throws IOException {
+        SettableFuture<Void> pending;
+        boolean owner = false;
+        synchronized (this) {
+            if (refresh == null) {
+                refresh = SettableFuture.create();
+                owner = true;
+            }
+            pending = refresh;
+        }
+
+        if (!owner) {
+            if (stillValid) {
+                return;
+            }
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the BigQuery token refresh");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+            return;
+        }
+
+        try {
+            currentCredential.refreshToken();
+            pending.set(null);
+        } catch (IOException e) {
+            pending.setException(e);
+            throw e;
+        } catch (RuntimeException e) {
+            pending.setException(e);
+            throw e;
+        } finally {
+            synchronized (this) {
+                refresh = null;
+            }
+        }
+    }
+
+    /**
+     * Releases the pooled connections. The holder can not be used afterwards.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (transport != null) {
+            try {
+                transport.shutdown();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing BigQuery transport :: " + e.getMessage());
+            }
+        }
+        transport = null;
+        credential = null;
+        client = null;
+    }
+
+    /**
+     * Creates an authorized BigQuery builder using the configured credentials.
+     *
+     * @return an authorized BigQuery builder
+     *
+     * @throws IOException
+     */
+    private Bigquery createAuthorizedClient() throws IOException {
+        transport = transportType.create();
+        JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+        if (credentialsFile == null || credentialsFile.trim().isEmpty()) {
+            try {
+                credential = GoogleCredential.getApplicationDefault(transport, jsonFactory);
+            } catch (IOException e) {
+                if (rootUrl.isEmpty()) {
+                    throw e;
+                }
+                LOGGER.log(Level.INFO, "No default credentials found, sending unauthenticated requests to " + rootUrl);
+            }
+        } else {
+            InputStream in = new FileInputStream(credentialsFile.trim());
+            try {
+                credential = GoogleCredential.fromStream(in, transport, jsonFactory);
+            } finally {
+                in.close();
+            }
+        }
+
+        if (credential != null && credential.createScopedRequired()) {
+            credential = credential.createScoped(BigqueryScopes.all());
+        }
+
+        Bigquery.Builder builder = new Bigquery.Builder(transport, jsonFactory, credential)
+                .setApplicationName(GoogleCloudLoggingConstants.APPLICATION_NAME);
+        if (!rootUrl.isEmpty()) {
+            builder.setRootUrl(rootUrl.endsWith("/") ? rootUrl : rootUrl + "/");
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return true if this holder was built from the given settings and can be kept
+     */
+    public boolean matches(HttpTransportType transportType, String credentialsFile, String rootUrl) {
+        String current = this.credentialsFile == null ? "" : this.credentialsFile;
+        String other = credentialsFile == null ? "" : credentialsFile;
+        String otherRootUrl = rootUrl == null ? "" : rootUrl.trim();
+        return this.transportType == transportType && current.equals(other) && this.rootUrl.equals(otherRootUrl);
+    }
+}
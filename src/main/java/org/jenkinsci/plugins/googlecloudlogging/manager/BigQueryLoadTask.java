@@ -0,0 +1,56 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.manager;
+
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically seals load segments that have been open for the load interval and moves the sealed ones through
+ * their load jobs.
+ */
+public class BigQueryLoadTask implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(BigQueryLoadTask.class.getName());
+
+    private final GoogleCloudLoggingPlugin plugin;
+    private final BigQueryLoader loader;
+
+    public BigQueryLoadTask(GoogleCloudLoggingPlugin plugin, BigQueryLoader loader) {
+        this.plugin = plugin;
+        this.loader = loader;
+    }
+
+    @Override
+    public void run() {
+        try {
+            loader.sealOlderThan(TimeUnit.MINUTES.toMillis(plugin.getLoadIntervalMinutes()));
+
+            // Segments left from before a switch to another write mode are still loaded
+            if (plugin.isEnableBigQuery() && loader.getSealedCount() > 0) {
+                loader.submitSealed(plugin.getBigQueryClient().get(), plugin.getBqProject(), plugin.getBqDataset(),
+                        plugin.getBigQueryRetryPolicy(), plugin.getBigQueryBreaker());
+            }
+        } catch (Exception e) {
+            // Keep the scheduled task alive, a thrown exception would cancel it
+            LOGGER.log(Level.WARNING, "Error loading Google Cloud Logging segments into BigQuery :: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.manager;
+
+import com.google.api.client.http.FileContent;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonGenerator;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.*;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.retry.CircuitBreaker;
+import org.jenkinsci.plugins.googlecloudlogging.retry.ErrorClassifier;
+import org.jenkinsci.plugins.googlecloudlogging.retry.RetryPolicy;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes rows to BigQuery with load jobs instead of streaming inserts or query jobs, which are billed.
+ *
+ * Rows are appended to a newline delimited JSON segment per table under the load directory and synced to disk before
+ * {@link #append} returns. Once a segment is big or old enough it is sealed: compressed next to itself as
+ * {@code <table>.<token>.ndjson.gz}, after which the raw file is removed. Every sealed segment is uploaded as one load
+ * job whose ID is derived from the token, so a job submitted before a restart or a timeout is picked up again
+ * instead of loading the rows twice. A sealed segment is deleted once its job is done.
+ */
+public class BigQueryLoader {
+    private static final Logger LOGGER = Logger.getLogger(BigQueryLoader.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String RAW_SUFFIX = ".ndjson";
+    private static final String SEALED_SUFFIX = ".ndjson.gz";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String FAILED_SUFFIX = ".failed";
+    private static final String JOB_PREFIX = "jenkins_load_";
+
+    private final File directory;
+    private final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+    /** Open segment of each table */
+    private final Map<String, Segment> segments = new HashMap<String, Segment>();
+
+    private BigQueryLoader(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the load directory, sealing whatever segments a previous run left open.
+     *
+     * @param directory Directory holding the segments
+     *
+     * @return The loader
+     *
+     * @throws IOException If the directory cannot be created or read
+     */
+    public static BigQueryLoader open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create load directory " + directory);
+        }
+
+        BigQueryLoader loader = new BigQueryLoader(directory);
+        for (File file : loader.list(TEMP_SUFFIX)) {
+            // Compression was interrupted, the raw segment is still there
+            delete(file);
+        }
+        for (File raw : loader.list(RAW_SUFFIX)) {
+            File sealed = loader.sealedFileOf(raw);
+            if (sealed.exists()) {
+                // Sealed but not yet removed
+                delete(raw);
+            } else {
+                truncateToLastLine(raw);
+                loader.seal(raw);
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * Appends rows to the open segment of a table, sealing it once it reaches the size limit.
+     *
+     * @param tableId Table the rows are loaded into
+     * @param rows Rows as they would be sent to the streaming API
+     * @param maxBytes Size at which a segment is sealed
+     *
+     * @throws IOException If the rows could not be written and synced
+     */
+    public void append(String tableId, final List<Map<String, Object>> rows, long maxBytes) throws IOException {
+        append(tableId, new RowSource() {
+            @Override
+            public int size() {
+                return rows.size();
+            }
+
+            @Override
+            public String getInsertId(int index) {
+                return null;
+            }
+
+            @Override
+            public void writeRow(JsonGenerator generator, int index) throws IOException {
+                generator.serialize(rows.get(index));
+            }
+        }, maxBytes);
+    }
+
+    /**
+     * Appends rows to the open segment of a table, encoding them as newline delimited JSON straight into a pooled
+     * buffer, and seals the segment once it reaches the size limit.
+     *
+     * @param tableId Table the rows are loaded into
+     * @param rows Rows to write, their insert ids are not used
+     * @param maxBytes Size at which a segment is sealed
+     *
+     * @throws IOException If the rows could not be written and synced
+     */
+    public void append(String tableId, RowSource rows, long maxBytes) throws IOException {
+        if (rows.size() == 0) {
+            return;
+        }
+
+        // Encoded outside the lock, only the write to the segment is serialized
+        PooledByteBuffer lines = PooledByteBuffer.acquire();
+        try {
+            for (int i = 0; i < rows.size(); i++) {
+                JsonGenerator generator = jsonFactory.createJsonGenerator(lines, UTF_8);
+                rows.writeRow(generator, i);
+                generator.close();
+                lines.write('\n');
+            }
+            append(tableId, lines, maxBytes);
+        } finally {
+            lines.release();
+        }
+    }
+
+    private synchronized void append(String tableId, PooledByteBuffer lines, long maxBytes) throws IOException {
+        Segment segment = segments.get(tableId);
+        if (segment == null) {
+            segment = new Segment(new File(directory, tableId + "." + newToken() + RAW_SUFFIX));
+            segments.put(tableId, segment);
+        }
+        try {
+            segment.write(lines.getBuffer(), lines.size());
+        } catch (IOException e) {
+            // Start the next batch on a fresh segment rather than after a half written line
+            segments.remove(tableId);
+            segment.close();
+            truncateToLastLine(segment.file);
+            seal(segment.file);
+            throw e;
+        }
+
+        if (segment.size >= maxBytes) {
+            segments.remove(tableId);
+            segment.close();
+            seal(segment.file);
+        }
+    }
+
+    /**
+     * Seals the open segments created longer ago than the given age.
+     *
+     * @param maxAgeMillis Age at which a segment is sealed
+     *
+     * @throws IOException If a segment could not be compressed
+     */
+    public synchronized void sealOlderThan(long maxAgeMillis) throws IOException {
+        long now = System.currentTimeMillis();
+        Iterator<Segment> open = segments.values().iterator();
+        while (open.hasNext()) {
+            Segment segment = open.next();
+            if (now - segment.created >= maxAgeMillis) {
+                open.remove();
+                segment.close();
+                seal(segment.file);
+            }
+        }
+    }
+
+    /**
+     * Moves every sealed segment one step along: submits its load job, or once the job is done deletes the segment.
+     * A segment whose job failed with a transient error gets a new token so it is submitted again as a new job,
+     * one that failed for good is set aside with a {@code .failed} suffix.
+     *
+     * @param bigquery authorized BigQuery client
+     * @param projectId BigQuery Project ID to Load to
+     * @param datasetId BigQuery Dataset to Load to
+     * @param retryPolicy Backoff and number of attempts for transient failures
+     * @param breaker Circuit breaker of the BigQuery sink
+     *
+     * @throws Exception The first failure to reach BigQuery, the remaining segments are tried on the next run
+     */
+    public void submitSealed(Bigquery bigquery, String projectId, String datasetId, RetryPolicy retryPolicy,
+                             CircuitBreaker breaker) throws Exception {
+        for (File sealed : list(SEALED_SUFFIX)) {
+            Job job = getJob(bigquery, projectId, jobIdOf(sealed), retryPolicy, breaker);
+            if (job == null) {
+                submit(bigquery, projectId, datasetId, sealed, retryPolicy, breaker);
+                continue;
+            }
+            if (!"DONE".equals(job.getStatus().getState())) {
+                continue;
+            }
+
+            ErrorProto error = job.getStatus().getErrorResult();
+            if (error == null) {
+                LOGGER.log(Level.FINE, "Load job " + jobIdOf(sealed) + " done, removing " + sealed.getName());
+                delete(sealed);
+            } else if (ErrorClassifier.isRetryableReason(error.getReason())) {
+                LOGGER.log(Level.WARNING, String.format("Load job %s failed: %s %s, submitting it again",
+                        jobIdOf(sealed), error.getReason(), error.getMessage()));
+                rename(sealed, new File(directory, tableIdOf(sealed) + "." + newToken() + SEALED_SUFFIX));
+            } else {
+                LOGGER.log(Level.SEVERE, String.format("Load job %s failed: %s %s, leaving %s aside",
+                        jobIdOf(sealed), error.getReason(), error.getMessage(), sealed.getName()));
+                rename(sealed, new File(directory, sealed.getName() + FAILED_SUFFIX));
+            }
+        }
+    }
+
+    /**
+     * @return Number of sealed segments waiting for their load job
+     */
+    public int getSealedCount() {
+        return list(SEALED_SUFFIX).size();
+    }
+
+    /**
+     * Closes the open segments. They are sealed the next time the directory is opened.
+     */
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing load segment " + segment.file + " :: " + e.getMessage());
+            }
+        }
+        segments.clear();
+    }
+
+    private void submit(final Bigquery bigquery, final String projectId, String datasetId, final File sealed,
+                        RetryPolicy retryPolicy, CircuitBreaker breaker) throws Exception {
+        final Job job = new Job()
+                .setJobReference(new JobReference().setProjectId(projectId).setJobId(jobIdOf(sealed)))
+                .setConfiguration(new JobConfiguration().setLoad(new JobConfigurationLoad()
+                        .setDestinationTable(new TableReference().setProjectId(projectId).setDatasetId(datasetId)
+                                .setTableId(tableIdOf(sealed)))
+                        .setSourceFormat("NEWLINE_DELIMITED_JSON")
+                        .setCreateDisposition("CREATE_NEVER")
+                        .setWriteDisposition(GoogleCloudLoggingConstants.WRITE_DISPOSITION)));
+
+        retryPolicy.call("BigQuery load job", breaker, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    bigquery.jobs().insert(projectId, job, new FileContent("application/octet-stream", sealed)).execute();
+                    LOGGER.log(Level.FINE, "Submitted load job " + jobIdOf(sealed) + " for " + sealed.getName());
+                } catch (HttpResponseException e) {
+                    // An earlier attempt created the job even though its response never arrived
+                    if (e.getStatusCode() != 409) {
+                        throw e;
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Job getJob(final Bigquery bigquery, final String projectId, final String jobId,
+                              RetryPolicy retryPolicy, CircuitBreaker breaker) throws Exception {
+        return retryPolicy.call("BigQuery load job status", breaker, new Callable<Job>() {
+            @Override
+            public Job call() throws Exception {
+                try {
+                    return bigquery.jobs().get(projectId, jobId).execute();
+                } catch (HttpResponseException e) {
+                    if (e.getStatusCode() == 404) {
+                        return null;
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Compresses a raw segment into its sealed file and removes the raw one. The sealed file only appears under its
+     * final name once it is complete.
+     */
+    private void seal(File raw) throws IOException {
+        if (raw.length() == 0) {
+            delete(raw);
+            return;
+        }
+
+        File sealed = sealedFileOf(raw);
+        File temp = new File(directory, sealed.getName() + TEMP_SUFFIX);
+
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            InputStream in = new FileInputStream(raw);
+            try {
+                GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024);
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    gzip.write(buffer, 0, read);
+                }
+                gzip.finish();
+                out.getFD().sync();
+            } finally {
+                in.close();
+            }
+        } finally {
+            out.close();
+        }
+
+        rename(temp, sealed);
+        delete(raw);
+    }
+
+    /**
+     * Cuts off a line left half written by a crash.
+     */
+    private static void truncateToLastLine(File raw) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(raw, "rw");
+        try {
+            long length = file.length();
+            while (length > 0) {
+                file.seek(length - 1);
+                if (file.read() == '\n') {
+                    break;
+                }
+                length--;
+            }
+            file.setLength(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    private List<File> list(final String suffix) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(suffix);
+            }
+        });
+        if (files == null) {
+            return Collections.emptyList();
+        }
+
+        // Oldest first
+        List<File> sorted = new ArrayList<File>(Arrays.asList(files));
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        return sorted;
+    }
+
+    private File sealedFileOf(File raw) {
+        String name = raw.getName();
+        return new File(directory, name.substring(0, name.length() - RAW_SUFFIX.length()) + SEALED_SUFFIX);
+    }
+
+    /** Table names cannot contain dots, so the table is everything up to the first one */
+    private static String tableIdOf(File segment) {
+        String name = segment.getName();
+        return name.substring(0, name.indexOf('.'));
+    }
+
+    private static String jobIdOf(File sealed) {
+        String name = sealed.getName();
+        return JOB_PREFIX + name.substring(name.indexOf('.') + 1, name.length() - SEALED_SUFFIX.length());
+    }
+
+    private static String newToken() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException("Unable to rename " + from + " to " + to);
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Unable to delete " + file);
+        }
+    }
+
+    /**
+     * The raw segment a table's rows are currently appended to.
+     */
+    private static class Segment {
+        private final File file;
+        private final FileOutputStream out;
+        private final long created = System.currentTimeMillis();
+        private long size;
+
+        private Segment(File file) throws IOException {
+            this.file = file;
+            this.out = new FileOutputStream(file, true);
+            this.size = file.length();
+        }
+
+        private void write(byte[] lines, int length) throws IOException {
+            out.write(lines, 0, length);
+            out.getChannel().force(false);
+            size += length;
+        }
+
+        private void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -16,84 +16,94 @@ limitations under the License.
 
 package org.jenkinsci.plugins.googlecloudlogging.manager;
 
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.http.HttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GZipEncoding;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.UriTemplate;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.JsonGenerator;
 import com.google.api.services.bigquery.Bigquery;
-import com.google.api.services.bigquery.BigqueryScopes;
 import com.google.api.services.bigquery.model.*;
 import com.google.api.services.bigquery.Bigquery.Jobs.Insert;
 import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.retry.CircuitBreaker;
+import org.jenkinsci.plugins.googlecloudlogging.retry.ErrorClassifier;
+import org.jenkinsci.plugins.googlecloudlogging.retry.InvalidRowsException;
+import org.jenkinsci.plugins.googlecloudlogging.retry.NonRetryableException;
+import org.jenkinsci.plugins.googlecloudlogging.retry.RateLimitedException;
+import org.jenkinsci.plugins.googlecloudlogging.retry.RetryPolicy;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class BigQueryManager {
 
   private static final Logger LOGGER = Logger.getLogger(BigQueryManager.class.getName());
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String INSERT_ALL_PATH = "projects/{projectId}/datasets/{datasetId}/tables/{tableId}/insertAll";
 
   /**
-   * Creates an authorized BigQuery builder using the Application Default Credentials.
-   *
-   * @return an authorized BigQuery builder
-   *
-   * @throws IOException
-   */
-  private static Bigquery createAuthorizedClient() throws IOException {
-    HttpTransport transport = new NetHttpTransport();
-    JsonFactory jsonFactory = new JacksonFactory();
-    GoogleCredential credential = GoogleCredential.getApplicationDefault(transport, jsonFactory);
-
-    if (credential.createScopedRequired()) {
-      credential = credential.createScoped(BigqueryScopes.all());
-    }
-
-    return new Bigquery.Builder(transport, jsonFactory, credential)
-        .setApplicationName(GoogleCloudLoggingConstants.APPLICATION_NAME)
-        .build();
-  }
-
-  /**
-   * Checks the results of a BigQuery submitted SQL and allows for retry logic
+   * Polls a submitted job until it is done, backing off between polls.
    *
    * @param bigquery authorized BigQuery client
    * @param projectId BigQuery Project ID to Load to
    * @param jobId Job ID returned when a query is submitted to BigQuery
    *
-   * @return a pollJob if there are no errors otherwise null to continue with retry logic
-   *
-   * @throws IOException
+   * @throws IOException if the job failed, as a {@link NonRetryableException} unless its error reason is transient
    * @throws InterruptedException
    */
-  private static boolean checkQueryResults(Bigquery bigquery, String projectId, JobReference jobId)
+  static void checkJobResults(Bigquery bigquery, String projectId, JobReference jobId)
           throws IOException, InterruptedException {
 
     // Variables to keep track of total query time
     long startTime = System.currentTimeMillis();
     long elapsedTime;
-    int attempts = 0;
+    long pollDelay = GoogleCloudLoggingConstants.JOB_POLL_INITIAL_MS;
 
-    while (attempts < 10) {
+    while (true) {
       Job pollJob = bigquery.jobs().get(projectId, jobId.getJobId()).execute();
       elapsedTime = System.currentTimeMillis() - startTime;
-      LOGGER.log(Level.INFO, String.format("Job status (%dms) %s: %s\n", elapsedTime,
+      LOGGER.log(Level.FINE, String.format("Job status (%dms) %s: %s", elapsedTime,
              jobId.getJobId(), pollJob.getStatus().getState()));
-      if (pollJob.getStatus().getState().equals("DONE") && pollJob.getStatus().getErrorResult() == null) {
-           return false;
-      } else if (pollJob.getStatus().getState().equals("DONE") && pollJob.getStatus().getErrorResult() != null) {
-        return true;
+
+      if (pollJob.getStatus().getState().equals("DONE")) {
+        ErrorProto error = pollJob.getStatus().getErrorResult();
+        if (error == null) {
+          return;
+        }
+
+        String message = String.format("Job %s failed: %s %s", jobId.getJobId(), error.getReason(), error.getMessage());
+        if (ErrorClassifier.isRetryableReason(error.getReason())) {
+          throw new IOException(message);
+        }
+        throw new NonRetryableException(message, error.getReason());
       }
-      attempts++;
-      // Pause execution for one second before polling job status again, to
-      // reduce unnecessary calls to the BigQuery API and lower overall
-      // application bandwidth.
-      Thread.sleep(1000);
-      
+
+      if (elapsedTime >= GoogleCloudLoggingConstants.JOB_POLL_TIMEOUT_MS) {
+        // Submitting it again could write the rows twice if this one still completes
+        LOGGER.log(Level.WARNING, String.format("Job %s not done after %dms, no longer waiting on it",
+                jobId.getJobId(), elapsedTime));
+        return;
+      }
+
+      // Back off between polls to reduce unnecessary calls to the BigQuery API, short jobs are still picked up quickly
+      Thread.sleep(ThreadLocalRandom.current().nextLong(pollDelay / 2, pollDelay + 1));
+      pollDelay = Math.min(pollDelay * 2, GoogleCloudLoggingConstants.JOB_POLL_MAX_MS);
     }
-      return false;
   }
 
   /**
@@ -112,7 +122,9 @@ public class BigQueryManager {
 
   private static JobReference startQuery(Bigquery bigquery, String projectId, String datasetId, String tableId,
                                          String querySql) throws IOException {
-    LOGGER.log(Level.INFO, String.format("\nInserting Query Job: %s\n", querySql));
+    // The query carries every value of the batch, it is only logged in full at the finest level
+    LOGGER.log(Level.FINE, String.format("Inserting query job of %d characters into %s", querySql.length(), tableId));
+    LOGGER.log(Level.FINEST, querySql);
 
     Job job = new Job();
     JobConfiguration config = new JobConfiguration();
@@ -133,41 +145,208 @@ public class BigQueryManager {
     insert.setProjectId(projectId);
     JobReference jobId = insert.execute().getJobReference();
 
-    LOGGER.log(Level.INFO, String.format("\nJob ID of Query Job is: %s\n", jobId.getJobId()));
+    LOGGER.log(Level.FINE, "Job ID of query job is " + jobId.getJobId());
 
     return jobId;
   }
 
     /**
-     * Method used to orchestrate running a query and retrying it a limited number of times.
+     * Method used to orchestrate running a query and retrying it according to the retry policy.
      *
+     * @param bigquery authorized BigQuery client
      * @param projectId BigQuery Project ID to Load to
      * @param datasetId BigQuery Dataset to Load to
      * @param tableId BigQuery table to Load to
      * @param querySql BigQuery SQL to run
+     * @param retryPolicy Backoff and number of attempts for transient failures
+     * @param breaker Circuit breaker of the BigQuery sink
      *
-     * @throws IOException
+     * @throws Exception the last failure once it is fatal or the retries are used up
      */
-    public BigQueryManager(String projectId, String datasetId, String tableId, String querySql) throws IOException {
-    boolean retryJob = true;
-    int tries = 0;
+    public BigQueryManager(final Bigquery bigquery, final String projectId, final String datasetId, final String tableId,
+                           final String querySql, RetryPolicy retryPolicy, CircuitBreaker breaker) throws Exception {
+    retryPolicy.call("BigQuery query job", breaker, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        JobReference jobId = startQuery(bigquery, projectId, datasetId, tableId, querySql);
+        checkJobResults(bigquery, projectId, jobId);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Appends rows to a table through the streaming API.
+   *
+   * @see #insertRows(Bigquery, String, String, String, RowSource, RetryPolicy, CircuitBreaker)
+   */
+  public static void insertRows(final Bigquery bigquery, final String projectId, final String datasetId,
+                                final String tableId, final List<TableDataInsertAllRequest.Rows> rows,
+                                RetryPolicy retryPolicy, CircuitBreaker breaker) throws Exception {
+    insertRows(bigquery, projectId, datasetId, tableId, new RowSource() {
+      @Override
+      public int size() {
+        return rows.size();
+      }
 
-    // Create a new BigQuery client authorized via Application Default Credentials.
-    Bigquery bigquery = createAuthorizedClient();
+      @Override
+      public String getInsertId(int index) {
+        return rows.get(index).getInsertId();
+      }
 
-    while (retryJob && tries <= 4){
-        tries++;
-      try{
-        JobReference jobId = startQuery(bigquery, projectId, datasetId, tableId, querySql);
-        retryJob = checkQueryResults(bigquery, projectId, jobId);
-      } catch (IOException e) {
-          LOGGER.log(Level.WARNING, "IOException caught while writing to BigQuery : " + e.getMessage());
-      } catch (InterruptedException e) {
-          LOGGER.log(Level.WARNING, "InterruptedException caught while writing to BigQuery : " + e.getMessage());
-        // Jenkins throws an interrupted exception when the stop button is clicked.
-        Thread.currentThread().interrupt();
+      @Override
+      public void writeRow(JsonGenerator generator, int index) throws IOException {
+        generator.serialize(rows.get(index).getJson());
+      }
+    }, retryPolicy, breaker);
+  }
+
+  /**
+   * Appends rows to a table through the streaming API, retrying transient failures according to the retry policy.
+   * Each row should carry an insert ID so BigQuery can de-duplicate rows sent again by a retry. Rows BigQuery
+   * refuses as invalid are left out and the rest of the request is sent again, the refused rows are then reported
+   * by an {@link InvalidRowsException}.
+   *
+   * The request body is encoded from the rows straight into a pooled buffer and sent gzip compressed, the same way
+   * the generated client sends it, without a request object per row.
+   *
+   * @param bigquery authorized BigQuery client
+   * @param projectId BigQuery Project ID to Load to
+   * @param datasetId BigQuery Dataset to Load to
+   * @param tableId BigQuery table to Load to
+   * @param rows Rows to append
+   * @param retryPolicy Backoff and number of attempts for transient failures
+   * @param breaker Circuit breaker of the BigQuery sink
+   *
+   * @throws InvalidRowsException once every other row is written, if BigQuery refused some rows as invalid
+   * @throws Exception the last failure once it is fatal or the retries are used up
+   */
+  public static void insertRows(final Bigquery bigquery, final String projectId, final String datasetId,
+                                final String tableId, final RowSource rows,
+                                RetryPolicy retryPolicy, CircuitBreaker breaker) throws Exception {
+    final Set<Integer> refused = new TreeSet<Integer>();
+    final String[] firstRefusal = new String[1];
+    final List<Integer> remaining = new ArrayList<Integer>(rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      remaining.add(i);
+    }
+
+    retryPolicy.call("BigQuery streaming insert", breaker, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        while (true) {
+          TableDataInsertAllResponse response = postInsertAll(bigquery, projectId, datasetId, tableId, rows, remaining);
+          List<TableDataInsertAllResponse.InsertErrors> insertErrors = response.getInsertErrors();
+          if (insertErrors == null || insertErrors.isEmpty()) {
+            return null;
+          }
+
+          // A single invalid row fails the whole request, the other rows come back as "stopped"
+          Set<Integer> invalid = new HashSet<Integer>();
+          String firstError = null;
+          boolean rateLimited = false;
+          for (TableDataInsertAllResponse.InsertErrors rowErrors : insertErrors) {
+            for (ErrorProto error : rowErrors.getErrors()) {
+              rateLimited |= "rateLimitExceeded".equals(error.getReason());
+              if (!ErrorClassifier.isRetryableReason(error.getReason())) {
+                invalid.add(rowErrors.getIndex().intValue());
+                if (firstError == null) {
+                  firstError = error.getReason() + " " + error.getMessage();
+                }
+              }
+            }
+          }
+
+          if (invalid.isEmpty()) {
+            String message = String.format("%d rows not written by BigQuery", insertErrors.size());
+            throw rateLimited ? new RateLimitedException(message) : new IOException(message);
+          }
+
+          if (firstRefusal[0] == null) {
+            firstRefusal[0] = firstError;
+          }
+          List<Integer> valid = new ArrayList<Integer>();
+          for (int i = 0; i < remaining.size(); i++) {
+            if (invalid.contains(i)) {
+              refused.add(remaining.get(i));
+            } else {
+              valid.add(remaining.get(i));
+            }
+          }
+          if (valid.isEmpty()) {
+            return null;
+          }
+
+          // The stopped rows were never attempted, send them straight away
+          remaining.clear();
+          remaining.addAll(valid);
+        }
       }
+    });
+
+    // Thrown outside the retry policy, refused rows say nothing about the health of BigQuery
+    if (!refused.isEmpty()) {
+      throw new InvalidRowsException(String.format("%d rows of %s refused by BigQuery, first error: %s",
+              refused.size(), tableId, firstRefusal[0]), refused);
     }
+  }
+
+  /**
+   * Sends one insertAll request for the given rows.
+   *
+   * @param indexes Positions of the rows to send, the response's row indexes refer to this list
+   *
+   * @return The response, with the errors of the rows that were not written
+   *
+   * @throws IOException if the request failed, as a GoogleJsonResponseException when BigQuery answered with an error
+   */
+  private static TableDataInsertAllResponse postInsertAll(Bigquery bigquery, String projectId, String datasetId,
+                                                          String tableId, RowSource rows, List<Integer> indexes)
+          throws IOException {
+    PooledByteBuffer body = PooledByteBuffer.acquire();
+    try {
+      JsonGenerator generator = bigquery.getJsonFactory().createJsonGenerator(body, UTF_8);
+      generator.writeStartObject();
+      generator.writeFieldName("rows");
+      generator.writeStartArray();
+      for (int index : indexes) {
+        generator.writeStartObject();
+        String insertId = rows.getInsertId(index);
+        if (insertId != null) {
+          generator.writeFieldName("insertId");
+          generator.writeString(insertId);
+        }
+        generator.writeFieldName("json");
+        rows.writeRow(generator, index);
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+      generator.writeEndObject();
+      generator.close();
+
+      Map<String, Object> path = new HashMap<String, Object>(4);
+      path.put("projectId", projectId);
+      path.put("datasetId", datasetId);
+      path.put("tableId", tableId);
+      GenericUrl url = new GenericUrl(UriTemplate.expand(bigquery.getBaseUrl(), INSERT_ALL_PATH, path, false));
 
+      HttpRequest request = bigquery.getRequestFactory().buildPostRequest(url,
+              new ByteArrayContent(Json.MEDIA_TYPE, body.getBuffer(), 0, body.size()));
+      request.setEncoding(new GZipEncoding());
+      request.setParser(bigquery.getObjectParser());
+      request.setThrowExceptionOnExecuteError(false);
+
+      HttpResponse response = request.execute();
+      try {
+        if (!response.isSuccessStatusCode()) {
+          throw GoogleJsonResponseException.from(bigquery.getJsonFactory(), response);
+        }
+        return response.parseAs(TableDataInsertAllResponse.class);
+      } finally {
+        response.disconnect();
+      }
+    } finally {
+      body.release();
+    }
   }
 }
@@ -0,0 +1,370 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.manager;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.Table;
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableReference;
+import com.google.api.services.bigquery.model.TableSchema;
+import com.google.api.services.bigquery.model.TimePartitioning;
+import org.jenkinsci.plugins.googlecloudlogging.retry.CircuitBreaker;
+import org.jenkinsci.plugins.googlecloudlogging.retry.NonRetryableException;
+import org.jenkinsci.plugins.googlecloudlogging.retry.RetryPolicy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes sure the tables the plugin writes to exist with the columns it writes. Missing tables are created with an
+ * explicit schema, partitioned by day on their end time column and clustered for the usual dashboard filters.
+ * Columns added to the plugin are added to existing tables, anything else, such as a column with another type, is
+ * reported rather than changed.
+ */
+public final class BigQueryTableProvisioner {
+    private static final Logger LOGGER = Logger.getLogger(BigQueryTableProvisioner.class.getName());
+
+    /** Day partitioning and clustering columns of the tables the plugin creates */
+    public static final String BUILD_PARTITION_FIELD = "build_end_ts";
+    public static final List<String> BUILD_CLUSTER_FIELDS = Collections.unmodifiableList(Arrays.asList("job_name", "build_result"));
+    public static final String STAGE_PARTITION_FIELD = "stage_end_ts";
+    public static final List<String> STAGE_CLUSTER_FIELDS = Collections.unmodifiableList(Arrays.asList("job_name", "stage_name"));
+    public static final String UTILIZATION_PARTITION_FIELD = "sample_ts";
+    public static final List<String> UTILIZATION_CLUSTER_FIELDS = Collections.unmodifiableList(Arrays.asList("jenkins_url"));
+    public static final String CONSOLE_PARTITION_FIELD = "log_ts";
+    public static final List<String> CONSOLE_CLUSTER_FIELDS = Collections.unmodifiableList(Arrays.asList("job_name", "build_tag"));
+    public static final String TEST_PARTITION_FIELD = "build_end_ts";
+    public static final List<String> TEST_CLUSTER_FIELDS = Collections.unmodifiableList(Arrays.asList("job_name", "class_name"));
+    public static final String ROLLUP_PARTITION_FIELD = "bucket_start_ts";
+    public static final List<String> ROLLUP_CLUSTER_FIELDS = Collections.unmodifiableList(Arrays.asList("job_name", "branch"));
+
+    private BigQueryTableProvisioner() {}
+
+    /**
+     * @return Schema of the build table
+     */
+    public static TableSchema buildSchema() {
+        return new TableSchema().setFields(Arrays.asList(
+                field("build_tag", "STRING"),
+                field("job_name", "STRING"),
+                field("build_number", "STRING"),
+                field("build_start_ts", "TIMESTAMP"),
+                field("build_end_ts", "TIMESTAMP"),
+                field("build_duration", "INTEGER"),
+                field("build_result", "STRING"),
+                field("build_url", "STRING"),
+                field("jenkins_url", "STRING"),
+                field("executor_number", "STRING"),
+                field("workspace", "STRING"),
+                field("params", "STRING"),
+                field("git_commit", "STRING"),
+                field("git_url", "STRING"),
+                field("git_branch", "STRING"),
+                field("upstream_url", "STRING"),
+                field("upstream_build_number", "STRING"),
+                field("upstream_project", "STRING"),
+                field("pipeline", "BOOLEAN"),
+                field("queue_wait_ms", "INTEGER"),
+                field("blocked_ms", "INTEGER"),
+                field("execution_ms", "INTEGER"),
+                field("assigned_label", "STRING"),
+                field("node_name", "STRING"),
+                // A column of its own, changing params from STRING to a record would not be an additive migration
+                field("params_kv", "RECORD").setMode("REPEATED").setFields(Arrays.asList(
+                        field("key", "STRING"),
+                        field("value", "STRING"),
+                        field("sensitive", "BOOLEAN")))));
+    }
+
+    /**
+     * @return Schema of the pipeline stages table
+     */
+    public static TableSchema stageSchema() {
+        return new TableSchema().setFields(Arrays.asList(
+                field("build_tag", "STRING"),
+                field("job_name", "STRING"),
+                field("build_number", "STRING"),
+                field("stage_id", "STRING"),
+                field("parent_stage_id", "STRING"),
+                field("stage_name", "STRING"),
+                field("parallel_branch", "BOOLEAN"),
+                field("stage_start_ts", "TIMESTAMP"),
+                field("stage_end_ts", "TIMESTAMP"),
+                field("stage_duration_ms", "INTEGER"),
+                field("stage_result", "STRING"),
+                field("node_label", "STRING")));
+    }
+
+    /**
+     * @return Schema of the executor utilization table
+     */
+    public static TableSchema utilizationSchema() {
+        return new TableSchema().setFields(Arrays.asList(
+                field("sample_ts", "TIMESTAMP"),
+                field("jenkins_url", "STRING"),
+                field("busy_executors", "INTEGER"),
+                field("total_executors", "INTEGER"),
+                field("offline_nodes", "INTEGER"),
+                field("nodes", "RECORD").setMode("REPEATED").setFields(Arrays.asList(
+                        field("node_name", "STRING"),
+                        field("labels", "STRING"),
+                        field("busy", "INTEGER"),
+                        field("executors", "INTEGER"),
+                        field("offline", "BOOLEAN")))));
+    }
+
+    /**
+     * @return Schema of the console lines table
+     */
+    public static TableSchema consoleSchema() {
+        return new TableSchema().setFields(Arrays.asList(
+                field("build_tag", "STRING"),
+                field("job_name", "STRING"),
+                field("build_number", "STRING"),
+                field("line_number", "INTEGER"),
+                field("log_ts", "TIMESTAMP"),
+                field("line", "STRING")));
+    }
+
+    /**
+     * @return Schema of the JUnit test cases table
+     */
+    public static TableSchema testCaseSchema() {
+        return new TableSchema().setFields(Arrays.asList(
+                field("build_tag", "STRING"),
+                field("job_name", "STRING"),
+                field("build_number", "STRING"),
+                field("build_end_ts", "TIMESTAMP"),
+                field("class_name", "STRING"),
+                field("test_name", "STRING"),
+                field("duration_ms", "INTEGER"),
+                field("status", "STRING"),
+                field("error_hash", "STRING")));
+    }
+
+    /**
+     * @return Schema of the job rollups table
+     */
+    public static TableSchema rollupSchema() {
+        return new TableSchema().setFields(Arrays.asList(
+                field("job_name", "STRING"),
+                field("branch", "STRING"),
+                field("bucket_start_ts", "TIMESTAMP"),
+                field("bucket_minutes", "INTEGER"),
+                field("builds", "INTEGER"),
+                field("successes", "INTEGER"),
+                field("failures", "INTEGER"),
+                field("unstable", "INTEGER"),
+                field("aborted", "INTEGER"),
+                field("total_duration_ms", "INTEGER"),
+                field("min_duration_ms", "INTEGER"),
+                field("max_duration_ms", "INTEGER"),
+                field("p50_duration_ms", "INTEGER"),
+                field("p95_duration_ms", "INTEGER"),
+                field("duration_histogram", "RECORD").setMode("REPEATED").setFields(Arrays.asList(
+                        field("upper_ms", "INTEGER"),
+                        field("count", "INTEGER")))));
+    }
+
+    /**
+     * Creates the table if it does not exist, or adds the columns it is missing.
+     *
+     * @param bigquery authorized BigQuery client
+     * @param projectId BigQuery Project ID
+     * @param datasetId BigQuery Dataset ID
+     * @param tableId BigQuery Table ID
+     * @param schema Columns the plugin writes
+     * @param partitionField TIMESTAMP column a new table is partitioned on by day
+     * @param clusterFields Columns a new table is clustered on
+     * @param retryPolicy Policy deciding how often and how long to retry
+     * @param breaker Circuit breaker of the BigQuery sink
+     *
+     * @throws NonRetryableException if the table cannot be written to as it is, with the reason
+     * @throws Exception if BigQuery could not be reached
+     */
+    public static void ensureTable(final Bigquery bigquery, final String projectId, final String datasetId,
+                                   final String tableId, final TableSchema schema, final String partitionField,
+                                   final List<String> clusterFields, RetryPolicy retryPolicy, CircuitBreaker breaker)
+            throws Exception {
+        final String name = projectId + ":" + datasetId + "." + tableId;
+
+        retryPolicy.call("BigQuery table check", breaker, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Table table = getTable(bigquery, projectId, datasetId, tableId);
+                if (table == null) {
+                    table = createTable(bigquery, projectId, datasetId, tableId, schema, partitionField, clusterFields, name);
+                    if (table != null) {
+                        return null;
+                    }
+                    // Created by someone else in the meantime, check it like any existing table
+                    table = getTable(bigquery, projectId, datasetId, tableId);
+                    if (table == null) {
+                        throw new IOException("BigQuery table " + name + " was reported to exist but cannot be found");
+                    }
+                }
+
+                List<TableFieldSchema> fields = table.getSchema() != null && table.getSchema().getFields() != null
+                        ? new ArrayList<TableFieldSchema>(table.getSchema().getFields()) : new ArrayList<TableFieldSchema>();
+                if (addMissing(fields, schema.getFields(), name, "")) {
+                    bigquery.tables().patch(projectId, datasetId, tableId,
+                            new Table().setSchema(new TableSchema().setFields(fields))).execute();
+                    LOGGER.log(Level.INFO, "Added the missing columns to BigQuery table " + name);
+                }
+                if (table.getTimePartitioning() == null) {
+                    LOGGER.log(Level.INFO, "BigQuery table " + name + " is not partitioned, every query scans all of it. "
+                            + "Partitioning cannot be added to an existing table, it has to be copied into a new one.");
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return The table, or null if it does not exist
+     */
+    private static Table getTable(Bigquery bigquery, String projectId, String datasetId, String tableId) throws IOException {
+        try {
+            return bigquery.tables().get(projectId, datasetId, tableId).execute();
+        } catch (HttpResponseException e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return The new table, or null if it already existed
+     */
+    private static Table createTable(Bigquery bigquery, String projectId, String datasetId, String tableId,
+                                     TableSchema schema, String partitionField, List<String> clusterFields, String name)
+            throws IOException {
+        // The client library predates column partitioning and clustering, so those two are set as raw JSON
+        Table table = new Table()
+                .setTableReference(new TableReference().setProjectId(projectId).setDatasetId(datasetId).setTableId(tableId))
+                .setSchema(schema)
+                .setTimePartitioning(new TimePartitioning().setType("DAY").set("field", partitionField))
+                .set("clustering", Collections.singletonMap("fields", clusterFields));
+        try {
+            Table created = bigquery.tables().insert(projectId, datasetId, table).execute();
+            LOGGER.log(Level.INFO, "Created BigQuery table " + name + " partitioned by day on " + partitionField
+                    + " and clustered on " + clusterFields);
+            return created;
+        } catch (HttpResponseException e) {
+            if (e.getStatusCode() == 409) {
+                return null;
+            }
+            if (e.getStatusCode() == 404) {
+                throw new NonRetryableException("BigQuery dataset " + projectId + ":" + datasetId
+                        + " does not exist, create it or correct the Dataset setting");
+            }
+            if (e.getStatusCode() == 403) {
+                throw new NonRetryableException("BigQuery table " + name + " does not exist and cannot be created with "
+                        + "the configured credentials, create it or grant them bigquery.tables.create");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the expected columns missing from the existing ones, recursing into records.
+     *
+     * @return true if anything was added
+     *
+     * @throws NonRetryableException if a column exists with another type or mode
+     */
+    static boolean addMissing(List<TableFieldSchema> existing, List<TableFieldSchema> expected, String table, String path)
+            throws NonRetryableException {
+        boolean added = false;
+        for (TableFieldSchema want : expected) {
+            TableFieldSchema have = find(existing, want.getName());
+            if (have == null) {
+                existing.add(want);
+                added = true;
+                continue;
+            }
+
+            String column = path + have.getName();
+            if (!normalizeType(have.getType()).equals(normalizeType(want.getType()))
+                    || !normalizeMode(have.getMode()).equals(normalizeMode(want.getMode()))) {
+                throw new NonRetryableException("BigQuery table " + table + " has column " + column + " as "
+                        + normalizeMode(have.getMode()) + " " + normalizeType(have.getType()) + " but the plugin writes "
+                        + normalizeMode(want.getMode()) + " " + normalizeType(want.getType())
+                        + ", point the plugin at a new table or migrate the column");
+            }
+
+            if (want.getFields() != null) {
+                List<TableFieldSchema> subfields = have.getFields() != null
+                        ? new ArrayList<TableFieldSchema>(have.getFields()) : new ArrayList<TableFieldSchema>();
+                if (addMissing(subfields, want.getFields(), table, column + ".")) {
+                    have.setFields(subfields);
+                    added = true;
+                }
+            }
+        }
+        return added;
+    }
+
+    private static TableFieldSchema find(List<TableFieldSchema> fields, String name) {
+        // Column names are case insensitive
+        for (TableFieldSchema field : fields) {
+            if (field.getName() != null && field.getName().equalsIgnoreCase(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The API reports legacy type names, but accepts and may echo the standard SQL ones.
+     */
+    private static String normalizeType(String type) {
+        if (type == null) {
+            return "";
+        }
+        if ("INT64".equals(type)) {
+            return "INTEGER";
+        }
+        if ("BOOL".equals(type)) {
+            return "BOOLEAN";
+        }
+        if ("STRUCT".equals(type)) {
+            return "RECORD";
+        }
+        if ("FLOAT64".equals(type)) {
+            return "FLOAT";
+        }
+        return type;
+    }
+
+    private static String normalizeMode(String mode) {
+        return mode != null ? mode : "NULLABLE";
+    }
+
+    private static TableFieldSchema field(String name, String type) {
+        return new TableFieldSchema().setName(name).setType(type).setMode("NULLABLE");
+    }
+}
@@ -0,0 +1,30 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.manager;
+
+/**
+ * How build rows get written into the BigQuery table.
+ */
+public enum BigQueryWriteMode {
+    /** Submit a query job per build that selects the row into the table with WRITE_APPEND */
+    QUERY,
+    /** Append the row directly with the tabledata.insertAll streaming API */
+    STREAMING,
+    /** Collect rows in compressed files on disk and append them with a free load job every few minutes */
+    LOAD
+}
@@ -0,0 +1,245 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.manager;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.dispatch.BuildRecordHandler;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.metrics.ExportMetrics;
+import org.jenkinsci.plugins.googlecloudlogging.pipeline.StageCollector;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.jenkinsci.plugins.googlecloudlogging.retry.InvalidRowsException;
+import org.jenkinsci.plugins.googlecloudlogging.sink.BuildRecordSink;
+import org.jenkinsci.plugins.googlecloudlogging.spool.BuildRecordSpool;
+import org.jenkinsci.plugins.googlecloudlogging.spool.SpoolEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans each batch out to every enabled {@link BuildRecordSink} at the same time. Each sink has its own executor with
+ * a bounded queue, so a slow sink only ever backs up its own work. Each sink gets its own future, so a sink that
+ * failed can be retried on its own, and a replayed record is only given to the sinks that have not written it yet.
+ */
+public class ExportManager implements BuildRecordHandler {
+    private final GoogleCloudLoggingPlugin plugin;
+    private final int threadsPerSink;
+    private final Map<BuildRecordSink, ListeningExecutorService> executors = new HashMap<BuildRecordSink, ListeningExecutorService>();
+
+    /**
+     * @param plugin Plugin holding the current settings
+     * @param threadsPerSink Number of threads writing to each sink
+     */
+    public ExportManager(GoogleCloudLoggingPlugin plugin, int threadsPerSink) {
+        this.plugin = plugin;
+        this.threadsPerSink = Math.max(1, threadsPerSink);
+    }
+
+    @Override
+    public Map<String, ListenableFuture<?>> handle(List<SpoolEntry> entries) {
+        List<BuildRecord> records = withStages(entries);
+        Map<String, ListenableFuture<?>> writes = new LinkedHashMap<String, ListenableFuture<?>>();
+
+        for (final BuildRecordSink sink : BuildRecordSink.all()) {
+            if (!sink.isEnabled(plugin)) {
+                continue;
+            }
+
+            final List<SpoolEntry> pendingEntries = new ArrayList<SpoolEntry>(entries.size());
+            List<BuildRecord> pending = new ArrayList<BuildRecord>(records.size());
+            long size = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                if (!entries.get(i).isWrittenTo(sink.getName())) {
+                    pendingEntries.add(entries.get(i));
+                    pending.add(records.get(i));
+                    size += records.get(i).getApproximateSize();
+                }
+            }
+            if (pending.isEmpty()) {
+                continue;
+            }
+            final List<BuildRecord> batch = Collections.unmodifiableList(pending);
+            final long bytes = size;
+
+            writes.put(sink.getName(), executorFor(sink).submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    long start = System.nanoTime();
+                    try {
+                        List<List<BuildRecord>> parts = sink.partition(plugin, batch);
+                        int offset = 0;
+                        for (List<BuildRecord> part : parts) {
+                            List<SpoolEntry> partEntries = pendingEntries.subList(offset, offset + part.size());
+                            try {
+                                sink.write(plugin, part);
+                            } catch (InvalidRowsException e) {
+                                // The whole batch is rejected, the records that were written skip this sink on replay
+                                completePart(sink, without(partEntries, e.getIndexes()));
+                                throw e;
+                            }
+                            if (parts.size() > 1) {
+                                completePart(sink, partEntries);
+                            }
+                            offset += part.size();
+                        }
+                    } catch (Exception e) {
+                        ExportMetrics.recordSinkFailure(sink.getName());
+                        throw e;
+                    }
+                    ExportMetrics.recordSinkWrite(sink.getName(), System.nanoTime() - start, batch.size(), bytes);
+                    return null;
+                }
+            }));
+        }
+        return writes;
+    }
+
+    /**
+     * Notes a written part of a batch against the spool right away. The dispatcher only does that once the whole
+     * batch is written, a replay after a later part failed would write this part again.
+     */
+    private void completePart(BuildRecordSink sink, List<SpoolEntry> part) {
+        BuildRecordSpool spool = plugin.getSpool();
+        if (spool == null) {
+            return;
+        }
+        for (SpoolEntry entry : part) {
+            if (entry.isSpooled()) {
+                spool.ackSink(entry.getId(), sink.getName());
+            }
+        }
+    }
+
+    private static List<SpoolEntry> without(List<SpoolEntry> entries, Set<Integer> indexes) {
+        List<SpoolEntry> kept = new ArrayList<SpoolEntry>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            if (!indexes.contains(i)) {
+                kept.add(entries.get(i));
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Reads the stages of the pipelines in a batch here on the dispatcher worker rather than on the build's executor,
+     * so every sink writes them together with their parent build.
+     */
+    private static List<BuildRecord> withStages(List<SpoolEntry> entries) {
+        List<BuildRecord> batch = new ArrayList<BuildRecord>(entries.size());
+        for (SpoolEntry entry : entries) {
+            BuildRecord record = entry.getRecord();
+            if (record.isPipeline() && record.getRunId() != null && record.getStages().isEmpty()) {
+                record = record.withStages(StageCollector.collect(record.getRunId()));
+            }
+            batch.add(record);
+        }
+        return batch;
+    }
+
+    /**
+     * Stops accepting batches and waits for the sinks to finish the ones already handed to them.
+     *
+     * @param timeoutMillis How long to wait for the sinks
+     */
+    public void shutdown(long timeoutMillis) {
+        List<ListeningExecutorService> running;
+        synchronized (executors) {
+            running = new ArrayList<ListeningExecutorService>(executors.values());
+        }
+
+        for (ListeningExecutorService executor : running) {
+            executor.shutdown();
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (ListeningExecutorService executor : running) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !executor.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ListeningExecutorService executorFor(final BuildRecordSink sink) {
+        synchronized (executors) {
+            ListeningExecutorService executor = executors.get(sink);
+            if (executor == null) {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threadsPerSink, threadsPerSink, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(GoogleCloudLoggingConstants.SINK_QUEUE_CAPACITY),
+                        new SinkThreadFactory(sink.getName()), new BlockWhenFull());
+                executor = MoreExecutors.listeningDecorator(pool);
+                executors.put(sink, executor);
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Makes the dispatcher worker wait for room instead of dropping a batch when a sink has fallen behind.
+     */
+    private static class BlockWhenFull implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Sink executor is shut down");
+            }
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted waiting for sink executor", e);
+            }
+        }
+    }
+
+    private static class SinkThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private SinkThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "Google Cloud Logging " + name + " sink " + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
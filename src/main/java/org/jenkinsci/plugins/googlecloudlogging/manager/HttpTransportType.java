@@ -0,0 +1,44 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.manager;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+/**
+ * HTTP transports the Google API clients can be built on.
+ */
+public enum HttpTransportType {
+    /** JDK HttpURLConnection, relies on the JVM's keep-alive cache for connection reuse */
+    NET_HTTP {
+        @Override
+        public HttpTransport create() {
+            return new NetHttpTransport();
+        }
+    },
+    /** Apache HttpClient with a thread safe pooled connection manager */
+    APACHE {
+        @Override
+        public HttpTransport create() {
+            return new ApacheHttpTransport();
+        }
+    };
+
+    public abstract HttpTransport create();
+}
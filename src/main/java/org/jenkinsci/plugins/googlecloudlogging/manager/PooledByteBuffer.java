@@ -0,0 +1,73 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.manager;
+
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Byte buffer that request bodies and load segments are encoded into, handed back to a small pool once sent so the
+ * next batch writes into the same array. Buffers that grew past
+ * {@value GoogleCloudLoggingConstants#ENCODE_BUFFER_MAX_RETAINED_BYTES} bytes are left to the garbage collector
+ * rather than kept.
+ */
+public final class PooledByteBuffer extends ByteArrayOutputStream {
+    private static final Queue<PooledByteBuffer> POOL = new ConcurrentLinkedQueue<PooledByteBuffer>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private PooledByteBuffer() {
+        super(GoogleCloudLoggingConstants.ENCODE_BUFFER_INITIAL_BYTES);
+    }
+
+    /**
+     * @return An empty buffer, to be given back with {@link #release()}
+     */
+    public static PooledByteBuffer acquire() {
+        PooledByteBuffer buffer = POOL.poll();
+        if (buffer == null) {
+            return new PooledByteBuffer();
+        }
+        POOLED.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Gives the buffer back. It must not be used afterwards.
+     */
+    public void release() {
+        if (buf.length > GoogleCloudLoggingConstants.ENCODE_BUFFER_MAX_RETAINED_BYTES) {
+            return;
+        }
+        reset();
+        if (POOLED.incrementAndGet() <= GoogleCloudLoggingConstants.ENCODE_BUFFER_POOL_SIZE) {
+            POOL.offer(this);
+        } else {
+            POOLED.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return The backing array, valid up to {@link #size()}, without copying it
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+}
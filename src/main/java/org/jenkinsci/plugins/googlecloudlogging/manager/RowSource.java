@@ -0,0 +1,48 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.manager;
+
+import com.google.api.client.json.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * Rows written straight from their source into a request body or load segment, without building a map per row.
+ */
+public interface RowSource {
+    /**
+     * @return Number of rows
+     */
+    int size();
+
+    /**
+     * @param index Position of the row
+     *
+     * @return Id BigQuery de-duplicates the row on when it is streamed, or null for none
+     */
+    String getInsertId(int index);
+
+    /**
+     * Writes the row as one JSON object.
+     *
+     * @param generator Generator positioned where the object goes
+     * @param index Position of the row
+     *
+     * @throws IOException if the generator fails to write
+     */
+    void writeRow(JsonGenerator generator, int index) throws IOException;
+}
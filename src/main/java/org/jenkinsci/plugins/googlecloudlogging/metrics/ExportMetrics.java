@@ -0,0 +1,296 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import jenkins.metrics.api.Metrics;
+import org.jenkinsci.plugins.googlecloudlogging.dispatch.ExportDispatcher;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryLoader;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.jenkinsci.plugins.googlecloudlogging.retry.CircuitBreaker;
+import org.jenkinsci.plugins.googlecloudlogging.spool.BuildRecordSpool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instrumentation of the export pipeline, registered with the Jenkins Metrics plugin under
+ * {@value #PREFIX} and published over JMX in the domain of the same name.
+ *
+ * Per sink there is a latency timer, meters for rows, bytes, failures, retries and skipped builds, and a gauge for
+ * the state of its circuit breaker. The listener's time on the build executor is a timer of its own, and gauges report the queue,
+ * the spool and the age of the oldest build not delivered yet. Metrics are never allowed to fail an export.
+ */
+public final class ExportMetrics {
+    private final static Logger LOGGER = Logger.getLogger(ExportMetrics.class.getName());
+
+    public static final String PREFIX = "googlecloudlogging";
+
+    private static final MetricFilter OWN_METRICS = new MetricFilter() {
+        @Override
+        public boolean matches(String name, Metric metric) {
+            return name.startsWith(PREFIX + ".");
+        }
+    };
+
+    private ExportMetrics() {
+    }
+
+    /**
+     * @param nanos Time the completion listener held the build's executor
+     */
+    public static void recordCapture(long nanos) {
+        MetricRegistry registry = registry();
+        if (registry != null) {
+            registry.timer(MetricRegistry.name(PREFIX, "listener", "onCompleted")).update(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @param sink Name of the sink
+     * @param nanos Time the sink took to write the batch
+     * @param rows Number of builds in the batch
+     * @param bytes Approximate encoded size of the batch
+     */
+    public static void recordSinkWrite(String sink, long nanos, int rows, long bytes) {
+        MetricRegistry registry = registry();
+        if (registry != null) {
+            registry.timer(MetricRegistry.name(PREFIX, "sink", sink, "latency")).update(nanos, TimeUnit.NANOSECONDS);
+            registry.meter(MetricRegistry.name(PREFIX, "sink", sink, "rows")).mark(rows);
+            registry.meter(MetricRegistry.name(PREFIX, "sink", sink, "bytes")).mark(bytes);
+        }
+    }
+
+    /**
+     * @param sink Name of the sink whose write failed after its retries
+     */
+    public static void recordSinkFailure(String sink) {
+        MetricRegistry registry = registry();
+        if (registry != null) {
+            registry.meter(MetricRegistry.name(PREFIX, "sink", sink, "failures")).mark();
+        }
+    }
+
+    /**
+     * @param sink Name of the sink that left out a build's rows, because writing them again would not help
+     */
+    public static void recordSkipped(String sink) {
+        MetricRegistry registry = registry();
+        if (registry != null) {
+            registry.meter(MetricRegistry.name(PREFIX, "sink", sink, "skipped")).mark();
+        }
+    }
+
+    /**
+     * @param service Name of the circuit breaker of the service being retried, which matches the sink name
+     */
+    public static void recordRetry(String service) {
+        MetricRegistry registry = registry();
+        if (registry != null) {
+            registry.meter(MetricRegistry.name(PREFIX, "sink", service, "retries")).mark();
+        }
+    }
+
+    /**
+     * Registers the gauges reading the plugin's current dispatcher, spool, loader and circuit breakers.
+     *
+     * @param plugin The running plugin
+     */
+    public static void registerGauges(final GoogleCloudLoggingPlugin plugin) {
+        MetricRegistry registry = registry();
+        if (registry == null) {
+            return;
+        }
+
+        register(registry, MetricRegistry.name(PREFIX, "queue", "depth"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                ExportDispatcher dispatcher = plugin.getDispatcher();
+                return dispatcher != null ? dispatcher.getQueueDepth() : 0;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "queue", "dropped"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                ExportDispatcher dispatcher = plugin.getDispatcher();
+                return dispatcher != null ? dispatcher.getDroppedCount() : 0L;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "spool", "pending"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                BuildRecordSpool spool = plugin.getSpool();
+                return spool != null ? spool.getPendingCount() : 0;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "spool", "unacked"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                BuildRecordSpool spool = plugin.getSpool();
+                return spool != null ? spool.getUnackedCount() : 0;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "spool", "bytes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                BuildRecordSpool spool = plugin.getSpool();
+                return spool != null ? spool.getSizeBytes() : 0L;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "spool", "deadLettered"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                BuildRecordSpool spool = plugin.getSpool();
+                return spool != null ? spool.getDeadLetteredCount() : 0L;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "undelivered", "oldestAgeMs"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                BuildRecordSpool spool = plugin.getSpool();
+                return spool != null ? spool.getOldestUnackedAgeMillis() : 0L;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "load", "sealedSegments"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                BigQueryLoader loader = plugin.getBigQueryLoader();
+                return loader != null ? loader.getSealedCount() : 0;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "rollup", "pending"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return plugin.getRollupAggregator().size();
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "console", "bufferedBytes"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return plugin.isEnableConsoleLogs() ? plugin.getConsoleLogShipper().getBufferedBytes() : 0;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "console", "sampledLines"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return plugin.isEnableConsoleLogs() ? plugin.getConsoleLogShipper().getSampledCount() : 0L;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "console", "cappedLines"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return plugin.isEnableConsoleLogs() ? plugin.getConsoleLogShipper().getCappedCount() : 0L;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "console", "droppedLines"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return plugin.isEnableConsoleLogs() ? plugin.getConsoleLogShipper().getDroppedCount() : 0L;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "sink", "BigQuery", "breakerOpen"), new Gauge<Boolean>() {
+            @Override
+            public Boolean getValue() {
+                return plugin.getBigQueryBreaker().getState() != CircuitBreaker.State.CLOSED;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "sink", "Datastore", "breakerOpen"), new Gauge<Boolean>() {
+            @Override
+            public Boolean getValue() {
+                return plugin.getDatastoreBreaker().getState() != CircuitBreaker.State.CLOSED;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "sink", "BigQueryConsole", "breakerOpen"), new Gauge<Boolean>() {
+            @Override
+            public Boolean getValue() {
+                return plugin.getConsoleBreaker().getState() != CircuitBreaker.State.CLOSED;
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "sink", "BigQuery", "rate"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return plugin.getBigQueryRateLimiter().getRate();
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "sink", "Datastore", "rate"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return plugin.getDatastoreRateLimiter().getRate();
+            }
+        });
+        register(registry, MetricRegistry.name(PREFIX, "sink", "BigQueryConsole", "rate"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return plugin.getConsoleRateLimiter().getRate();
+            }
+        });
+    }
+
+    /**
+     * Publishes the plugin's metrics over JMX.
+     *
+     * @return The running reporter, or null if the metrics registry is not available
+     */
+    public static JmxReporter startJmxReporter() {
+        MetricRegistry registry = registry();
+        if (registry == null) {
+            return null;
+        }
+
+        JmxReporter reporter = JmxReporter.forRegistry(registry)
+                .inDomain(PREFIX)
+                .filter(OWN_METRICS)
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .convertRatesTo(TimeUnit.SECONDS)
+                .build();
+        reporter.start();
+        return reporter;
+    }
+
+    /**
+     * Removes every metric of the plugin, so a restarted plugin starts from scratch.
+     */
+    public static void removeAll() {
+        MetricRegistry registry = registry();
+        if (registry != null) {
+            registry.removeMatching(OWN_METRICS);
+        }
+    }
+
+    private static void register(MetricRegistry registry, String name, Gauge<?> gauge) {
+        registry.remove(name);
+        registry.register(name, gauge);
+    }
+
+    private static MetricRegistry registry() {
+        try {
+            return Metrics.metricRegistry();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Metrics registry unavailable :: " + e.getMessage());
+        } catch (AssertionError e) {
+            // Thrown while the Metrics plugin is not loaded
+            LOGGER.log(Level.FINE, "Metrics registry unavailable :: " + e.getMessage());
+        }
+        return null;
+    }
+}
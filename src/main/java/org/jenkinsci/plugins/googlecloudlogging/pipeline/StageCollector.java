@@ -0,0 +1,219 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.pipeline;
+
+import hudson.model.Run;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.entities.StageRecord;
+import org.jenkinsci.plugins.workflow.actions.ErrorAction;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.actions.ThreadNameAction;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.actions.WorkspaceAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.graph.BlockEndNode;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the stages and parallel branches of a completed pipeline run.
+ *
+ * Flow node ids are assigned in execution order, so the graph is read one node at a time by id instead of being
+ * loaded as a whole. Only the stages that are still open and the scope of the nodes that can still have children
+ * are kept while walking, so memory follows the nesting and parallel width of the pipeline, not its length.
+ */
+public final class StageCollector {
+    private final static Logger LOGGER = Logger.getLogger(StageCollector.class.getName());
+
+    /** Flow node ids start here, the ids below are never handed out */
+    private static final int FIRST_NODE_ID = 2;
+
+    private final List<StageRecord> stages = new ArrayList<StageRecord>();
+    /** Open stages and branches by the id of their start node */
+    private final Map<String, OpenStage> open = new HashMap<String, OpenStage>();
+    /** Scope around each open block by the id of its start node, restored when the block ends */
+    private final Map<String, Scope> outside = new HashMap<String, Scope>();
+    /** Scope of the nodes following each node that can still be a parent */
+    private final Map<String, Scope> following = new HashMap<String, Scope>();
+
+    private StageCollector() {
+    }
+
+    /**
+     * Collects the stages of the run with the given externalizable id. This never fails the export, a run that
+     * has been deleted or whose flow graph cannot be read simply has no stages.
+     *
+     * @param runId Externalizable id of the run
+     *
+     * @return The stages in the order they ended
+     */
+    public static List<StageRecord> collect(String runId) {
+        try {
+            Run<?, ?> run = Run.fromExternalizableId(runId);
+            if (!(run instanceof WorkflowRun)) {
+                return Collections.emptyList();
+            }
+
+            FlowExecution execution = ((WorkflowRun) run).getExecution();
+            if (execution == null) {
+                return Collections.emptyList();
+            }
+            return collect(execution);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to read the flow graph of " + runId + " :: " + e.getMessage());
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Unable to resolve " + runId + " :: " + e.getMessage());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param execution Flow execution of a completed run
+     *
+     * @return The stages in the order they ended
+     *
+     * @throws IOException If the heads of the flow graph cannot be read
+     */
+    static List<StageRecord> collect(FlowExecution execution) throws IOException {
+        int lastId = 0;
+        for (FlowNode head : execution.getCurrentHeads()) {
+            lastId = Math.max(lastId, parseId(head.getId()));
+        }
+
+        StageCollector collector = new StageCollector();
+        for (int id = FIRST_NODE_ID; id <= lastId && collector.stages.size() < GoogleCloudLoggingConstants.MAX_STAGES_PER_BUILD; id++) {
+            FlowNode node;
+            try {
+                node = execution.getNode(Integer.toString(id));
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Skipping unreadable flow node " + id + " :: " + e.getMessage());
+                continue;
+            }
+            if (node != null) {
+                collector.visit(node);
+            }
+        }
+        return collector.stages;
+    }
+
+    private void visit(FlowNode node) {
+        Scope scope = Scope.TOP;
+        List<FlowNode> parents = node.getParents();
+        for (int i = 0; i < parents.size(); i++) {
+            String parentId = parents.get(i).getId();
+            Scope parentScope = outside.containsKey(parentId) ? following.get(parentId) : following.remove(parentId);
+            if (i == 0 && parentScope != null) {
+                scope = parentScope;
+            }
+        }
+
+        if (node instanceof BlockEndNode) {
+            String startId = ((BlockEndNode<?>) node).getStartNode().getId();
+            following.remove(startId);
+            Scope before = outside.remove(startId);
+            OpenStage stage = open.remove(startId);
+            if (stage != null) {
+                String result = node.getAction(ErrorAction.class) != null ? "FAILURE" : "SUCCESS";
+                stages.add(new StageRecord(stage.id, stage.parentId, stage.name, stage.branch, stage.startTime,
+                        TimingAction.getStartTime(node), result, stage.nodeLabel));
+            }
+            following.put(node.getId(), before != null ? before : scope);
+        } else if (node instanceof BlockStartNode) {
+            outside.put(node.getId(), scope);
+            following.put(node.getId(), enter(node, scope));
+        } else {
+            following.put(node.getId(), scope);
+        }
+    }
+
+    /**
+     * @return Scope of the nodes inside the block started by the given node
+     */
+    private Scope enter(FlowNode start, Scope scope) {
+        LabelAction label = start.getAction(LabelAction.class);
+        if (label != null) {
+            ThreadNameAction thread = start.getAction(ThreadNameAction.class);
+            OpenStage stage = new OpenStage(start.getId(), scope.stage != null ? scope.stage.id : "",
+                    thread != null ? thread.getThreadName() : label.getDisplayName(), thread != null,
+                    TimingAction.getStartTime(start), scope.nodeLabel);
+            open.put(stage.id, stage);
+            return new Scope(stage, scope.nodeLabel);
+        }
+
+        WorkspaceAction workspace = start.getAction(WorkspaceAction.class);
+        if (workspace != null) {
+            // A stage that allocates its own agent reports the agent it ran on
+            if (scope.stage != null && scope.stage.nodeLabel.isEmpty()) {
+                scope.stage.nodeLabel = workspace.getNode();
+            }
+            return new Scope(scope.stage, workspace.getNode());
+        }
+        return scope;
+    }
+
+    private static int parseId(String id) {
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The innermost stage and agent a flow node runs in.
+     */
+    private static class Scope {
+        private static final Scope TOP = new Scope(null, "");
+
+        private final OpenStage stage;
+        private final String nodeLabel;
+
+        private Scope(OpenStage stage, String nodeLabel) {
+            this.stage = stage;
+            this.nodeLabel = nodeLabel;
+        }
+    }
+
+    private static class OpenStage {
+        private final String id;
+        private final String parentId;
+        private final String name;
+        private final boolean branch;
+        private final long startTime;
+        private String nodeLabel;
+
+        private OpenStage(String id, String parentId, String name, boolean branch, long startTime, String nodeLabel) {
+            this.id = id;
+            this.parentId = parentId;
+            this.name = name;
+            this.branch = branch;
+            this.startTime = startTime;
+            this.nodeLabel = nodeLabel;
+        }
+    }
+}
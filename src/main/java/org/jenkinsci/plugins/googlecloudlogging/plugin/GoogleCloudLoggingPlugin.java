@@ -16,12 +16,51 @@ limitations under the License.
 
 package org.jenkinsci.plugins.googlecloudlogging.plugin;
 
+import com.codahale.metrics.JmxReporter;
+import com.google.api.services.bigquery.Bigquery;
 import hudson.Extension;
 import hudson.Plugin;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.googlecloudlogging.backfill.BackfillCheckpoint;
+import org.jenkinsci.plugins.googlecloudlogging.backfill.BackfillTask;
+import org.jenkinsci.plugins.googlecloudlogging.backfill.LiveExportMarks;
+import org.jenkinsci.plugins.googlecloudlogging.console.ConsoleFlushTask;
+import org.jenkinsci.plugins.googlecloudlogging.console.ConsoleLogShipper;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.dispatch.BackPressurePolicy;
+import org.jenkinsci.plugins.googlecloudlogging.dispatch.BatchPolicy;
+import org.jenkinsci.plugins.googlecloudlogging.dispatch.ExportDispatcher;
+import org.jenkinsci.plugins.googlecloudlogging.entities.DatastoreIndexPolicy;
+import org.jenkinsci.plugins.googlecloudlogging.entities.DatastoreKeyLayout;
+import org.jenkinsci.plugins.googlecloudlogging.listener.ParameterFilter;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryClientHolder;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryLoadTask;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryLoader;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryTableProvisioner;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryWriteMode;
+import org.jenkinsci.plugins.googlecloudlogging.manager.ExportManager;
+import org.jenkinsci.plugins.googlecloudlogging.manager.HttpTransportType;
+import org.jenkinsci.plugins.googlecloudlogging.metrics.ExportMetrics;
+import org.jenkinsci.plugins.googlecloudlogging.queue.QueueTimelineTracker;
+import org.jenkinsci.plugins.googlecloudlogging.retry.AdaptiveRateLimiter;
+import org.jenkinsci.plugins.googlecloudlogging.retry.CircuitBreaker;
+import org.jenkinsci.plugins.googlecloudlogging.retry.NonRetryableException;
+import org.jenkinsci.plugins.googlecloudlogging.retry.RetryPolicy;
+import org.jenkinsci.plugins.googlecloudlogging.rollup.BuildRollup;
+import org.jenkinsci.plugins.googlecloudlogging.rollup.RollupAggregator;
+import org.jenkinsci.plugins.googlecloudlogging.rollup.RollupFlushTask;
+import org.jenkinsci.plugins.googlecloudlogging.spool.BuildRecordSpool;
+import org.jenkinsci.plugins.googlecloudlogging.spool.SpoolReplayer;
+import org.jenkinsci.plugins.googlecloudlogging.utilization.UtilizationSampler;
 import org.kohsuke.stapler.StaplerRequest;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,8 +71,69 @@ public class GoogleCloudLoggingPlugin extends Plugin {
     private String bqProject;
     private String bqDataset;
     private String bqTable;
+    private BigQueryWriteMode bqWriteMode;
+    private String credentialsFile;
+    private HttpTransportType httpTransport;
+    private String bqRootUrl;
     private boolean enableDatastore;
+    private String datastoreServiceUrl;
+    private DatastoreIndexPolicy datastoreIndexPolicy;
+    private DatastoreKeyLayout datastoreKeyLayout;
+    private int datastoreKeyShards;
+    private int exportQueueCapacity;
+    private int exportWorkers;
+    private BackPressurePolicy backPressurePolicy;
+    private int batchMaxRows;
+    private long batchMaxBytes;
+    private long batchMaxAgeMs;
+    private int retryMaxAttempts;
+    private long retryInitialBackoffMs;
+    private long retryMaxBackoffMs;
+    private int breakerFailureThreshold;
+    private long breakerOpenMs;
+    private double bqMaxRequestsPerSecond;
+    private double datastoreMaxRequestsPerSecond;
+    private double consoleMaxRequestsPerSecond;
+    private double minRequestsPerSecond;
+    private String paramAllowlist;
+    private String paramDenylist;
+    private int paramMaxValueLength;
+    private int loadIntervalMinutes;
+    private int loadMaxMegabytes;
+    private boolean enableRollups;
+    private boolean enableTestResults;
+    private boolean enableConsoleLogs;
+    private int consoleBufferMegabytes;
+    private int consoleMaxMegabytesPerBuild;
+    private boolean enableUtilization;
+    private int utilizationSampleSeconds;
+    private int rollupBucketMinutes;
 
+    private transient ExportDispatcher dispatcher;
+    private transient ExportManager exportManager;
+    private transient BigQueryClientHolder bigQueryClient;
+    private transient BuildRecordSpool spool;
+    private transient ScheduledFuture<?> replayTask;
+    private transient BigQueryLoader loader;
+    private transient ScheduledFuture<?> loadTask;
+    private transient JmxReporter jmxReporter;
+    private transient CircuitBreaker bigQueryBreaker;
+    private transient CircuitBreaker datastoreBreaker;
+    private transient AdaptiveRateLimiter bigQueryRateLimiter;
+    private transient AdaptiveRateLimiter datastoreRateLimiter;
+    private transient CircuitBreaker consoleBreaker;
+    private transient AdaptiveRateLimiter consoleRateLimiter;
+    private transient ParameterFilter parameterFilter;
+    private transient BackfillTask backfill;
+    private transient LiveExportMarks liveExportMarks;
+    private transient RollupAggregator rollupAggregator;
+    private transient ScheduledFuture<?> rollupTask;
+    private transient volatile String bigQueryTableProblem;
+    private final transient QueueTimelineTracker queueTimelineTracker = new QueueTimelineTracker();
+    private transient ConsoleLogShipper consoleLogShipper;
+    private transient ScheduledFuture<?> consoleTask;
+    private transient UtilizationSampler utilizationSampler;
+    private transient ScheduledFuture<?> utilizationTask;
 
     @Override
     public void configure(StaplerRequest req, JSONObject formData)
@@ -43,8 +143,78 @@ public class GoogleCloudLoggingPlugin extends Plugin {
         bqProject = formData.optString("bqProject", "yourProject");
         bqDataset = formData.optString("bqDataset", "yourDataset");
         bqTable = formData.optString("bqTable", "yourTable");
+        try {
+            bqWriteMode = BigQueryWriteMode.valueOf(formData.optString("bqWriteMode", BigQueryWriteMode.QUERY.name()));
+        } catch (IllegalArgumentException e) {
+            bqWriteMode = BigQueryWriteMode.QUERY;
+        }
+        loadIntervalMinutes = formData.optInt("loadIntervalMinutes", GoogleCloudLoggingConstants.DEFAULT_LOAD_INTERVAL_MINUTES);
+        loadMaxMegabytes = formData.optInt("loadMaxMegabytes", GoogleCloudLoggingConstants.DEFAULT_LOAD_MAX_MEGABYTES);
+        credentialsFile = formData.optString("credentialsFile", "");
+        try {
+            httpTransport = HttpTransportType.valueOf(formData.optString("httpTransport", HttpTransportType.NET_HTTP.name()));
+        } catch (IllegalArgumentException e) {
+            httpTransport = HttpTransportType.NET_HTTP;
+        }
+
+        bqRootUrl = formData.optString("bqRootUrl", "");
 
         enableDatastore = formData.optBoolean("enableDatastore", false); //data part, ain't chipolte
+        datastoreServiceUrl = formData.optString("datastoreServiceUrl", "");
+        try {
+            datastoreIndexPolicy = DatastoreIndexPolicy.valueOf(formData.optString("datastoreIndexPolicy", DatastoreIndexPolicy.ALL.name()));
+        } catch (IllegalArgumentException e) {
+            datastoreIndexPolicy = DatastoreIndexPolicy.ALL;
+        }
+        try {
+            datastoreKeyLayout = DatastoreKeyLayout.valueOf(formData.optString("datastoreKeyLayout", DatastoreKeyLayout.SEQUENTIAL.name()));
+        } catch (IllegalArgumentException e) {
+            datastoreKeyLayout = DatastoreKeyLayout.SEQUENTIAL;
+        }
+        datastoreKeyShards = formData.optInt("datastoreKeyShards", GoogleCloudLoggingConstants.DEFAULT_DATASTORE_KEY_SHARDS);
+
+        int oldCapacity = getExportQueueCapacity();
+        int oldWorkers = getExportWorkers();
+        BackPressurePolicy oldPolicy = getBackPressurePolicy();
+        BatchPolicy oldBatchPolicy = getBatchPolicy();
+
+        exportQueueCapacity = formData.optInt("exportQueueCapacity", GoogleCloudLoggingConstants.DEFAULT_EXPORT_QUEUE_CAPACITY);
+        exportWorkers = formData.optInt("exportWorkers", GoogleCloudLoggingConstants.DEFAULT_EXPORT_WORKERS);
+        try {
+            backPressurePolicy = BackPressurePolicy.valueOf(formData.optString("backPressurePolicy", BackPressurePolicy.BLOCK.name()));
+        } catch (IllegalArgumentException e) {
+            backPressurePolicy = BackPressurePolicy.BLOCK;
+        }
+
+        batchMaxRows = formData.optInt("batchMaxRows", GoogleCloudLoggingConstants.DEFAULT_BATCH_MAX_ROWS);
+        batchMaxBytes = formData.optLong("batchMaxBytes", GoogleCloudLoggingConstants.DEFAULT_BATCH_MAX_BYTES);
+        batchMaxAgeMs = formData.optLong("batchMaxAgeMs", GoogleCloudLoggingConstants.DEFAULT_BATCH_MAX_AGE_MS);
+
+        retryMaxAttempts = formData.optInt("retryMaxAttempts", GoogleCloudLoggingConstants.DEFAULT_RETRY_MAX_ATTEMPTS);
+        retryInitialBackoffMs = formData.optLong("retryInitialBackoffMs", GoogleCloudLoggingConstants.DEFAULT_RETRY_INITIAL_BACKOFF_MS);
+        retryMaxBackoffMs = formData.optLong("retryMaxBackoffMs", GoogleCloudLoggingConstants.DEFAULT_RETRY_MAX_BACKOFF_MS);
+        breakerFailureThreshold = formData.optInt("breakerFailureThreshold", GoogleCloudLoggingConstants.DEFAULT_BREAKER_FAILURE_THRESHOLD);
+        breakerOpenMs = formData.optLong("breakerOpenMs", GoogleCloudLoggingConstants.DEFAULT_BREAKER_OPEN_MS);
+        bqMaxRequestsPerSecond = formData.optDouble("bqMaxRequestsPerSecond", GoogleCloudLoggingConstants.DEFAULT_BQ_MAX_REQUESTS_PER_SECOND);
+        datastoreMaxRequestsPerSecond = formData.optDouble("datastoreMaxRequestsPerSecond", GoogleCloudLoggingConstants.DEFAULT_DATASTORE_MAX_REQUESTS_PER_SECOND);
+        minRequestsPerSecond = formData.optDouble("minRequestsPerSecond", GoogleCloudLoggingConstants.DEFAULT_MIN_REQUESTS_PER_SECOND);
+
+        paramAllowlist = formData.optString("paramAllowlist", "");
+        paramDenylist = formData.optString("paramDenylist", "");
+        paramMaxValueLength = formData.optInt("paramMaxValueLength", GoogleCloudLoggingConstants.DEFAULT_PARAM_MAX_VALUE_LENGTH);
+
+        enableRollups = formData.optBoolean("enableRollups", false);
+        enableTestResults = formData.optBoolean("enableTestResults", false);
+        enableConsoleLogs = formData.optBoolean("enableConsoleLogs", false);
+        consoleBufferMegabytes = formData.optInt("consoleBufferMegabytes", GoogleCloudLoggingConstants.DEFAULT_CONSOLE_BUFFER_MEGABYTES);
+        consoleMaxMegabytesPerBuild = formData.optInt("consoleMaxMegabytesPerBuild", GoogleCloudLoggingConstants.DEFAULT_CONSOLE_MAX_MEGABYTES_PER_BUILD);
+        consoleMaxRequestsPerSecond = formData.optDouble("consoleMaxRequestsPerSecond", GoogleCloudLoggingConstants.DEFAULT_CONSOLE_MAX_REQUESTS_PER_SECOND);
+
+        boolean oldEnableUtilization = enableUtilization;
+        int oldUtilizationSampleSeconds = getUtilizationSampleSeconds();
+        enableUtilization = formData.optBoolean("enableUtilization", false);
+        utilizationSampleSeconds = formData.optInt("utilizationSampleSeconds", GoogleCloudLoggingConstants.DEFAULT_UTILIZATION_SAMPLE_SECONDS);
+        rollupBucketMinutes = formData.optInt("rollupBucketMinutes", GoogleCloudLoggingConstants.DEFAULT_ROLLUP_BUCKET_MINUTES);
 
         try {
             save();
@@ -52,6 +222,35 @@ public class GoogleCloudLoggingPlugin extends Plugin {
         {
             LOGGER.log(Level.SEVERE, "Error Reading Google Cloud Logging Settings :: " + e.getMessage());
         }
+
+        checkBigQueryTables();
+
+        // Rollups collected with the old bucket length are flushed as they are rather than mixed with the new ones
+        final RollupAggregator oldRollups;
+        synchronized (this) {
+            oldRollups = rollupAggregator;
+            if (oldRollups != null && oldRollups.getBucketMinutes() != getRollupBucketMinutes()) {
+                rollupAggregator = null;
+            }
+        }
+        if (oldRollups != null && oldRollups != getRollupAggregator()) {
+            Timer.get().submit(new Runnable() {
+                @Override
+                public void run() {
+                    RollupFlushTask.flush(GoogleCloudLoggingPlugin.this, oldRollups.drainAll());
+                }
+            });
+        }
+
+        if (oldEnableUtilization != enableUtilization || oldUtilizationSampleSeconds != getUtilizationSampleSeconds()) {
+            restartUtilizationSampler();
+        }
+
+        // Only restart the workers if the dispatcher settings actually changed
+        if (oldCapacity != getExportQueueCapacity() || oldWorkers != getExportWorkers() || oldPolicy != getBackPressurePolicy()
+                || !oldBatchPolicy.equals(getBatchPolicy())) {
+            restartDispatcher();
+        }
     }
 
     @Override
@@ -62,6 +261,453 @@ public class GoogleCloudLoggingPlugin extends Plugin {
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Error starting Google Cloud Logging :: " + e.getMessage());
         }
+
+        try {
+            spool = BuildRecordSpool.open(new File(Jenkins.getInstance().getRootDir(), GoogleCloudLoggingConstants.SPOOL_DIRECTORY),
+                    GoogleCloudLoggingConstants.SPOOL_SEGMENT_MAX_BYTES);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error opening Google Cloud Logging spool, builds will only be queued in memory :: " + e.getMessage());
+        }
+
+        try {
+            loader = BigQueryLoader.open(new File(Jenkins.getInstance().getRootDir(), GoogleCloudLoggingConstants.LOAD_DIRECTORY));
+            loadTask = Timer.get().scheduleWithFixedDelay(new BigQueryLoadTask(this, loader),
+                    GoogleCloudLoggingConstants.LOAD_CHECK_INTERVAL_SECONDS,
+                    GoogleCloudLoggingConstants.LOAD_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error opening Google Cloud Logging load directory, LOAD write mode is unavailable :: " + e.getMessage());
+        }
+
+        restartDispatcher();
+        checkBigQueryTables();
+
+        ExportMetrics.registerGauges(this);
+        jmxReporter = ExportMetrics.startJmxReporter();
+
+        rollupTask = Timer.get().scheduleWithFixedDelay(new RollupFlushTask(this),
+                GoogleCloudLoggingConstants.ROLLUP_FLUSH_INTERVAL_SECONDS,
+                GoogleCloudLoggingConstants.ROLLUP_FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        restartUtilizationSampler();
+
+        consoleTask = Timer.get().scheduleWithFixedDelay(new ConsoleFlushTask(this),
+                GoogleCloudLoggingConstants.CONSOLE_FLUSH_INTERVAL_MS,
+                GoogleCloudLoggingConstants.CONSOLE_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        // Replays whatever the previous run left behind right away, then picks up records spilled or failed since
+        if (spool != null) {
+            replayTask = Timer.get().scheduleWithFixedDelay(new SpoolReplayer(this, spool), 0,
+                    GoogleCloudLoggingConstants.SPOOL_REPLAY_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        synchronized (this) {
+            if (backfill != null) {
+                backfill.cancel();
+            }
+        }
+        if (replayTask != null) {
+            replayTask.cancel(false);
+            replayTask = null;
+        }
+        if (loadTask != null) {
+            loadTask.cancel(false);
+            loadTask = null;
+        }
+        if (rollupTask != null) {
+            rollupTask.cancel(false);
+            rollupTask = null;
+        }
+        if (consoleTask != null) {
+            consoleTask.cancel(false);
+            consoleTask = null;
+        }
+        UtilizationSampler sampler;
+        synchronized (this) {
+            sampler = utilizationSampler;
+            utilizationSampler = null;
+            if (utilizationTask != null) {
+                utilizationTask.cancel(false);
+                utilizationTask = null;
+            }
+        }
+        if (jmxReporter != null) {
+            jmxReporter.stop();
+            jmxReporter = null;
+        }
+        ExportMetrics.removeAll();
+
+        ExportDispatcher oldDispatcher;
+        ExportManager oldManager;
+        synchronized (this) {
+            oldDispatcher = dispatcher;
+            oldManager = exportManager;
+            dispatcher = null;
+            exportManager = null;
+        }
+
+        drain(oldDispatcher, oldManager);
+
+        // The open buckets go out as partial rows, the next ones for the same bucket add up with them
+        RollupAggregator rollups;
+        synchronized (this) {
+            rollups = rollupAggregator;
+            rollupAggregator = null;
+        }
+        if (rollups != null) {
+            List<BuildRollup> pending = rollups.drainAll();
+            if (!RollupFlushTask.flush(this, pending)) {
+                LOGGER.log(Level.WARNING, "Dropped " + pending.size() + " Google Cloud Logging rollups that could not be flushed on shutdown");
+            }
+        }
+
+        // Whatever the builds wrote last goes out before the client is closed
+        new ConsoleFlushTask(this).run();
+        if (sampler != null) {
+            sampler.flush();
+        }
+
+        synchronized (this) {
+            if (bigQueryClient != null) {
+                bigQueryClient.close();
+                bigQueryClient = null;
+            }
+            if (spool != null) {
+                spool.close();
+                spool = null;
+            }
+            if (loader != null) {
+                loader.close();
+                loader = null;
+            }
+        }
+    }
+
+    /**
+     * Starts sampling executor utilization at the configured interval if it is enabled, after stopping the running
+     * sampler and flushing what it had collected.
+     */
+    private void restartUtilizationSampler() {
+        final UtilizationSampler oldSampler;
+        synchronized (this) {
+            oldSampler = utilizationSampler;
+            if (utilizationTask != null) {
+                utilizationTask.cancel(false);
+                utilizationTask = null;
+            }
+            utilizationSampler = null;
+            if (enableUtilization) {
+                utilizationSampler = new UtilizationSampler(this);
+                utilizationTask = Timer.get().scheduleWithFixedDelay(utilizationSampler, getUtilizationSampleSeconds(),
+                        getUtilizationSampleSeconds(), TimeUnit.SECONDS);
+            }
+        }
+        if (oldSampler != null) {
+            Timer.get().submit(new Runnable() {
+                @Override
+                public void run() {
+                    oldSampler.flush();
+                }
+            });
+        }
+    }
+
+    /**
+     * Replaces the running dispatcher with one built from the current settings, draining the old one.
+     */
+    private void restartDispatcher() {
+        ExportDispatcher oldDispatcher;
+        ExportManager oldManager;
+        synchronized (this) {
+            oldDispatcher = dispatcher;
+            oldManager = exportManager;
+            exportManager = new ExportManager(this, getExportWorkers());
+            dispatcher = new ExportDispatcher(getExportQueueCapacity(), getExportWorkers(), getBackPressurePolicy(),
+                    getBatchPolicy(), exportManager, spool);
+        }
+
+        drain(oldDispatcher, oldManager);
+    }
+
+    /**
+     * Checks in the background that the BigQuery tables exist with the columns the plugin writes, creating or
+     * extending them as needed. A table that cannot be written to as it is holds BigQuery exports in the spool, with
+     * the reason on the configuration page, until the settings are saved again.
+     */
+    private void checkBigQueryTables() {
+        if (!isEnableBigQuery()) {
+            bigQueryTableProblem = null;
+            return;
+        }
+
+        Timer.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                String project = getBqProject();
+                String dataset = getBqDataset();
+                String table = getBqTable();
+                try {
+                    Bigquery bigquery = getBigQueryClient().get();
+                    BigQueryTableProvisioner.ensureTable(bigquery, project, dataset, table,
+                            BigQueryTableProvisioner.buildSchema(), BigQueryTableProvisioner.BUILD_PARTITION_FIELD,
+                            BigQueryTableProvisioner.BUILD_CLUSTER_FIELDS, getBigQueryRetryPolicy(), getBigQueryBreaker());
+                    BigQueryTableProvisioner.ensureTable(bigquery, project, dataset,
+                            table + GoogleCloudLoggingConstants.STAGES_TABLE_SUFFIX,
+                            BigQueryTableProvisioner.stageSchema(), BigQueryTableProvisioner.STAGE_PARTITION_FIELD,
+                            BigQueryTableProvisioner.STAGE_CLUSTER_FIELDS, getBigQueryRetryPolicy(), getBigQueryBreaker());
+                    if (isEnableUtilization()) {
+                        BigQueryTableProvisioner.ensureTable(bigquery, project, dataset,
+                                table + GoogleCloudLoggingConstants.UTILIZATION_TABLE_SUFFIX,
+                                BigQueryTableProvisioner.utilizationSchema(), BigQueryTableProvisioner.UTILIZATION_PARTITION_FIELD,
+                                BigQueryTableProvisioner.UTILIZATION_CLUSTER_FIELDS, getBigQueryRetryPolicy(), getBigQueryBreaker());
+                    }
+                    if (isEnableConsoleLogs()) {
+                        BigQueryTableProvisioner.ensureTable(bigquery, project, dataset,
+                                table + GoogleCloudLoggingConstants.CONSOLE_TABLE_SUFFIX,
+                                BigQueryTableProvisioner.consoleSchema(), BigQueryTableProvisioner.CONSOLE_PARTITION_FIELD,
+                                BigQueryTableProvisioner.CONSOLE_CLUSTER_FIELDS, getBigQueryRetryPolicy(), getBigQueryBreaker());
+                    }
+                    if (isEnableTestResults()) {
+                        BigQueryTableProvisioner.ensureTable(bigquery, project, dataset,
+                                table + GoogleCloudLoggingConstants.TESTS_TABLE_SUFFIX,
+                                BigQueryTableProvisioner.testCaseSchema(), BigQueryTableProvisioner.TEST_PARTITION_FIELD,
+                                BigQueryTableProvisioner.TEST_CLUSTER_FIELDS, getBigQueryRetryPolicy(), getBigQueryBreaker());
+                    }
+                    if (isEnableRollups()) {
+                        BigQueryTableProvisioner.ensureTable(bigquery, project, dataset,
+                                table + GoogleCloudLoggingConstants.ROLLUPS_TABLE_SUFFIX,
+                                BigQueryTableProvisioner.rollupSchema(), BigQueryTableProvisioner.ROLLUP_PARTITION_FIELD,
+                                BigQueryTableProvisioner.ROLLUP_CLUSTER_FIELDS, getBigQueryRetryPolicy(), getBigQueryBreaker());
+                    }
+                    bigQueryTableProblem = null;
+                } catch (NonRetryableException e) {
+                    bigQueryTableProblem = e.getMessage();
+                    LOGGER.log(Level.SEVERE, "BigQuery exports are held until the table is fixed :: " + e.getMessage());
+                } catch (Exception e) {
+                    // Not being able to check, for lack of permission or a network problem, does not stop the exports
+                    bigQueryTableProblem = null;
+                    LOGGER.log(Level.WARNING, "Unable to check the BigQuery tables :: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Why the BigQuery table cannot be written to, or null if it can or has not been checked
+     */
+    public String getBigQueryTableProblem() {
+        return bigQueryTableProblem;
+    }
+
+    /**
+     * Lets the dispatcher hand off what it has queued and the sinks finish writing it, within the shutdown deadline.
+     */
+    private static void drain(ExportDispatcher oldDispatcher, ExportManager oldManager) {
+        long deadline = System.currentTimeMillis() + GoogleCloudLoggingConstants.EXPORT_SHUTDOWN_TIMEOUT_MS;
+        if (oldDispatcher != null) {
+            oldDispatcher.shutdown(GoogleCloudLoggingConstants.EXPORT_SHUTDOWN_TIMEOUT_MS);
+        }
+        if (oldManager != null) {
+            oldManager.shutdown(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Returns the shared BigQuery client, building a new one only if the credential or transport settings changed.
+     * A replaced client is left for in-flight exports to finish with and closed once they have had time to.
+     *
+     * @return Holder for the authorized BigQuery client
+     */
+    public synchronized BigQueryClientHolder getBigQueryClient() {
+        if (bigQueryClient == null || !bigQueryClient.matches(getHttpTransport(), credentialsFile, getBqRootUrl())) {
+            final BigQueryClientHolder replaced = bigQueryClient;
+            bigQueryClient = new BigQueryClientHolder(getHttpTransport(), credentialsFile, getBqRootUrl());
+            if (replaced != null) {
+                Timer.get().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        replaced.close();
+                    }
+                }, GoogleCloudLoggingConstants.REPLACED_CLIENT_CLOSE_DELAY_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+        return bigQueryClient;
+    }
+
+    /**
+     * @return The loader collecting rows for the LOAD write mode, or null if its directory could not be opened
+     */
+    public synchronized BigQueryLoader getBigQueryLoader() {
+        return loader;
+    }
+
+    /**
+     * @return The spool completed builds are persisted to until exported, or null if it could not be opened
+     */
+    public synchronized BuildRecordSpool getSpool() {
+        return spool;
+    }
+
+    /**
+     * Starts a backfill of the builds already on disk in its own thread, unless one is running already.
+     *
+     * @param parallelism Jobs walked at the same time
+     * @param runsPerSecond Most builds loaded per second
+     * @param restart Forget the progress of earlier backfills and export every build again
+     *
+     * @return false if a backfill is already running
+     *
+     * @throws IOException If the checkpoint cannot be read or reset
+     */
+    public synchronized boolean startBackfill(int parallelism, double runsPerSecond, boolean restart) throws IOException {
+        if (backfill != null && backfill.getState() == BackfillTask.State.RUNNING) {
+            return false;
+        }
+
+        BackfillCheckpoint checkpoint = BackfillCheckpoint.load(
+                new File(Jenkins.getInstance().getRootDir(), GoogleCloudLoggingConstants.BACKFILL_CHECKPOINT_FILE));
+        if (restart) {
+            checkpoint.reset();
+        }
+
+        backfill = new BackfillTask(this, checkpoint, getLiveExportMarks(), parallelism, runsPerSecond);
+        Thread thread = new Thread(backfill, "Google Cloud Logging backfill");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * @return First build of each job taken on by the listener, where the backfill stops
+     *
+     * @throws IOException If the marks file exists but cannot be read
+     */
+    public synchronized LiveExportMarks getLiveExportMarks() throws IOException {
+        if (liveExportMarks == null) {
+            liveExportMarks = LiveExportMarks.load(
+                    new File(Jenkins.getInstance().getRootDir(), GoogleCloudLoggingConstants.BACKFILL_LIVE_MARKS_FILE));
+        }
+        return liveExportMarks;
+    }
+
+    /**
+     * @return The running or last backfill since Jenkins started, or null if there was none
+     */
+    public synchronized BackfillTask getBackfill() {
+        return backfill;
+    }
+
+    /**
+     * @return Rollups of the builds completed since the last flush
+     */
+    public synchronized RollupAggregator getRollupAggregator() {
+        if (rollupAggregator == null) {
+            rollupAggregator = new RollupAggregator(getRollupBucketMinutes());
+        }
+        return rollupAggregator;
+    }
+
+    /**
+     * @return Retry policy built from the current settings, paced by the BigQuery rate limiter
+     */
+    public RetryPolicy getBigQueryRetryPolicy() {
+        return new RetryPolicy(getRetryMaxAttempts(), getRetryInitialBackoffMs(), getRetryMaxBackoffMs(), getBigQueryRateLimiter());
+    }
+
+    /**
+     * @return Retry policy built from the current settings, paced by the Datastore rate limiter
+     */
+    public RetryPolicy getDatastoreRetryPolicy() {
+        return new RetryPolicy(getRetryMaxAttempts(), getRetryInitialBackoffMs(), getRetryMaxBackoffMs(), getDatastoreRateLimiter());
+    }
+
+    /**
+     * @return Retry policy built from the current settings, paced by the console rate limiter
+     */
+    public RetryPolicy getConsoleRetryPolicy() {
+        return new RetryPolicy(getRetryMaxAttempts(), getRetryInitialBackoffMs(), getRetryMaxBackoffMs(), getConsoleRateLimiter());
+    }
+
+    /**
+     * @return Rate limiter shared by everything calling BigQuery, kept until its settings change
+     */
+    public synchronized AdaptiveRateLimiter getBigQueryRateLimiter() {
+        if (bigQueryRateLimiter == null || !bigQueryRateLimiter.matches(getBqMaxRequestsPerSecond(), getMinRequestsPerSecond())) {
+            bigQueryRateLimiter = new AdaptiveRateLimiter("BigQuery", getBqMaxRequestsPerSecond(), getMinRequestsPerSecond());
+        }
+        return bigQueryRateLimiter;
+    }
+
+    /**
+     * @return Rate limiter shared by everything calling Datastore, kept until its settings change
+     */
+    public synchronized AdaptiveRateLimiter getDatastoreRateLimiter() {
+        if (datastoreRateLimiter == null || !datastoreRateLimiter.matches(getDatastoreMaxRequestsPerSecond(), getMinRequestsPerSecond())) {
+            datastoreRateLimiter = new AdaptiveRateLimiter("Datastore", getDatastoreMaxRequestsPerSecond(), getMinRequestsPerSecond());
+        }
+        return datastoreRateLimiter;
+    }
+
+    /**
+     * @return Rate limiter for console lines streamed to BigQuery, kept apart so console traffic
+     * never takes calls away from build exports
+     */
+    public synchronized AdaptiveRateLimiter getConsoleRateLimiter() {
+        if (consoleRateLimiter == null || !consoleRateLimiter.matches(getConsoleMaxRequestsPerSecond(), getMinRequestsPerSecond())) {
+            consoleRateLimiter = new AdaptiveRateLimiter("BigQuery console", getConsoleMaxRequestsPerSecond(), getMinRequestsPerSecond());
+        }
+        return consoleRateLimiter;
+    }
+
+    /**
+     * @return Circuit breaker shared by everything writing to BigQuery
+     */
+    public synchronized CircuitBreaker getBigQueryBreaker() {
+        if (bigQueryBreaker == null || !bigQueryBreaker.matches(getBreakerFailureThreshold(), getBreakerOpenMs())) {
+            bigQueryBreaker = new CircuitBreaker("BigQuery", getBreakerFailureThreshold(), getBreakerOpenMs());
+        }
+        return bigQueryBreaker;
+    }
+
+    /**
+     * @return Circuit breaker shared by everything writing to Datastore
+     */
+    public synchronized CircuitBreaker getDatastoreBreaker() {
+        if (datastoreBreaker == null || !datastoreBreaker.matches(getBreakerFailureThreshold(), getBreakerOpenMs())) {
+            datastoreBreaker = new CircuitBreaker("Datastore", getBreakerFailureThreshold(), getBreakerOpenMs());
+        }
+        return datastoreBreaker;
+    }
+
+    /**
+     * @return Circuit breaker for console lines streamed to BigQuery, so failing console writes
+     * do not hold off build exports
+     */
+    public synchronized CircuitBreaker getConsoleBreaker() {
+        if (consoleBreaker == null || !consoleBreaker.matches(getBreakerFailureThreshold(), getBreakerOpenMs())) {
+            consoleBreaker = new CircuitBreaker("BigQuery console", getBreakerFailureThreshold(), getBreakerOpenMs());
+        }
+        return consoleBreaker;
+    }
+
+    /**
+     * @return Parameter filter compiled from the current settings, rebuilt only when they change
+     */
+    public synchronized ParameterFilter getParameterFilter() {
+        if (parameterFilter == null || !parameterFilter.matches(getParamAllowlist(), getParamDenylist(), getParamMaxValueLength())) {
+            parameterFilter = new ParameterFilter(getParamAllowlist(), getParamDenylist(), getParamMaxValueLength());
+        }
+        return parameterFilter;
+    }
+
+    /**
+     * @return The dispatcher completed builds are queued on, or null if the plugin has been stopped.
+     */
+    public synchronized ExportDispatcher getDispatcher() {
+        return dispatcher;
     }
 
     public boolean isEnableBigQuery() {
@@ -96,6 +742,190 @@ public class GoogleCloudLoggingPlugin extends Plugin {
         this.bqTable = bqTable;
     }
 
+    public BigQueryWriteMode getBqWriteMode() {
+        return bqWriteMode != null ? bqWriteMode : BigQueryWriteMode.QUERY;
+    }
+
+    public void setBqWriteMode(BigQueryWriteMode bqWriteMode) {
+        this.bqWriteMode = bqWriteMode;
+    }
+
+    public BigQueryWriteMode[] getBqWriteModes() {
+        return BigQueryWriteMode.values();
+    }
+
+    public int getLoadIntervalMinutes() {
+        return loadIntervalMinutes > 0 ? loadIntervalMinutes : GoogleCloudLoggingConstants.DEFAULT_LOAD_INTERVAL_MINUTES;
+    }
+
+    public void setLoadIntervalMinutes(int loadIntervalMinutes) {
+        this.loadIntervalMinutes = loadIntervalMinutes;
+    }
+
+    public int getLoadMaxMegabytes() {
+        return loadMaxMegabytes > 0 ? loadMaxMegabytes : GoogleCloudLoggingConstants.DEFAULT_LOAD_MAX_MEGABYTES;
+    }
+
+    public void setLoadMaxMegabytes(int loadMaxMegabytes) {
+        this.loadMaxMegabytes = loadMaxMegabytes;
+    }
+
+    public boolean isEnableRollups() {
+        return enableRollups;
+    }
+
+    public void setEnableRollups(boolean enableRollups) {
+        this.enableRollups = enableRollups;
+    }
+
+    public boolean isEnableTestResults() {
+        return enableTestResults;
+    }
+
+    public void setEnableTestResults(boolean enableTestResults) {
+        this.enableTestResults = enableTestResults;
+    }
+
+    public boolean isEnableUtilization() {
+        return enableUtilization;
+    }
+
+    public void setEnableUtilization(boolean enableUtilization) {
+        this.enableUtilization = enableUtilization;
+    }
+
+    public int getUtilizationSampleSeconds() {
+        return utilizationSampleSeconds > 0
+                ? Math.max(utilizationSampleSeconds, GoogleCloudLoggingConstants.MIN_UTILIZATION_SAMPLE_SECONDS)
+                : GoogleCloudLoggingConstants.DEFAULT_UTILIZATION_SAMPLE_SECONDS;
+    }
+
+    public void setUtilizationSampleSeconds(int utilizationSampleSeconds) {
+        this.utilizationSampleSeconds = utilizationSampleSeconds;
+    }
+
+    /**
+     * @return Queue timelines of the builds on their way to completion
+     */
+    public QueueTimelineTracker getQueueTimelineTracker() {
+        return queueTimelineTracker;
+    }
+
+    /**
+     * The buffer is allocated on first use with the size configured then, a new size takes effect after a restart.
+     *
+     * @return The shipper of console lines
+     */
+    public synchronized ConsoleLogShipper getConsoleLogShipper() {
+        if (consoleLogShipper == null) {
+            consoleLogShipper = new ConsoleLogShipper(getConsoleBufferMegabytes() * 1024 * 1024);
+        }
+        return consoleLogShipper;
+    }
+
+    public boolean isEnableConsoleLogs() {
+        return enableConsoleLogs;
+    }
+
+    public void setEnableConsoleLogs(boolean enableConsoleLogs) {
+        this.enableConsoleLogs = enableConsoleLogs;
+    }
+
+    public int getConsoleBufferMegabytes() {
+        return consoleBufferMegabytes > 0
+                ? Math.min(consoleBufferMegabytes, GoogleCloudLoggingConstants.MAX_CONSOLE_BUFFER_MEGABYTES)
+                : GoogleCloudLoggingConstants.DEFAULT_CONSOLE_BUFFER_MEGABYTES;
+    }
+
+    public void setConsoleBufferMegabytes(int consoleBufferMegabytes) {
+        this.consoleBufferMegabytes = consoleBufferMegabytes;
+    }
+
+    public int getConsoleMaxMegabytesPerBuild() {
+        return consoleMaxMegabytesPerBuild > 0 ? consoleMaxMegabytesPerBuild : GoogleCloudLoggingConstants.DEFAULT_CONSOLE_MAX_MEGABYTES_PER_BUILD;
+    }
+
+    public void setConsoleMaxMegabytesPerBuild(int consoleMaxMegabytesPerBuild) {
+        this.consoleMaxMegabytesPerBuild = consoleMaxMegabytesPerBuild;
+    }
+
+    public int getRollupBucketMinutes() {
+        return rollupBucketMinutes > 0 ? rollupBucketMinutes : GoogleCloudLoggingConstants.DEFAULT_ROLLUP_BUCKET_MINUTES;
+    }
+
+    public void setRollupBucketMinutes(int rollupBucketMinutes) {
+        this.rollupBucketMinutes = rollupBucketMinutes;
+    }
+
+    public String getCredentialsFile() {
+        return credentialsFile;
+    }
+
+    public void setCredentialsFile(String credentialsFile) {
+        this.credentialsFile = credentialsFile;
+    }
+
+    public HttpTransportType getHttpTransport() {
+        return httpTransport != null ? httpTransport : HttpTransportType.NET_HTTP;
+    }
+
+    public void setHttpTransport(HttpTransportType httpTransport) {
+        this.httpTransport = httpTransport;
+    }
+
+    public HttpTransportType[] getHttpTransports() {
+        return HttpTransportType.values();
+    }
+
+    public String getBqRootUrl() {
+        return bqRootUrl != null ? bqRootUrl : "";
+    }
+
+    public void setBqRootUrl(String bqRootUrl) {
+        this.bqRootUrl = bqRootUrl;
+    }
+
+    public String getDatastoreServiceUrl() {
+        return datastoreServiceUrl != null ? datastoreServiceUrl : "";
+    }
+
+    public void setDatastoreServiceUrl(String datastoreServiceUrl) {
+        this.datastoreServiceUrl = datastoreServiceUrl;
+    }
+
+    public DatastoreIndexPolicy getDatastoreIndexPolicy() {
+        return datastoreIndexPolicy != null ? datastoreIndexPolicy : DatastoreIndexPolicy.ALL;
+    }
+
+    public void setDatastoreIndexPolicy(DatastoreIndexPolicy datastoreIndexPolicy) {
+        this.datastoreIndexPolicy = datastoreIndexPolicy;
+    }
+
+    public DatastoreIndexPolicy[] getDatastoreIndexPolicies() {
+        return DatastoreIndexPolicy.values();
+    }
+
+    public DatastoreKeyLayout getDatastoreKeyLayout() {
+        return datastoreKeyLayout != null ? datastoreKeyLayout : DatastoreKeyLayout.SEQUENTIAL;
+    }
+
+    public void setDatastoreKeyLayout(DatastoreKeyLayout datastoreKeyLayout) {
+        this.datastoreKeyLayout = datastoreKeyLayout;
+    }
+
+    public DatastoreKeyLayout[] getDatastoreKeyLayouts() {
+        return DatastoreKeyLayout.values();
+    }
+
+    public int getDatastoreKeyShards() {
+        return datastoreKeyShards > 0 && datastoreKeyShards <= GoogleCloudLoggingConstants.MAX_DATASTORE_KEY_SHARDS
+                ? datastoreKeyShards : GoogleCloudLoggingConstants.DEFAULT_DATASTORE_KEY_SHARDS;
+    }
+
+    public void setDatastoreKeyShards(int datastoreKeyShards) {
+        this.datastoreKeyShards = datastoreKeyShards;
+    }
+
     public boolean isEnableDatastore() {
         return enableDatastore;
     }
@@ -103,4 +933,156 @@ public class GoogleCloudLoggingPlugin extends Plugin {
     public void setEnableDatastore(boolean enableDatastore) {
         this.enableDatastore = enableDatastore;
     }
+
+    public int getExportQueueCapacity() {
+        return exportQueueCapacity > 0 ? exportQueueCapacity : GoogleCloudLoggingConstants.DEFAULT_EXPORT_QUEUE_CAPACITY;
+    }
+
+    public void setExportQueueCapacity(int exportQueueCapacity) {
+        this.exportQueueCapacity = exportQueueCapacity;
+    }
+
+    public int getExportWorkers() {
+        return exportWorkers > 0 ? exportWorkers : GoogleCloudLoggingConstants.DEFAULT_EXPORT_WORKERS;
+    }
+
+    public void setExportWorkers(int exportWorkers) {
+        this.exportWorkers = exportWorkers;
+    }
+
+    public BackPressurePolicy getBackPressurePolicy() {
+        return backPressurePolicy != null ? backPressurePolicy : BackPressurePolicy.BLOCK;
+    }
+
+    public void setBackPressurePolicy(BackPressurePolicy backPressurePolicy) {
+        this.backPressurePolicy = backPressurePolicy;
+    }
+
+    public BackPressurePolicy[] getBackPressurePolicies() {
+        return BackPressurePolicy.values();
+    }
+
+    public int getBatchMaxRows() {
+        return batchMaxRows > 0 ? batchMaxRows : GoogleCloudLoggingConstants.DEFAULT_BATCH_MAX_ROWS;
+    }
+
+    public void setBatchMaxRows(int batchMaxRows) {
+        this.batchMaxRows = batchMaxRows;
+    }
+
+    public long getBatchMaxBytes() {
+        return batchMaxBytes > 0 ? batchMaxBytes : GoogleCloudLoggingConstants.DEFAULT_BATCH_MAX_BYTES;
+    }
+
+    public void setBatchMaxBytes(long batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    public long getBatchMaxAgeMs() {
+        return batchMaxAgeMs > 0 ? batchMaxAgeMs : GoogleCloudLoggingConstants.DEFAULT_BATCH_MAX_AGE_MS;
+    }
+
+    public void setBatchMaxAgeMs(long batchMaxAgeMs) {
+        this.batchMaxAgeMs = batchMaxAgeMs;
+    }
+
+    public BatchPolicy getBatchPolicy() {
+        return new BatchPolicy(getBatchMaxRows(), getBatchMaxBytes(), getBatchMaxAgeMs());
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts > 0 ? retryMaxAttempts : GoogleCloudLoggingConstants.DEFAULT_RETRY_MAX_ATTEMPTS;
+    }
+
+    public void setRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+    }
+
+    public long getRetryInitialBackoffMs() {
+        return retryInitialBackoffMs > 0 ? retryInitialBackoffMs : GoogleCloudLoggingConstants.DEFAULT_RETRY_INITIAL_BACKOFF_MS;
+    }
+
+    public void setRetryInitialBackoffMs(long retryInitialBackoffMs) {
+        this.retryInitialBackoffMs = retryInitialBackoffMs;
+    }
+
+    public long getRetryMaxBackoffMs() {
+        return retryMaxBackoffMs > 0 ? retryMaxBackoffMs : GoogleCloudLoggingConstants.DEFAULT_RETRY_MAX_BACKOFF_MS;
+    }
+
+    public void setRetryMaxBackoffMs(long retryMaxBackoffMs) {
+        this.retryMaxBackoffMs = retryMaxBackoffMs;
+    }
+
+    public int getBreakerFailureThreshold() {
+        return breakerFailureThreshold > 0 ? breakerFailureThreshold : GoogleCloudLoggingConstants.DEFAULT_BREAKER_FAILURE_THRESHOLD;
+    }
+
+    public void setBreakerFailureThreshold(int breakerFailureThreshold) {
+        this.breakerFailureThreshold = breakerFailureThreshold;
+    }
+
+    public long getBreakerOpenMs() {
+        return breakerOpenMs > 0 ? breakerOpenMs : GoogleCloudLoggingConstants.DEFAULT_BREAKER_OPEN_MS;
+    }
+
+    public void setBreakerOpenMs(long breakerOpenMs) {
+        this.breakerOpenMs = breakerOpenMs;
+    }
+
+    public double getBqMaxRequestsPerSecond() {
+        return bqMaxRequestsPerSecond > 0 ? bqMaxRequestsPerSecond : GoogleCloudLoggingConstants.DEFAULT_BQ_MAX_REQUESTS_PER_SECOND;
+    }
+
+    public void setBqMaxRequestsPerSecond(double bqMaxRequestsPerSecond) {
+        this.bqMaxRequestsPerSecond = bqMaxRequestsPerSecond;
+    }
+
+    public double getDatastoreMaxRequestsPerSecond() {
+        return datastoreMaxRequestsPerSecond > 0 ? datastoreMaxRequestsPerSecond : GoogleCloudLoggingConstants.DEFAULT_DATASTORE_MAX_REQUESTS_PER_SECOND;
+    }
+
+    public void setDatastoreMaxRequestsPerSecond(double datastoreMaxRequestsPerSecond) {
+        this.datastoreMaxRequestsPerSecond = datastoreMaxRequestsPerSecond;
+    }
+
+    public double getConsoleMaxRequestsPerSecond() {
+        return consoleMaxRequestsPerSecond > 0 ? consoleMaxRequestsPerSecond : GoogleCloudLoggingConstants.DEFAULT_CONSOLE_MAX_REQUESTS_PER_SECOND;
+    }
+
+    public void setConsoleMaxRequestsPerSecond(double consoleMaxRequestsPerSecond) {
+        this.consoleMaxRequestsPerSecond = consoleMaxRequestsPerSecond;
+    }
+
+    public double getMinRequestsPerSecond() {
+        return minRequestsPerSecond > 0 ? minRequestsPerSecond : GoogleCloudLoggingConstants.DEFAULT_MIN_REQUESTS_PER_SECOND;
+    }
+
+    public void setMinRequestsPerSecond(double minRequestsPerSecond) {
+        this.minRequestsPerSecond = minRequestsPerSecond;
+    }
+
+    public String getParamAllowlist() {
+        return paramAllowlist != null ? paramAllowlist : "";
+    }
+
+    public void setParamAllowlist(String paramAllowlist) {
+        this.paramAllowlist = paramAllowlist;
+    }
+
+    public String getParamDenylist() {
+        return paramDenylist != null ? paramDenylist : "";
+    }
+
+    public void setParamDenylist(String paramDenylist) {
+        this.paramDenylist = paramDenylist;
+    }
+
+    public int getParamMaxValueLength() {
+        return paramMaxValueLength > 0 ? paramMaxValueLength : GoogleCloudLoggingConstants.DEFAULT_PARAM_MAX_VALUE_LENGTH;
+    }
+
+    public void setParamMaxValueLength(int paramMaxValueLength) {
+        this.paramMaxValueLength = paramMaxValueLength;
+    }
 }
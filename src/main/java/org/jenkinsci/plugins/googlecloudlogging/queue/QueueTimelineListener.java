@@ -0,0 +1,91 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.queue;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+
+/**
+ * Feeds the queue events of jobs to the plugin's timeline tracker. Items of other tasks, such as the node blocks of
+ * a pipeline, never become a build of their own and are left out.
+ */
+@Extension
+public class QueueTimelineListener extends QueueListener {
+    private volatile GoogleCloudLoggingPlugin plugin;
+
+    @Override
+    public void onEnterWaiting(Queue.WaitingItem wi) {
+        QueueTimelineTracker tracker = tracker(wi);
+        if (tracker != null) {
+            tracker.entered(wi.getId(), wi.getInQueueSince(), labelOf(wi));
+        }
+    }
+
+    @Override
+    public void onEnterBlocked(Queue.BlockedItem bi) {
+        QueueTimelineTracker tracker = tracker(bi);
+        if (tracker != null) {
+            tracker.blocked(bi.getId(), System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public void onLeaveBlocked(Queue.BlockedItem bi) {
+        QueueTimelineTracker tracker = tracker(bi);
+        if (tracker != null) {
+            tracker.unblocked(bi.getId(), System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public void onLeft(Queue.LeftItem li) {
+        QueueTimelineTracker tracker = tracker(li);
+        if (tracker != null) {
+            tracker.left(li.getId(), System.currentTimeMillis(), labelOf(li), li.isCancelled());
+        }
+    }
+
+    private QueueTimelineTracker tracker(Queue.Item item) {
+        if (!(item.task instanceof Job)) {
+            return null;
+        }
+
+        // Looked up once, the queue is locked while its listeners run
+        GoogleCloudLoggingPlugin current = plugin;
+        if (current == null) {
+            current = Jenkins.getInstance().getPlugin(GoogleCloudLoggingPlugin.class);
+            if (current == null) {
+                return null;
+            }
+            plugin = current;
+        }
+        if (!current.isEnableBigQuery() && !current.isEnableDatastore()) {
+            return null;
+        }
+        return current.getQueueTimelineTracker();
+    }
+
+    private static String labelOf(Queue.Item item) {
+        Label label = item.getAssignedLabel();
+        return label != null ? label.getExpression() : null;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.queue;
+
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timelines of the queue items of jobs, by queue id, from the time they enter the queue until their build completes.
+ * Queue events are recorded with a map operation and a few volatile writes, never a lock of our own, since they run
+ * while the queue is locked.
+ *
+ * Cancelled items are removed as they leave the queue. Items whose build never reports back, because it was deleted or
+ * Jenkins went down, are swept once nothing has happened to them for
+ * {@value GoogleCloudLoggingConstants#QUEUE_TIMELINE_MAX_AGE_MS} ms. New items are not tracked while the map holds
+ * {@value GoogleCloudLoggingConstants#QUEUE_TIMELINE_MAX_ENTRIES} of them.
+ */
+public final class QueueTimelineTracker {
+    private final ConcurrentMap<Long, RunTimeline> timelines = new ConcurrentHashMap<Long, RunTimeline>();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    /**
+     * @param queueId Id of the item entering the queue
+     * @param inQueueSince Time the item entered the queue
+     * @param assignedLabel Label expression the item is restricted to, or null
+     */
+    public void entered(long queueId, long inQueueSince, String assignedLabel) {
+        if (timelines.size() >= GoogleCloudLoggingConstants.QUEUE_TIMELINE_MAX_ENTRIES) {
+            return;
+        }
+        timelines.putIfAbsent(queueId, new RunTimeline(inQueueSince, assignedLabel));
+    }
+
+    public void blocked(long queueId, long now) {
+        RunTimeline timeline = timelines.get(queueId);
+        if (timeline != null) {
+            timeline.blocked(now);
+        }
+    }
+
+    public void unblocked(long queueId, long now) {
+        RunTimeline timeline = timelines.get(queueId);
+        if (timeline != null) {
+            timeline.unblocked(now);
+        }
+    }
+
+    /**
+     * @param queueId Id of the item leaving the queue
+     * @param now Time it left
+     * @param assignedLabel Label expression it was restricted to in the end, or null
+     * @param cancelled Whether it left without a build
+     */
+    public void left(long queueId, long now, String assignedLabel, boolean cancelled) {
+        if (cancelled) {
+            timelines.remove(queueId);
+            return;
+        }
+        RunTimeline timeline = timelines.get(queueId);
+        if (timeline != null) {
+            timeline.left(now, assignedLabel);
+        }
+    }
+
+    /**
+     * @param queueId Queue id of the build that started
+     * @param now Time it started
+     * @param nodeName Node it runs on
+     */
+    public void started(long queueId, long now, String nodeName) {
+        RunTimeline timeline = timelines.get(queueId);
+        if (timeline != null) {
+            timeline.started(now, nodeName);
+        }
+    }
+
+    /**
+     * Hands out the timeline of a completed build and forgets it, sweeping abandoned timelines now and then.
+     *
+     * @param queueId Queue id of the completed build
+     * @param now Current time
+     *
+     * @return The build's timeline, null if it was not tracked
+     */
+    public RunTimeline complete(long queueId, long now) {
+        RunTimeline timeline = timelines.remove(queueId);
+        sweep(now);
+        return timeline;
+    }
+
+    private void sweep(long now) {
+        long last = lastSweep.get();
+        if (now - last < GoogleCloudLoggingConstants.QUEUE_TIMELINE_SWEEP_INTERVAL_MS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+
+        long cutoff = now - GoogleCloudLoggingConstants.QUEUE_TIMELINE_MAX_AGE_MS;
+        Iterator<RunTimeline> it = timelines.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().getLastEventAt() < cutoff) {
+                it.remove();
+            }
+        }
+    }
+
+    public int size() {
+        return timelines.size();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.queue;
+
+/**
+ * What happened to one queue item on its way to a build. The queue events all come from the queue's own thread,
+ * under its lock, the fields are volatile so the build thread reads them without one.
+ */
+public final class RunTimeline {
+    private final long enqueuedAt;
+    private volatile long lastEventAt;
+    private volatile long blockedSince;
+    private volatile long blockedMillis;
+    private volatile long leftAt;
+    private volatile long startedAt;
+    private volatile String assignedLabel;
+    private volatile String nodeName;
+
+    RunTimeline(long enqueuedAt, String assignedLabel) {
+        this.enqueuedAt = enqueuedAt;
+        this.lastEventAt = enqueuedAt;
+        this.assignedLabel = assignedLabel;
+    }
+
+    void blocked(long now) {
+        blockedSince = now;
+        lastEventAt = now;
+    }
+
+    void unblocked(long now) {
+        if (blockedSince > 0) {
+            blockedMillis += Math.max(0, now - blockedSince);
+            blockedSince = 0;
+        }
+        lastEventAt = now;
+    }
+
+    void left(long now, String label) {
+        unblocked(now);
+        leftAt = now;
+        if (label != null) {
+            assignedLabel = label;
+        }
+    }
+
+    void started(long now, String node) {
+        startedAt = now;
+        nodeName = node;
+        lastEventAt = now;
+    }
+
+    long getLastEventAt() {
+        return lastEventAt;
+    }
+
+    /**
+     * @return Time from entering to leaving the queue, quiet period and blocked time included, null if the item has
+     * not left the queue
+     */
+    public Long getQueueWaitMillis() {
+        return leftAt > 0 ? Math.max(0, leftAt - enqueuedAt) : null;
+    }
+
+    /**
+     * @return Part of the queue wait spent blocked, by a running build of the same job or an upstream build, null if
+     * the item has not left the queue
+     */
+    public Long getBlockedMillis() {
+        return leftAt > 0 ? blockedMillis : null;
+    }
+
+    /**
+     * @return Time the build started running, 0 if it has not
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return Label expression the item was restricted to, null if it could run anywhere
+     */
+    public String getAssignedLabel() {
+        return assignedLabel;
+    }
+
+    /**
+     * @return Node the build's executor belongs to, empty for the built-in node, null if it has not started
+     */
+    public String getNodeName() {
+        return nodeName;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.retry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Token bucket shared by every thread calling one sink, which tunes its own rate: it halves when the service reports
+ * throttling and creeps back up towards the configured maximum while calls succeed. Controllers sharing a project
+ * then settle under the project's quota between them instead of retrying into it.
+ */
+public class AdaptiveRateLimiter {
+    private static final Logger LOGGER = Logger.getLogger(AdaptiveRateLimiter.class.getName());
+
+    /** Share of the maximum rate added back per increase, and how often the rate may change */
+    private static final double INCREASE_FRACTION = 0.05;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** How long the rate is left alone after it was cut, before it starts to recover */
+    private static final long RECOVERY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final String name;
+    private final double maxRate;
+    private final double minRate;
+
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long lastAdjust;
+    private long lastDecrease;
+
+    /**
+     * @param name Name of the sink, used in log messages
+     * @param maxRate Most calls per second, the rate starts here
+     * @param minRate Fewest calls per second the rate is cut down to
+     */
+    public AdaptiveRateLimiter(String name, double maxRate, double minRate) {
+        this.name = name;
+        this.maxRate = Math.max(0.01, maxRate);
+        this.minRate = Math.max(0.01, Math.min(minRate, this.maxRate));
+        this.rate = this.maxRate;
+        long now = System.nanoTime();
+        this.lastRefill = now;
+        this.lastAdjust = now;
+        this.lastDecrease = now - RECOVERY_DELAY_NANOS;
+        this.tokens = burst();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Waits until a call may be made. The token is taken right away, callers queue up by reserving tokens ahead.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill(System.nanoTime());
+            tokens -= 1;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Raises the rate a step towards the maximum, at most once a second and not right after it was cut.
+     */
+    public synchronized void onSuccess() {
+        long now = System.nanoTime();
+        if (rate >= maxRate || now - lastAdjust < ADJUST_INTERVAL_NANOS || now - lastDecrease < RECOVERY_DELAY_NANOS) {
+            return;
+        }
+        refill(now);
+        rate = Math.min(maxRate, rate + maxRate * INCREASE_FRACTION);
+        lastAdjust = now;
+    }
+
+    /**
+     * Halves the rate after the service reported throttling. Calls failing together only cut it once.
+     */
+    public synchronized void onThrottled() {
+        long now = System.nanoTime();
+        if (now - lastDecrease < ADJUST_INTERVAL_NANOS) {
+            return;
+        }
+        refill(now);
+        double previous = rate;
+        rate = Math.max(minRate, rate * DECREASE_FACTOR);
+        tokens = Math.min(tokens, burst());
+        lastDecrease = now;
+        lastAdjust = now;
+        LOGGER.log(Level.INFO, String.format("%s is throttling requests, lowering the rate from %.2f to %.2f per second",
+                name, previous, rate));
+    }
+
+    /**
+     * @return Calls per second currently let through
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @param maxRate Configured maximum rate
+     * @param minRate Configured minimum rate
+     *
+     * @return true if this limiter was built with the same settings
+     */
+    public boolean matches(double maxRate, double minRate) {
+        return this.maxRate == Math.max(0.01, maxRate) && this.minRate == Math.max(0.01, Math.min(minRate, this.maxRate));
+    }
+
+    /**
+     * Up to a second's worth of calls may go out at once after a quiet period.
+     */
+    private double burst() {
+        return Math.max(1, rate);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst(), tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.retry;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per sink circuit breaker. After enough consecutive transient failures it opens and calls fail fast. Once the open
+ * period is over a single probe call is let through (half open): success closes the breaker, failure opens it again.
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+    private Thread probeThread;
+
+    /**
+     * @param name Name of the sink, used in log messages
+     * @param failureThreshold Consecutive failures that open the breaker
+     * @param openMillis How long the breaker stays open before letting a probe through
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(0, openMillis);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if a call may be made now
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                probeThread = Thread.currentThread();
+                LOGGER.log(Level.INFO, "Circuit breaker for " + name + " half open, sending a probe");
+                return true;
+            case HALF_OPEN:
+            default:
+                // Only the one probe at a time until it reports back
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                probeThread = Thread.currentThread();
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.log(Level.INFO, "Circuit breaker for " + name + " closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        probeThread = null;
+    }
+
+    /**
+     * Records a throttled call. Throttling alone does not open a closed breaker, but it fails a half open probe like
+     * any other failure, as the service is not ready to take the backlog yet.
+     */
+    public synchronized void recordThrottled() {
+        if (state == State.HALF_OPEN) {
+            recordFailure();
+        }
+    }
+
+    /**
+     * Gives up a call that was let through without it reporting a result, such as one interrupted before or during the
+     * request. A half open breaker then lets the next probe through.
+     */
+    public synchronized void releaseProbe() {
+        // Only the thread that was let through as the probe gives it up, any other call was not the probe
+        if (probeThread == Thread.currentThread()) {
+            probeInFlight = false;
+            probeThread = null;
+        }
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        probeThread = null;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                LOGGER.log(Level.WARNING, "Circuit breaker for " + name + " opened after " + consecutiveFailures
+                        + " consecutive failures");
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if this breaker was built with the given settings
+     */
+    public boolean matches(int failureThreshold, long openMillis) {
+        return this.failureThreshold == Math.max(1, failureThreshold) && this.openMillis == Math.max(0, openMillis);
+    }
+}
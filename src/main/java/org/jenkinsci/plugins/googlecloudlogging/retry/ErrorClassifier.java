@@ -0,0 +1,178 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.retry;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
+import com.google.cloud.BaseServiceException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides whether a failed call to BigQuery or Datastore is worth retrying.
+ */
+public final class ErrorClassifier {
+
+    /** BigQuery error reasons that mean the service, not the request, is having trouble */
+    private static final Set<String> RETRYABLE_REASONS = new HashSet<String>(Arrays.asList(
+            "backendError", "internalError", "rateLimitExceeded", "timeout", "stopped"));
+
+    /** BigQuery error reasons that mean the rows themselves were refused, rather than the caller or the destination */
+    private static final Set<String> INVALID_REASONS = new HashSet<String>(Arrays.asList(
+            "invalid", "invalidQuery"));
+
+    private ErrorClassifier() {}
+
+    /**
+     * @param reason Reason of a BigQuery error
+     *
+     * @return true if the same request may succeed when sent again
+     */
+    public static boolean isRetryableReason(String reason) {
+        return reason != null && RETRYABLE_REASONS.contains(reason);
+    }
+
+    /**
+     * @param status HTTP status of a failed response
+     *
+     * @return true for throttling and server side errors
+     */
+    public static boolean isRetryableStatus(int status) {
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    /**
+     * Walks the cause chain looking for a sign that the service is throttling the caller.
+     *
+     * @param error Failure of a call
+     *
+     * @return true for HTTP 429, rateLimitExceeded and RESOURCE_EXHAUSTED
+     */
+    public static boolean isRateLimited(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof RateLimitedException) {
+                return true;
+            }
+            if (t instanceof GoogleJsonResponseException) {
+                GoogleJsonError details = ((GoogleJsonResponseException) t).getDetails();
+                if (details != null && details.getErrors() != null) {
+                    for (GoogleJsonError.ErrorInfo info : details.getErrors()) {
+                        if ("rateLimitExceeded".equals(info.getReason())) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            if (t instanceof HttpResponseException) {
+                return ((HttpResponseException) t).getStatusCode() == 429;
+            }
+            if (t instanceof BaseServiceException) {
+                BaseServiceException e = (BaseServiceException) t;
+                return e.getCode() == 429 || "RESOURCE_EXHAUSTED".equals(e.getReason());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks the cause chain looking for something that tells whether the failure is transient.
+     *
+     * @param error Failure of a call
+     *
+     * @return true if the call may succeed when made again
+     */
+    public static boolean isRetryable(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof NonRetryableException) {
+                return false;
+            }
+            if (t instanceof CircuitOpenException || t instanceof ExportHeldException) {
+                return false;
+            }
+            if (t instanceof GoogleJsonResponseException) {
+                GoogleJsonError details = ((GoogleJsonResponseException) t).getDetails();
+                if (details != null && details.getErrors() != null) {
+                    for (GoogleJsonError.ErrorInfo info : details.getErrors()) {
+                        if (isRetryableReason(info.getReason())) {
+                            return true;
+                        }
+                    }
+                }
+                return isRetryableStatus(((GoogleJsonResponseException) t).getStatusCode());
+            }
+            if (t instanceof HttpResponseException) {
+                return isRetryableStatus(((HttpResponseException) t).getStatusCode());
+            }
+            if (t instanceof BaseServiceException) {
+                return ((BaseServiceException) t).isRetryable();
+            }
+            if (t instanceof IOException) {
+                // Connection resets, timeouts and the like
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks the cause chain looking for the service refusing the request for what it contains. Calls that were not
+     * made, did not get through, or failed on credentials, permissions or a missing table are not rejections: the
+     * same records will go through once that is sorted out.
+     *
+     * @param error Failure of a call
+     *
+     * @return true if the records sent were found invalid
+     */
+    public static boolean isRejected(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof CircuitOpenException || t instanceof ExportHeldException) {
+                return false;
+            }
+            if (t instanceof NonRetryableException) {
+                return INVALID_REASONS.contains(((NonRetryableException) t).getReason());
+            }
+            if (t instanceof GoogleJsonResponseException) {
+                GoogleJsonError details = ((GoogleJsonResponseException) t).getDetails();
+                if (details != null && details.getErrors() != null) {
+                    for (GoogleJsonError.ErrorInfo info : details.getErrors()) {
+                        if (INVALID_REASONS.contains(info.getReason())) {
+                            return true;
+                        }
+                    }
+                }
+                return isInvalidStatus(((GoogleJsonResponseException) t).getStatusCode());
+            }
+            if (t instanceof HttpResponseException) {
+                return isInvalidStatus(((HttpResponseException) t).getStatusCode());
+            }
+            if (t instanceof BaseServiceException) {
+                BaseServiceException e = (BaseServiceException) t;
+                return e.getCode() == 400 || "INVALID_ARGUMENT".equals(e.getReason());
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInvalidStatus(int status) {
+        return status == 400 || status == 413;
+    }
+}
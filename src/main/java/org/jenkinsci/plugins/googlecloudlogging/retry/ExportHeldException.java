@@ -0,0 +1,29 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.retry;
+
+import java.io.IOException;
+
+/**
+ * A write that was not attempted because exports to the destination are held until an operator fixes its setup, such
+ * as a table whose columns do not match. The records are kept and written once the hold is lifted.
+ */
+public class ExportHeldException extends IOException {
+    public ExportHeldException(String message) {
+        super(message);
+    }
+}
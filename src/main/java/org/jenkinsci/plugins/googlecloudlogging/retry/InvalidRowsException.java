@@ -0,0 +1,44 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.retry;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The service refused some rows of a request as invalid, after the rest of them were written. Only the refused rows
+ * should be rejected.
+ */
+public class InvalidRowsException extends NonRetryableException {
+    private final Set<Integer> indexes;
+
+    /**
+     * @param message Description of the first refusal
+     * @param indexes Positions of the refused rows among the rows that were sent
+     */
+    public InvalidRowsException(String message, Set<Integer> indexes) {
+        super(message, "invalid");
+        this.indexes = Collections.unmodifiableSet(indexes);
+    }
+
+    /**
+     * @return Positions of the refused rows among the rows that were sent
+     */
+    public Set<Integer> getIndexes() {
+        return indexes;
+    }
+}
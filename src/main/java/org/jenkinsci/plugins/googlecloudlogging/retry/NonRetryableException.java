@@ -0,0 +1,47 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.retry;
+
+import java.io.IOException;
+
+/**
+ * A failure that sending the same request again will not fix, such as an invalid row or a missing table.
+ */
+public class NonRetryableException extends IOException {
+    private final String reason;
+
+    public NonRetryableException(String message) {
+        this(message, null);
+    }
+
+    /**
+     * @param message Description of the failure
+     * @param reason Error reason the service gave, such as {@code invalid}, or null if there was none
+     */
+    public NonRetryableException(String message, String reason) {
+        super(message);
+        this.reason = reason;
+    }
+
+    /**
+     * @return Error reason the service gave, or null if there was none
+     */
+    public String getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.retry;
+
+import org.jenkinsci.plugins.googlecloudlogging.metrics.ExportMetrics;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Retries calls to Google APIs with exponential backoff and full jitter, so builds finishing together do not retry
+ * in lock step. Only errors the {@link ErrorClassifier} considers transient are retried, and every attempt goes
+ * through the sink's {@link CircuitBreaker} and, if one is set, waits for its {@link AdaptiveRateLimiter}.
+ */
+public final class RetryPolicy {
+    private static final Logger LOGGER = Logger.getLogger(RetryPolicy.class.getName());
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final AdaptiveRateLimiter rateLimiter;
+
+    /**
+     * @param maxAttempts Total number of attempts, including the first one
+     * @param initialBackoffMillis Upper bound of the delay before the first retry
+     * @param maxBackoffMillis Cap on the delay between any two attempts
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        this(maxAttempts, initialBackoffMillis, maxBackoffMillis, null);
+    }
+
+    /**
+     * @param maxAttempts Total number of attempts, including the first one
+     * @param initialBackoffMillis Upper bound of the delay before the first retry
+     * @param maxBackoffMillis Cap on the delay between any two attempts
+     * @param rateLimiter Limiter every attempt waits for and reports to, or null to call right away
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, AdaptiveRateLimiter rateLimiter) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = Math.max(1, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+        this.rateLimiter = rateLimiter;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    /**
+     * Picks a random delay between zero and the exponentially growing ceiling for the given retry.
+     *
+     * @param retry Number of the retry, starting at 1
+     *
+     * @return Milliseconds to wait before the retry
+     */
+    public long backoffMillis(int retry) {
+        return ThreadLocalRandom.current().nextLong(ceilingMillis(retry) + 1);
+    }
+
+    /**
+     * @return Upper bound of the delay before the given retry, doubling each time up to the cap
+     */
+    long ceilingMillis(int retry) {
+        int shift = Math.min(Math.max(retry - 1, 0), 30);
+        return Math.min(maxBackoffMillis, initialBackoffMillis << shift);
+    }
+
+    /**
+     * Runs the call, retrying transient failures until it succeeds or the attempts run out.
+     *
+     * @param operation Description of the call for log messages
+     * @param breaker Circuit breaker of the sink the call goes to
+     * @param call The call to make
+     *
+     * @return Result of the call
+     *
+     * @throws CircuitOpenException if the breaker is open and the call was not attempted
+     * @throws Exception the last failure, as soon as it is fatal or the attempts are used up
+     */
+    public <T> T call(String operation, CircuitBreaker breaker, Callable<T> call) throws Exception {
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            if (!breaker.allowRequest()) {
+                throw new CircuitOpenException(breaker.getName());
+            }
+
+            // Every way out of the attempt reports to the breaker, or a half open breaker would wait on its probe forever
+            boolean reported = false;
+            try {
+                if (rateLimiter != null) {
+                    rateLimiter.acquire();
+                }
+
+                T result = call.call();
+                breaker.recordSuccess();
+                reported = true;
+                if (rateLimiter != null) {
+                    rateLimiter.onSuccess();
+                }
+                return result;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (!ErrorClassifier.isRetryable(e)) {
+                    // The request was rejected on its merits, the service itself is fine
+                    breaker.recordSuccess();
+                    reported = true;
+                    throw e;
+                }
+
+                // Throttling means the calls are too many, not that the service is down, so it only slows the limiter,
+                // unless it answers the probe of a half open breaker
+                if (ErrorClassifier.isRateLimited(e) && rateLimiter != null) {
+                    rateLimiter.onThrottled();
+                    breaker.recordThrottled();
+                } else {
+                    breaker.recordFailure();
+                }
+                reported = true;
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+
+                long backoff = backoffMillis(attempt);
+                LOGGER.log(Level.WARNING, String.format("%s failed on attempt %d of %d, retrying in %dms :: %s",
+                        operation, attempt, maxAttempts, backoff, e.getMessage()));
+                ExportMetrics.recordRetry(breaker.getName());
+                Thread.sleep(backoff);
+            } finally {
+                if (!reported) {
+                    breaker.releaseProbe();
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RetryPolicy)) {
+            return false;
+        }
+        RetryPolicy other = (RetryPolicy) o;
+        return maxAttempts == other.maxAttempts && initialBackoffMillis == other.initialBackoffMillis
+                && maxBackoffMillis == other.maxBackoffMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (31 * (31 * maxAttempts + initialBackoffMillis) + maxBackoffMillis);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.rollup;
+
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+
+/**
+ * Counters and a duration histogram of the builds of one job and branch that ended within one time bucket.
+ * Rollups of the same job, branch and bucket merge by adding them up, so a bucket flushed in more than one row, such
+ * as around a restart, still sums up right.
+ */
+public class BuildRollup {
+    private final String jobName;
+    private final String branch;
+    private final long bucketStart;
+    private final int bucketMinutes;
+
+    private long builds;
+    private long successes;
+    private long failures;
+    private long unstable;
+    private long aborted;
+    private long totalDurationMillis;
+    private long minDurationMillis = Long.MAX_VALUE;
+    private long maxDurationMillis;
+    private final DurationHistogram histogram = new DurationHistogram();
+    private boolean closed;
+
+    public BuildRollup(String jobName, String branch, long bucketStart, int bucketMinutes) {
+        this.jobName = jobName;
+        this.branch = branch;
+        this.bucketStart = bucketStart;
+        this.bucketMinutes = bucketMinutes;
+    }
+
+    /**
+     * @param record Completed build that ended within this rollup's bucket
+     *
+     * @return false if the rollup has already been taken for flushing, the caller then starts a new one
+     */
+    synchronized boolean add(BuildRecord record) {
+        if (closed) {
+            return false;
+        }
+
+        long duration = Math.max(0, record.getBuildEndTime() - record.getBuildStartTime());
+        builds++;
+        String result = record.getBuildResult();
+        if ("SUCCESS".equals(result)) {
+            successes++;
+        } else if ("FAILURE".equals(result)) {
+            failures++;
+        } else if ("UNSTABLE".equals(result)) {
+            unstable++;
+        } else if ("ABORTED".equals(result)) {
+            aborted++;
+        }
+        totalDurationMillis += duration;
+        minDurationMillis = Math.min(minDurationMillis, duration);
+        maxDurationMillis = Math.max(maxDurationMillis, duration);
+        histogram.record(duration);
+        return true;
+    }
+
+    /**
+     * @param other Rollup of the same job, branch and bucket to add into this one
+     *
+     * @return false if the rollup has already been taken for flushing
+     */
+    synchronized boolean merge(BuildRollup other) {
+        if (closed) {
+            return false;
+        }
+
+        synchronized (other) {
+            builds += other.builds;
+            successes += other.successes;
+            failures += other.failures;
+            unstable += other.unstable;
+            aborted += other.aborted;
+            totalDurationMillis += other.totalDurationMillis;
+            minDurationMillis = Math.min(minDurationMillis, other.minDurationMillis);
+            maxDurationMillis = Math.max(maxDurationMillis, other.maxDurationMillis);
+            histogram.merge(other.histogram);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the rollup from taking more builds, after which it can be read from any thread.
+     */
+    synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * @return Key shared by the rollups of the same job, branch and bucket
+     */
+    String getKey() {
+        return jobName + '\n' + branch + '\n' + bucketStart;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    public long getBucketStart() {
+        return bucketStart;
+    }
+
+    public int getBucketMinutes() {
+        return bucketMinutes;
+    }
+
+    public synchronized long getBuilds() {
+        return builds;
+    }
+
+    public synchronized long getSuccesses() {
+        return successes;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    public synchronized long getUnstable() {
+        return unstable;
+    }
+
+    public synchronized long getAborted() {
+        return aborted;
+    }
+
+    public synchronized long getTotalDurationMillis() {
+        return totalDurationMillis;
+    }
+
+    public synchronized long getMinDurationMillis() {
+        return builds > 0 ? minDurationMillis : 0;
+    }
+
+    public synchronized long getMaxDurationMillis() {
+        return maxDurationMillis;
+    }
+
+    public synchronized long getDurationQuantile(double quantile) {
+        return histogram.getQuantile(quantile);
+    }
+
+    /**
+     * @return The histogram, only to be read once the rollup has been closed
+     */
+    public DurationHistogram getHistogram() {
+        return histogram;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.rollup;
+
+/**
+ * Histogram of durations in milliseconds over log-linear buckets: every power of two is split into four buckets, so a
+ * quantile read from it is within 25% of the exact value. It is a fixed array of counters, so two histograms merge by
+ * adding them bucket by bucket, whether here or in a query over flushed rows.
+ *
+ * Not thread safe, {@link BuildRollup} guards it.
+ */
+public class DurationHistogram {
+    /** Four buckets below 4ms, then four per power of two up to Long.MAX_VALUE */
+    static final int BUCKETS = 4 * 62;
+
+    private final int[] counts = new int[BUCKETS];
+    private long total;
+
+    /**
+     * @param millis Duration to count, negative values count as 0
+     */
+    public void record(long millis) {
+        counts[indexOf(Math.max(0, millis))]++;
+        total++;
+    }
+
+    /**
+     * @param other Histogram whose counts to add to this one
+     */
+    public void merge(DurationHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @param quantile Quantile between 0 and 1, such as 0.95
+     *
+     * @return Upper bound of the bucket holding the quantile, 0 if nothing was recorded
+     */
+    public long getQuantile(double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * @return Index of every bucket that holds anything, in ascending order
+     */
+    public int[] getNonEmptyBuckets() {
+        int size = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                size++;
+            }
+        }
+        int[] buckets = new int[size];
+        int next = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                buckets[next++] = i;
+            }
+        }
+        return buckets;
+    }
+
+    public int getCount(int bucket) {
+        return counts[bucket];
+    }
+
+    static int indexOf(long millis) {
+        if (millis < 4) {
+            return (int) millis;
+        }
+        int power = 63 - Long.numberOfLeadingZeros(millis);
+        int sub = (int) (millis >>> (power - 2)) & 3;
+        return 4 * (power - 1) + sub;
+    }
+
+    /**
+     * @param bucket Bucket index
+     *
+     * @return Largest duration that falls into the bucket
+     */
+    public static long upperBound(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        int power = bucket / 4 + 1;
+        long width = 1L << (power - 2);
+        long lower = (4 + bucket % 4) * width;
+        return lower + width - 1;
+    }
+}
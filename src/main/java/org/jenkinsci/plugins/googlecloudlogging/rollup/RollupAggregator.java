@@ -0,0 +1,154 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.rollup;
+
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a {@link BuildRollup} per job, branch and time bucket for the builds completed since the last flush, so
+ * dashboards can read percentiles and failure rates from a small rollup table instead of scanning every build.
+ */
+public class RollupAggregator {
+    private static final Logger LOGGER = Logger.getLogger(RollupAggregator.class.getName());
+
+    private final int bucketMinutes;
+    private final long bucketMillis;
+    private final ConcurrentMap<String, BuildRollup> rollups = new ConcurrentHashMap<String, BuildRollup>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param bucketMinutes Length of a time bucket
+     */
+    public RollupAggregator(int bucketMinutes) {
+        this.bucketMinutes = Math.max(1, bucketMinutes);
+        this.bucketMillis = TimeUnit.MINUTES.toMillis(this.bucketMinutes);
+    }
+
+    /**
+     * Adds a completed build to the rollup of the bucket it ended in.
+     *
+     * @param record Captured build
+     */
+    public void record(BuildRecord record) {
+        long bucketStart = record.getBuildEndTime() - record.getBuildEndTime() % bucketMillis;
+        String branch = record.getGitBranch() != null ? record.getGitBranch() : "";
+        BuildRollup rollup = new BuildRollup(record.getJobName(), branch, bucketStart, bucketMinutes);
+
+        // A rollup closed for flushing in between is replaced, the build goes into the next flush
+        while (true) {
+            BuildRollup current = rollupFor(rollup);
+            if (current == null || current.add(record)) {
+                return;
+            }
+            rollups.remove(current.getKey(), current);
+        }
+    }
+
+    /**
+     * Takes the rollups of every bucket that has ended, leaving the current ones to fill up.
+     *
+     * @param now Current time in milliseconds
+     *
+     * @return Rollups to flush
+     */
+    public List<BuildRollup> drainClosed(long now) {
+        return drain(now - now % bucketMillis);
+    }
+
+    /**
+     * @return Every rollup, including those of buckets still open, for flushing on shutdown
+     */
+    public List<BuildRollup> drainAll() {
+        return drain(Long.MAX_VALUE);
+    }
+
+    private List<BuildRollup> drain(long before) {
+        List<BuildRollup> drained = new ArrayList<BuildRollup>();
+        dropped.set(0);
+        Iterator<BuildRollup> it = rollups.values().iterator();
+        while (it.hasNext()) {
+            BuildRollup rollup = it.next();
+            if (rollup.getBucketStart() < before) {
+                rollup.close();
+                it.remove();
+                drained.add(rollup);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Merges rollups that could not be flushed back in, to be retried with the next flush.
+     *
+     * @param failed Rollups taken by a drain
+     */
+    public void restore(List<BuildRollup> failed) {
+        for (BuildRollup old : failed) {
+            while (true) {
+                BuildRollup current = rollupFor(new BuildRollup(old.getJobName(), old.getBranch(),
+                        old.getBucketStart(), old.getBucketMinutes()));
+                if (current == null || current.merge(old)) {
+                    break;
+                }
+                rollups.remove(current.getKey(), current);
+            }
+        }
+    }
+
+    /**
+     * @return Rollups waiting to be flushed
+     */
+    public int size() {
+        return rollups.size();
+    }
+
+    public int getBucketMinutes() {
+        return bucketMinutes;
+    }
+
+    /**
+     * @return The rollup already kept under the new one's key, the new one if there was none, or null if the
+     * aggregator is full
+     */
+    private BuildRollup rollupFor(BuildRollup rollup) {
+        BuildRollup current = rollups.get(rollup.getKey());
+        if (current != null) {
+            return current;
+        }
+        if (rollups.size() >= GoogleCloudLoggingConstants.ROLLUP_MAX_KEYS) {
+            if (dropped.getAndIncrement() == 0) {
+                LOGGER.log(Level.WARNING, "More than " + GoogleCloudLoggingConstants.ROLLUP_MAX_KEYS
+                        + " job rollups waiting to be flushed, builds are left out of the rollups until the next flush");
+            }
+            return null;
+        }
+        current = rollups.putIfAbsent(rollup.getKey(), rollup);
+        return current != null ? current : rollup;
+    }
+}
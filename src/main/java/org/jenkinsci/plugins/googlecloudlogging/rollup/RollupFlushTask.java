@@ -0,0 +1,82 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.rollup;
+
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.jenkinsci.plugins.googlecloudlogging.sink.BuildRecordSink;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically hands the rollups of ended buckets to every enabled sink. If no sink could write them they are merged
+ * back into the aggregator and go out with the next flush.
+ */
+public class RollupFlushTask implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(RollupFlushTask.class.getName());
+
+    private final GoogleCloudLoggingPlugin plugin;
+
+    public RollupFlushTask(GoogleCloudLoggingPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void run() {
+        try {
+            RollupAggregator aggregator = plugin.getRollupAggregator();
+            List<BuildRollup> rollups = aggregator.drainClosed(System.currentTimeMillis());
+            if (!flush(plugin, rollups)) {
+                aggregator.restore(rollups);
+            }
+        } catch (RuntimeException e) {
+            // Keep the scheduled task alive, a thrown exception would cancel it
+            LOGGER.log(Level.WARNING, "Error flushing Google Cloud Logging rollups", e);
+        }
+    }
+
+    /**
+     * @param plugin Plugin holding the current settings
+     * @param rollups Rollups taken from the aggregator
+     *
+     * @return false if every enabled sink failed, so the rollups should be kept for another try
+     */
+    public static boolean flush(GoogleCloudLoggingPlugin plugin, List<BuildRollup> rollups) {
+        if (rollups.isEmpty()) {
+            return true;
+        }
+
+        int attempted = 0;
+        int failed = 0;
+        for (BuildRecordSink sink : BuildRecordSink.all()) {
+            if (!sink.isEnabled(plugin)) {
+                continue;
+            }
+            attempted++;
+            try {
+                sink.writeRollups(plugin, rollups);
+            } catch (Exception e) {
+                // Retrying only when every sink failed keeps a sink that succeeded from counting the builds twice
+                LOGGER.log(Level.WARNING, "Error writing Google Cloud Logging rollups to " + sink.getName() + " :: " + e.getMessage());
+                failed++;
+            }
+        }
+        return attempted == 0 || failed < attempted;
+    }
+}
@@ -0,0 +1,547 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.sink;
+
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.TableDataInsertAllRequest;
+import hudson.Extension;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildParameter;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.entities.StageRecord;
+import org.jenkinsci.plugins.googlecloudlogging.entities.TestCaseRecord;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryLoader;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryManager;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryWriteMode;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.jenkinsci.plugins.googlecloudlogging.retry.ExportHeldException;
+import org.jenkinsci.plugins.googlecloudlogging.retry.InvalidRowsException;
+import org.jenkinsci.plugins.googlecloudlogging.rollup.BuildRollup;
+import org.jenkinsci.plugins.googlecloudlogging.rollup.DurationHistogram;
+import org.jenkinsci.plugins.googlecloudlogging.utilization.UtilizationBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes build records to the configured BigQuery table, with a query job or streaming inserts depending on the
+ * write mode.
+ */
+@Extension
+public class BigQuerySink extends BuildRecordSink {
+    private final static Logger LOGGER = Logger.getLogger(BigQuerySink.class.getName());
+    private static final String UNION_ALL = " UNION ALL ";
+
+    @Override
+    public String getName() {
+        return "BigQuery";
+    }
+
+    @Override
+    public boolean isEnabled(GoogleCloudLoggingPlugin plugin) {
+        return plugin.isEnableBigQuery();
+    }
+
+    @Override
+    public void write(GoogleCloudLoggingPlugin plugin, List<BuildRecord> records) throws Exception {
+        LOGGER.log(Level.FINE, "Logging Job Details to BigQuery for " + records.size() + " builds");
+        checkTable(plugin);
+        String stagesTable = plugin.getBqTable() + GoogleCloudLoggingConstants.STAGES_TABLE_SUFFIX;
+
+        if (plugin.getBqWriteMode() == BigQueryWriteMode.LOAD) {
+            BigQueryLoader loader = plugin.getBigQueryLoader();
+            if (loader == null) {
+                throw new IOException("BigQuery load directory is not available");
+            }
+
+            List<Map<String, Object>> stageRows = new ArrayList<Map<String, Object>>();
+            for (BuildRecord record : records) {
+                for (StageRecord stage : record.getStages()) {
+                    stageRows.add(toStageJson(record, stage));
+                }
+            }
+            // The rows are on disk once append returns, the load task ships them
+            long maxBytes = plugin.getLoadMaxMegabytes() * 1024L * 1024L;
+            loader.append(plugin.getBqTable(), new BuildRecordRows(records), maxBytes);
+            loader.append(stagesTable, stageRows, maxBytes);
+            return;
+        }
+
+        Bigquery bigquery = plugin.getBigQueryClient().get();
+        if (plugin.getBqWriteMode() == BigQueryWriteMode.STREAMING) {
+            Set<Integer> refused = new TreeSet<Integer>();
+            String refusal = null;
+            try {
+                BigQueryManager.insertRows(bigquery, plugin.getBqProject(), plugin.getBqDataset(), plugin.getBqTable(),
+                        new BuildRecordRows(records), plugin.getBigQueryRetryPolicy(), plugin.getBigQueryBreaker());
+            } catch (InvalidRowsException e) {
+                refused.addAll(e.getIndexes());
+                refusal = e.getMessage();
+            }
+
+            // The stages of a refused build would only be sent again with it, they are left for its replay
+            List<TableDataInsertAllRequest.Rows> stageRows = new ArrayList<TableDataInsertAllRequest.Rows>();
+            List<Integer> stageBuilds = new ArrayList<Integer>();
+            for (int i = 0; i < records.size(); i++) {
+                if (refused.contains(i)) {
+                    continue;
+                }
+                for (StageRecord stage : records.get(i).getStages()) {
+                    stageRows.add(toStageRow(records.get(i), stage));
+                    stageBuilds.add(i);
+                }
+            }
+            if (!stageRows.isEmpty()) {
+                try {
+                    BigQueryManager.insertRows(bigquery, plugin.getBqProject(), plugin.getBqDataset(), stagesTable,
+                            stageRows, plugin.getBigQueryRetryPolicy(), plugin.getBigQueryBreaker());
+                } catch (InvalidRowsException e) {
+                    for (int index : e.getIndexes()) {
+                        refused.add(stageBuilds.get(index));
+                    }
+                    if (refusal == null) {
+                        refusal = e.getMessage();
+                    }
+                }
+            }
+
+            if (!refused.isEmpty()) {
+                throw new InvalidRowsException(refusal, refused);
+            }
+        } else {
+            for (String querySql : toQuerySql(records)) {
+                new BigQueryManager(bigquery, plugin.getBqProject(),
+                        plugin.getBqDataset(),
+                        plugin.getBqTable(), querySql, plugin.getBigQueryRetryPolicy(), plugin.getBigQueryBreaker());
+            }
+            for (String querySql : toStageQuerySql(records)) {
+                new BigQueryManager(bigquery, plugin.getBqProject(), plugin.getBqDataset(), stagesTable, querySql,
+                        plugin.getBigQueryRetryPolicy(), plugin.getBigQueryBreaker());
+            }
+        }
+    }
+
+    /**
+     * In QUERY mode each part holds as many builds as fit one query job for the build table and one for the stages
+     * table, so a replay never runs a job again whose rows were already inserted. A build whose stages alone are too
+     * long for one job still gets a part of its own. Streaming inserts and load files write a batch all or nothing.
+     */
+    @Override
+    public List<List<BuildRecord>> partition(GoogleCloudLoggingPlugin plugin, List<BuildRecord> records) {
+        if (plugin.getBqWriteMode() != BigQueryWriteMode.QUERY) {
+            return super.partition(plugin, records);
+        }
+
+        List<List<BuildRecord>> parts = new ArrayList<List<BuildRecord>>();
+        int start = 0;
+        long buildLength = 0;
+        long stageLength = 0;
+        for (int i = 0; i < records.size(); i++) {
+            BuildRecord record = records.get(i);
+            long length = toQuerySql(record).length() + UNION_ALL.length();
+            long stagesLength = 0;
+            for (StageRecord stage : record.getStages()) {
+                stagesLength += toStageQuerySql(record, stage).length() + UNION_ALL.length();
+            }
+            if (i > start && (buildLength + length > GoogleCloudLoggingConstants.QUERY_MAX_LENGTH
+                    || stageLength + stagesLength > GoogleCloudLoggingConstants.QUERY_MAX_LENGTH)) {
+                parts.add(records.subList(start, i));
+                start = i;
+                buildLength = 0;
+                stageLength = 0;
+            }
+            buildLength += length;
+            stageLength += stagesLength;
+        }
+        parts.add(records.subList(start, records.size()));
+        return parts;
+    }
+
+    /**
+     * Fails the batch without a request when the table check found the table cannot take the rows, the records stay
+     * in the spool until it is fixed.
+     */
+    static void checkTable(GoogleCloudLoggingPlugin plugin) throws ExportHeldException {
+        String problem = plugin.getBigQueryTableProblem();
+        if (problem != null) {
+            throw new ExportHeldException(problem);
+        }
+    }
+
+    /**
+     * Appends the rollups to the rollup table. They go through the load files in LOAD mode and are streamed otherwise,
+     * a query job per flush would cost more than the rows it writes.
+     */
+    @Override
+    public void writeRollups(GoogleCloudLoggingPlugin plugin, List<BuildRollup> rollups) throws Exception {
+        checkTable(plugin);
+        String rollupsTable = plugin.getBqTable() + GoogleCloudLoggingConstants.ROLLUPS_TABLE_SUFFIX;
+
+        if (plugin.getBqWriteMode() == BigQueryWriteMode.LOAD) {
+            BigQueryLoader loader = plugin.getBigQueryLoader();
+            if (loader == null) {
+                throw new IOException("BigQuery load directory is not available");
+            }
+            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(rollups.size());
+            for (BuildRollup rollup : rollups) {
+                rows.add(toRollupJson(rollup));
+            }
+            loader.append(rollupsTable, rows, plugin.getLoadMaxMegabytes() * 1024L * 1024L);
+            return;
+        }
+
+        List<TableDataInsertAllRequest.Rows> rows = new ArrayList<TableDataInsertAllRequest.Rows>(rollups.size());
+        for (BuildRollup rollup : rollups) {
+            // Each flush is a new delta row, the insert id only has to hold across the retries of this request
+            rows.add(new TableDataInsertAllRequest.Rows().setInsertId(UUID.randomUUID().toString()).setJson(toRollupJson(rollup)));
+        }
+        try {
+            BigQueryManager.insertRows(plugin.getBigQueryClient().get(), plugin.getBqProject(), plugin.getBqDataset(),
+                    rollupsTable, rows, plugin.getBigQueryRetryPolicy(), plugin.getBigQueryBreaker());
+        } catch (InvalidRowsException e) {
+            // The other rows are written, failing the flush would send them again as new deltas
+            LOGGER.log(Level.SEVERE, "Dropping " + e.getIndexes().size() + " rollup rows :: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void writeUtilization(GoogleCloudLoggingPlugin plugin, UtilizationBatch batch) throws Exception {
+        checkTable(plugin);
+        String utilizationTable = plugin.getBqTable() + GoogleCloudLoggingConstants.UTILIZATION_TABLE_SUFFIX;
+
+        if (plugin.getBqWriteMode() == BigQueryWriteMode.LOAD) {
+            BigQueryLoader loader = plugin.getBigQueryLoader();
+            if (loader == null) {
+                throw new IOException("BigQuery load directory is not available");
+            }
+            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(batch.getSampleCount());
+            for (int sample = 0; sample < batch.getSampleCount(); sample++) {
+                rows.add(toUtilizationJson(batch, sample));
+            }
+            loader.append(utilizationTable, rows, plugin.getLoadMaxMegabytes() * 1024L * 1024L);
+            return;
+        }
+
+        List<TableDataInsertAllRequest.Rows> rows = new ArrayList<TableDataInsertAllRequest.Rows>(batch.getSampleCount());
+        for (int sample = 0; sample < batch.getSampleCount(); sample++) {
+            // Samples kept after a failed flush are sent again, the insert id keeps them from being counted twice
+            rows.add(new TableDataInsertAllRequest.Rows()
+                    .setInsertId(batch.getJenkinsUrl() + "-" + batch.getSampleTime(sample))
+                    .setJson(toUtilizationJson(batch, sample)));
+        }
+        try {
+            BigQueryManager.insertRows(plugin.getBigQueryClient().get(), plugin.getBqProject(), plugin.getBqDataset(),
+                    utilizationTable, rows, plugin.getBigQueryRetryPolicy(), plugin.getBigQueryBreaker());
+        } catch (InvalidRowsException e) {
+            // Sending the samples again would not fix them, there is no spool to hold them
+            LOGGER.log(Level.SEVERE, "Dropping " + e.getIndexes().size() + " utilization rows :: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Combines the per build selects into as few UNION ALL queries as the query length limit allows.
+     *
+     * @param records Build records to select
+     *
+     * @return One query per chunk of records
+     */
+    static List<String> toQuerySql(List<BuildRecord> records) {
+        List<String> selects = new ArrayList<String>(records.size());
+        for (BuildRecord record : records) {
+            selects.add(toQuerySql(record));
+        }
+        return unionAll(selects);
+    }
+
+    /**
+     * @param records Build records whose stages to select
+     *
+     * @return One query per chunk of stages, none if no build in the batch has stages
+     */
+    static List<String> toStageQuerySql(List<BuildRecord> records) {
+        List<String> selects = new ArrayList<String>();
+        for (BuildRecord record : records) {
+            for (StageRecord stage : record.getStages()) {
+                selects.add(toStageQuerySql(record, stage));
+            }
+        }
+        return unionAll(selects);
+    }
+
+    /**
+     * Combines selects into as few UNION ALL queries as the query length limit allows.
+     */
+    private static List<String> unionAll(List<String> selects) {
+        List<String> queries = new ArrayList<String>();
+        StringBuilder query = new StringBuilder();
+
+        for (String select : selects) {
+            if (query.length() > 0 && query.length() + select.length() + UNION_ALL.length() > GoogleCloudLoggingConstants.QUERY_MAX_LENGTH) {
+                queries.add(query.toString());
+                query.setLength(0);
+            }
+            if (query.length() > 0) {
+                query.append(UNION_ALL);
+            }
+            query.append(select);
+        }
+
+        if (query.length() > 0) {
+            queries.add(query.toString());
+        }
+        return queries;
+    }
+
+    /**
+     * @param batch Samples of executor utilization
+     * @param sample Index of the sample to map
+     *
+     * @return The sample as a row of the utilization table, one nested record per computer
+     */
+    static Map<String, Object> toUtilizationJson(UtilizationBatch batch, int sample) {
+        int start = batch.getRowStart(sample);
+        int end = batch.getRowEnd(sample);
+        List<Map<String, Object>> nodes = new ArrayList<Map<String, Object>>(end - start);
+        long busy = 0;
+        long executors = 0;
+        long offline = 0;
+        for (int i = start; i < end; i++) {
+            Map<String, Object> node = new LinkedHashMap<String, Object>(8);
+            node.put("node_name", batch.getNodeName(i));
+            node.put("labels", batch.getLabels(i));
+            node.put("busy", batch.getBusy(i));
+            node.put("executors", batch.getExecutors(i));
+            node.put("offline", batch.isOffline(i));
+            nodes.add(node);
+            busy += batch.getBusy(i);
+            executors += batch.getExecutors(i);
+            offline += batch.isOffline(i) ? 1 : 0;
+        }
+
+        Map<String, Object> row = new LinkedHashMap<String, Object>(8);
+        row.put("sample_ts", batch.getSampleTime(sample) / 1000.0);
+        row.put("jenkins_url", batch.getJenkinsUrl());
+        row.put("busy_executors", busy);
+        row.put("total_executors", executors);
+        row.put("offline_nodes", offline);
+        row.put("nodes", nodes);
+        return row;
+    }
+
+    /**
+     * @param record Build the test ran in
+     * @param test Test case to map
+     *
+     * @return The test case as a row of the tests table
+     */
+    static Map<String, Object> toTestCaseJson(BuildRecord record, TestCaseRecord test) {
+        Map<String, Object> row = new LinkedHashMap<String, Object>(16);
+        row.put("build_tag", record.getBuildTag());
+        row.put("job_name", record.getJobName());
+        row.put("build_number", record.getBuildNumber());
+        row.put("build_end_ts", record.getBuildEndTime() / 1000.0);
+        row.put("class_name", test.getClassName());
+        row.put("test_name", test.getName());
+        row.put("duration_ms", test.getDurationMillis());
+        row.put("status", test.getStatus());
+        row.put("error_hash", test.getErrorHash());
+        return row;
+    }
+
+    /**
+     * @param rollup Rollup of one job, branch and time bucket
+     *
+     * @return The rollup as a row of the rollup table
+     */
+    static Map<String, Object> toRollupJson(BuildRollup rollup) {
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("job_name", rollup.getJobName());
+        row.put("branch", rollup.getBranch());
+        row.put("bucket_start_ts", rollup.getBucketStart() / 1000.0);
+        row.put("bucket_minutes", rollup.getBucketMinutes());
+        row.put("builds", rollup.getBuilds());
+        row.put("successes", rollup.getSuccesses());
+        row.put("failures", rollup.getFailures());
+        row.put("unstable", rollup.getUnstable());
+        row.put("aborted", rollup.getAborted());
+        row.put("total_duration_ms", rollup.getTotalDurationMillis());
+        row.put("min_duration_ms", rollup.getMinDurationMillis());
+        row.put("max_duration_ms", rollup.getMaxDurationMillis());
+        row.put("p50_duration_ms", rollup.getDurationQuantile(0.5));
+        row.put("p95_duration_ms", rollup.getDurationQuantile(0.95));
+
+        DurationHistogram histogram = rollup.getHistogram();
+        int[] buckets = histogram.getNonEmptyBuckets();
+        List<Map<String, Object>> histogramRows = new ArrayList<Map<String, Object>>(buckets.length);
+        for (int bucket : buckets) {
+            Map<String, Object> histogramRow = new LinkedHashMap<String, Object>(4);
+            histogramRow.put("upper_ms", DurationHistogram.upperBound(bucket));
+            histogramRow.put("count", histogram.getCount(bucket));
+            histogramRows.add(histogramRow);
+        }
+        row.put("duration_histogram", histogramRows);
+        return row;
+    }
+
+    /**
+     * Maps a stage to a streaming insert row for the stages table. The insert ID is derived from the build tag and
+     * the stage's flow node id, which is unique within a build.
+     *
+     * @param record Build the stage belongs to
+     * @param stage Stage to map
+     *
+     * @return Row ready for tabledata.insertAll
+     */
+    static TableDataInsertAllRequest.Rows toStageRow(BuildRecord record, StageRecord stage) {
+        return new TableDataInsertAllRequest.Rows().setInsertId(record.getBuildTag() + "-" + stage.getStageId())
+                .setJson(toStageJson(record, stage));
+    }
+
+    /**
+     * @param record Build the stage belongs to
+     * @param stage Stage to map
+     *
+     * @return The stage's columns
+     */
+    static Map<String, Object> toStageJson(BuildRecord record, StageRecord stage) {
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("build_tag", record.getBuildTag());
+        row.put("job_name", record.getJobName());
+        row.put("build_number", record.getBuildNumber());
+        row.put("stage_id", stage.getStageId());
+        row.put("parent_stage_id", stage.getParentStageId());
+        row.put("stage_name", stage.getName());
+        row.put("parallel_branch", stage.isParallelBranch());
+        row.put("stage_start_ts", stage.getStartTime() / 1000.0);
+        row.put("stage_end_ts", stage.getEndTime() / 1000.0);
+        row.put("stage_duration_ms", stage.getDurationMillis());
+        row.put("stage_result", stage.getResult());
+        row.put("node_label", stage.getNodeLabel());
+        return row;
+    }
+
+    /**
+     * Builds the SQL that selects a stage into the stages table.
+     *
+     * @param record Build the stage belongs to
+     * @param stage Stage to select
+     *
+     * @return Query text with the stage's values filled in
+     */
+    static String toStageQuerySql(BuildRecord record, StageRecord stage) {
+        return String.format(GoogleCloudLoggingConstants.STAGE_QUERY_TEXT,
+                toStringLiteral(record.getBuildTag()), toStringLiteral(record.getJobName()),
+                toStringLiteral(record.getBuildNumber()), toStringLiteral(stage.getStageId()),
+                toStringLiteral(stage.getParentStageId()), toStringLiteral(stage.getName()),
+                String.valueOf(stage.isParallelBranch()), String.valueOf(stage.getStartTime()),
+                String.valueOf(stage.getEndTime()), String.valueOf(stage.getDurationMillis()),
+                toStringLiteral(stage.getResult()), toStringLiteral(stage.getNodeLabel()));
+    }
+
+    /**
+     * Builds the SQL that selects a build record into the BigQuery table.
+     *
+     * @param record Build record to select
+     *
+     * @return Query text with the record's values filled in
+     */
+    static String toQuerySql(BuildRecord record) {
+        return String.format(GoogleCloudLoggingConstants.QUERY_TEXT,
+                toStringLiteral(record.getBuildTag()), toStringLiteral(record.getJobName()),
+                toStringLiteral(record.getBuildNumber()), String.valueOf(record.getBuildStartTime()),
+                String.valueOf(record.getBuildEndTime()), toStringLiteral(record.getBuildResult()),
+                toStringLiteral(record.getBuildUrl()), toStringLiteral(record.getJenkinsUrl()),
+                toStringLiteral(record.getExecutorNumber()), toStringLiteral(record.getWorkspace()),
+                toStringLiteral(BuildParameter.join(record.getParams())), toStringLiteral(record.getGitCommit()),
+                toStringLiteral(record.getGitUrl()), toStringLiteral(record.getGitBranch()),
+                toStringLiteral(record.getUpstreamUrl()), toStringLiteral(record.getUpstreamBuildNumber()),
+                toStringLiteral(record.getUpstreamProject()), String.valueOf(record.isPipeline()),
+                toLongLiteral(record.getQueueWaitMillis()), toLongLiteral(record.getBlockedMillis()),
+                String.valueOf(record.getExecutionMillis()), toStringLiteral(record.getAssignedLabel()),
+                toStringLiteral(record.getNodeName()), toParamsSql(record.getParams()));
+    }
+
+    /**
+     * @param params Exported parameters of a build
+     *
+     * @return Typed array literal holding one struct per parameter
+     */
+    static String toParamsSql(List<BuildParameter> params) {
+        StringBuilder sql = new StringBuilder(GoogleCloudLoggingConstants.PARAMS_ARRAY_TYPE).append('[');
+        for (int i = 0; i < params.size(); i++) {
+            BuildParameter param = params.get(i);
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append('(');
+            appendStringLiteral(sql, param.getKey());
+            sql.append(", ");
+            appendStringLiteral(sql, param.getValue());
+            sql.append(", ").append(param.isSensitive()).append(')');
+        }
+        return sql.append(']').toString();
+    }
+
+    private static String toLongLiteral(Long value) {
+        return value != null ? value.toString() : "NULL";
+    }
+
+    private static String toStringLiteral(String value) {
+        StringBuilder sql = new StringBuilder(value != null ? value.length() + 2 : 4);
+        appendStringLiteral(sql, value);
+        return sql.toString();
+    }
+
+    private static void appendStringLiteral(StringBuilder sql, String value) {
+        if (value == null) {
+            // Typed, a column that is NULL in every row of the batch would otherwise come out as INT64
+            sql.append("CAST(NULL AS STRING)");
+            return;
+        }
+
+        sql.append('\'');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\'':
+                    sql.append("\\'");
+                    break;
+                case '\\':
+                    sql.append("\\\\");
+                    break;
+                case '\n':
+                    sql.append("\\n");
+                    break;
+                case '\r':
+                    sql.append("\\r");
+                    break;
+                default:
+                    sql.append(c);
+            }
+        }
+        sql.append('\'');
+    }
+}
@@ -0,0 +1,127 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.sink;
+
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.TableDataInsertAllRequest;
+import hudson.Extension;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.entities.TestCaseRecord;
+import org.jenkinsci.plugins.googlecloudlogging.junit.JUnitSupport;
+import org.jenkinsci.plugins.googlecloudlogging.junit.TestCaseCollector;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryLoader;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryManager;
+import org.jenkinsci.plugins.googlecloudlogging.manager.BigQueryWriteMode;
+import org.jenkinsci.plugins.googlecloudlogging.metrics.ExportMetrics;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.jenkinsci.plugins.googlecloudlogging.retry.InvalidRowsException;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes a row per JUnit test case to the tests table, for the builds that reported any. It is a sink of its own, so
+ * the spool tracks it apart from the build rows: a failure here never replays builds already in the build table,
+ * and the build rows never wait on the test results.
+ *
+ * Each build is a part of its own, so a failure only replays the builds whose test cases were not written yet. A
+ * results file that cannot be parsed, or test rows BigQuery refuses, would fail the same way on every replay, so
+ * that build's test cases are skipped and counted instead.
+ */
+@Extension
+public class BigQueryTestsSink extends BuildRecordSink {
+    private final static Logger LOGGER = Logger.getLogger(BigQueryTestsSink.class.getName());
+
+    @Override
+    public String getName() {
+        return "BigQueryTests";
+    }
+
+    @Override
+    public boolean isEnabled(GoogleCloudLoggingPlugin plugin) {
+        return plugin.isEnableBigQuery() && plugin.isEnableTestResults() && JUnitSupport.isAvailable();
+    }
+
+    @Override
+    public List<List<BuildRecord>> partition(GoogleCloudLoggingPlugin plugin, List<BuildRecord> records) {
+        List<List<BuildRecord>> parts = new ArrayList<List<BuildRecord>>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            parts.add(records.subList(i, i + 1));
+        }
+        return parts;
+    }
+
+    /**
+     * Writes the test cases one chunk at a time as the results are walked. They go through the load files in LOAD
+     * mode and are streamed otherwise, a query job per chunk would cost more than the rows it writes.
+     */
+    @Override
+    public void write(final GoogleCloudLoggingPlugin plugin, List<BuildRecord> records) throws Exception {
+        BigQuerySink.checkTable(plugin);
+        final String testsTable = plugin.getBqTable() + GoogleCloudLoggingConstants.TESTS_TABLE_SUFFIX;
+        final boolean load = plugin.getBqWriteMode() == BigQueryWriteMode.LOAD;
+        final BigQueryLoader loader = plugin.getBigQueryLoader();
+        final Bigquery bigquery = load ? null : plugin.getBigQueryClient().get();
+        if (load && loader == null) {
+            throw new IOException("BigQuery load directory is not available");
+        }
+
+        for (final BuildRecord record : records) {
+            if (record.getTestCaseCount() == 0 || record.getRunId() == null) {
+                continue;
+            }
+
+            try {
+                TestCaseCollector.collect(record.getRunId(), GoogleCloudLoggingConstants.TEST_CASE_CHUNK_ROWS,
+                        new TestCaseCollector.ChunkHandler() {
+                    @Override
+                    public void handle(List<TestCaseRecord> chunk, int offset) throws Exception {
+                        if (load) {
+                            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(chunk.size());
+                            for (TestCaseRecord test : chunk) {
+                                rows.add(BigQuerySink.toTestCaseJson(record, test));
+                            }
+                            loader.append(testsTable, rows, plugin.getLoadMaxMegabytes() * 1024L * 1024L);
+                            return;
+                        }
+
+                        List<TableDataInsertAllRequest.Rows> rows = new ArrayList<TableDataInsertAllRequest.Rows>(chunk.size());
+                        for (int i = 0; i < chunk.size(); i++) {
+                            // The walk order is stable, so a replayed build reuses its insert ids
+                            rows.add(new TableDataInsertAllRequest.Rows().setInsertId(record.getBuildTag() + "-test-" + (offset + i))
+                                    .setJson(BigQuerySink.toTestCaseJson(record, chunk.get(i))));
+                        }
+                        BigQueryManager.insertRows(bigquery, plugin.getBqProject(), plugin.getBqDataset(), testsTable,
+                                rows, plugin.getBigQueryRetryPolicy(), plugin.getBigQueryBreaker());
+                    }
+                });
+            } catch (XMLStreamException e) {
+                LOGGER.log(Level.WARNING, "Skipping test cases of " + record.getBuildTag() + ", unable to parse its JUnit results :: " + e.getMessage());
+                ExportMetrics.recordSkipped(getName());
+            } catch (InvalidRowsException e) {
+                LOGGER.log(Level.SEVERE, "Dropping " + e.getIndexes().size() + " test case rows of " + record.getBuildTag() + " :: " + e.getMessage());
+                ExportMetrics.recordSkipped(getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.sink;
+
+import com.google.api.client.json.JsonGenerator;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildParameter;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.manager.RowSource;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Build records as rows of the build table, written field by field from the record with no map or string built
+ * in between. The build tag is used as the insert ID so a retried insert does not duplicate the row. Null values
+ * are left out, as the client's own serializer does.
+ */
+final class BuildRecordRows implements RowSource {
+    private final List<BuildRecord> records;
+
+    BuildRecordRows(List<BuildRecord> records) {
+        this.records = records;
+    }
+
+    @Override
+    public int size() {
+        return records.size();
+    }
+
+    @Override
+    public String getInsertId(int index) {
+        return records.get(index).getBuildTag();
+    }
+
+    @Override
+    public void writeRow(JsonGenerator generator, int index) throws IOException {
+        BuildRecord record = records.get(index);
+        generator.writeStartObject();
+        writeString(generator, "build_tag", record.getBuildTag());
+        writeString(generator, "job_name", record.getJobName());
+        writeString(generator, "build_number", record.getBuildNumber());
+        // TIMESTAMP columns accept seconds since the epoch
+        generator.writeFieldName("build_start_ts");
+        generator.writeNumber(record.getBuildStartTime() / 1000.0);
+        generator.writeFieldName("build_end_ts");
+        generator.writeNumber(record.getBuildEndTime() / 1000.0);
+        generator.writeFieldName("build_duration");
+        generator.writeNumber(record.getBuildDurationSeconds());
+        writeString(generator, "build_result", record.getBuildResult());
+        writeString(generator, "build_url", record.getBuildUrl());
+        writeString(generator, "jenkins_url", record.getJenkinsUrl());
+        writeString(generator, "executor_number", record.getExecutorNumber());
+        writeString(generator, "workspace", record.getWorkspace());
+
+        writeString(generator, "params", BuildParameter.join(record.getParams()));
+
+        writeString(generator, "git_commit", record.getGitCommit());
+        writeString(generator, "git_url", record.getGitUrl());
+        writeString(generator, "git_branch", record.getGitBranch());
+        writeString(generator, "upstream_url", record.getUpstreamUrl());
+        writeString(generator, "upstream_build_number", record.getUpstreamBuildNumber());
+        writeString(generator, "upstream_project", record.getUpstreamProject());
+        generator.writeFieldName("pipeline");
+        generator.writeBoolean(record.isPipeline());
+        writeLong(generator, "queue_wait_ms", record.getQueueWaitMillis());
+        writeLong(generator, "blocked_ms", record.getBlockedMillis());
+        generator.writeFieldName("execution_ms");
+        generator.writeNumber(record.getExecutionMillis());
+        writeString(generator, "assigned_label", record.getAssignedLabel());
+        writeString(generator, "node_name", record.getNodeName());
+
+        generator.writeFieldName("params_kv");
+        generator.writeStartArray();
+        for (BuildParameter param : record.getParams()) {
+            generator.writeStartObject();
+            writeString(generator, "key", param.getKey());
+            writeString(generator, "value", param.getValue());
+            generator.writeFieldName("sensitive");
+            generator.writeBoolean(param.isSensitive());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static void writeString(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null) {
+            generator.writeFieldName(name);
+            generator.writeString(value);
+        }
+    }
+
+    private static void writeLong(JsonGenerator generator, String name, Long value) throws IOException {
+        if (value != null) {
+            generator.writeFieldName(name);
+            generator.writeNumber(value.longValue());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.sink;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.jenkinsci.plugins.googlecloudlogging.rollup.BuildRollup;
+import org.jenkinsci.plugins.googlecloudlogging.utilization.UtilizationBatch;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Destination that build records are exported to. Every enabled sink is handed each batch at the same time, on its
+ * own executor, so a slow sink does not hold up the others. Other plugins can add sinks by extending this class and
+ * marking the implementation with {@link hudson.Extension}.
+ */
+public abstract class BuildRecordSink implements ExtensionPoint {
+
+    /**
+     * @return Name of the sink, used for its worker threads and in log messages
+     */
+    public abstract String getName();
+
+    /**
+     * @param plugin Plugin holding the current settings
+     *
+     * @return true if records should be written to this sink
+     */
+    public abstract boolean isEnabled(GoogleCloudLoggingPlugin plugin);
+
+    /**
+     * Writes a batch of records. Called on the sink's own executor, possibly from several threads at once.
+     *
+     * @param plugin Plugin holding the current settings
+     * @param records Records to write, oldest first
+     *
+     * @throws org.jenkinsci.plugins.googlecloudlogging.retry.InvalidRowsException if some records were refused as
+     * invalid after the others were written, with the positions of the refused ones in {@code records}
+     * @throws Exception if the batch could not be written, it is then replayed from the spool later
+     */
+    public abstract void write(GoogleCloudLoggingPlugin plugin, List<BuildRecord> records) throws Exception;
+
+    /**
+     * Splits a batch into the parts the sink writes all or nothing. Each part is noted as written once it is, so a
+     * failure later in the batch only replays the parts that were not. By default the whole batch is one part.
+     *
+     * @param plugin Plugin holding the current settings
+     * @param records Records to write, oldest first
+     *
+     * @return Consecutive parts of the batch, in order
+     */
+    public List<List<BuildRecord>> partition(GoogleCloudLoggingPlugin plugin, List<BuildRecord> records) {
+        return Collections.singletonList(records);
+    }
+
+    /**
+     * Writes the per job rollups of ended time buckets. Sinks without a place for rollups leave this as it is.
+     *
+     * @param plugin Plugin holding the current settings
+     * @param rollups Rollups to write, they are deltas to be added to any earlier rows of the same bucket
+     *
+     * @throws Exception if the rollups could not be written
+     */
+    public void writeRollups(GoogleCloudLoggingPlugin plugin, List<BuildRollup> rollups) throws Exception {
+    }
+
+    /**
+     * Writes samples of executor utilization. Sinks without a place for them leave this as it is.
+     *
+     * @param plugin Plugin holding the current settings
+     * @param batch Samples taken since the last flush, only valid for the duration of the call
+     *
+     * @throws Exception if the samples could not be written
+     */
+    public void writeUtilization(GoogleCloudLoggingPlugin plugin, UtilizationBatch batch) throws Exception {
+    }
+
+    /**
+     * @return All registered sinks
+     */
+    public static ExtensionList<BuildRecordSink> all() {
+        return Jenkins.getInstance().getExtensionList(BuildRecordSink.class);
+    }
+}
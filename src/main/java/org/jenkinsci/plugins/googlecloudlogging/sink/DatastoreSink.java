@@ -0,0 +1,259 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.sink;
+
+import com.jmethods.catatumbo.ConnectionParameters;
+import com.jmethods.catatumbo.EntityManager;
+import com.jmethods.catatumbo.EntityManagerFactory;
+import com.jmethods.catatumbo.EntityQueryRequest;
+import hudson.Extension;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildParameter;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.entities.DatastoreIndexPolicy;
+import org.jenkinsci.plugins.googlecloudlogging.entities.DatastoreKeyLayout;
+import org.jenkinsci.plugins.googlecloudlogging.entities.JenkinsBuild;
+import org.jenkinsci.plugins.googlecloudlogging.entities.JenkinsBuildRollup;
+import org.jenkinsci.plugins.googlecloudlogging.entities.JenkinsStage;
+import org.jenkinsci.plugins.googlecloudlogging.entities.JenkinsUtilization;
+import org.jenkinsci.plugins.googlecloudlogging.entities.MinimalIndexJenkinsBuild;
+import org.jenkinsci.plugins.googlecloudlogging.entities.StageRecord;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.jenkinsci.plugins.googlecloudlogging.rollup.BuildRollup;
+import org.jenkinsci.plugins.googlecloudlogging.rollup.DurationHistogram;
+import org.jenkinsci.plugins.googlecloudlogging.utilization.UtilizationBatch;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Upserts build records into Datastore as {@link JenkinsBuild} entities through Catatumbo. Entities are written in
+ * commits of at most {@value GoogleCloudLoggingConstants#DATASTORE_MAX_ENTITIES_PER_COMMIT}, the most Datastore takes.
+ */
+@Extension
+public class DatastoreSink extends BuildRecordSink {
+    private final static Logger LOGGER = Logger.getLogger(DatastoreSink.class.getName());
+
+    private EntityManager em;
+    private String emServiceUrl;
+
+    @Override
+    public String getName() {
+        return "Datastore";
+    }
+
+    @Override
+    public boolean isEnabled(GoogleCloudLoggingPlugin plugin) {
+        return plugin.isEnableDatastore();
+    }
+
+    @Override
+    public void write(GoogleCloudLoggingPlugin plugin, List<BuildRecord> records) throws Exception {
+        LOGGER.log(Level.FINE, "Logging Job Details to Datastore for " + records.size() + " builds");
+
+        List<Object> entities = new ArrayList<Object>(records.size());
+        List<JenkinsStage> stages = new ArrayList<JenkinsStage>();
+        String serviceUrl = plugin.getDatastoreServiceUrl();
+        DatastoreKeyLayout keyLayout = plugin.getDatastoreKeyLayout();
+        boolean minimalIndex = plugin.getDatastoreIndexPolicy() == DatastoreIndexPolicy.MINIMAL;
+        for (BuildRecord record : records) {
+            JenkinsBuild build = toJenkinsBuild(record);
+            build.setId(keyLayout.toId(build.getJobName(), build.getBuildNumber(), plugin.getDatastoreKeyShards()));
+            entities.add(minimalIndex ? new MinimalIndexJenkinsBuild(build) : build);
+            for (StageRecord stage : record.getStages()) {
+                stages.add(toJenkinsStage(build, stage));
+            }
+        }
+        upsert(plugin, "Datastore upsert", serviceUrl, entities);
+        upsert(plugin, "Datastore stage upsert", serviceUrl, stages);
+    }
+
+    @Override
+    public void writeRollups(GoogleCloudLoggingPlugin plugin, List<BuildRollup> rollups) throws Exception {
+        List<JenkinsBuildRollup> entities = new ArrayList<JenkinsBuildRollup>(rollups.size());
+        for (BuildRollup rollup : rollups) {
+            entities.add(toJenkinsBuildRollup(rollup));
+        }
+        upsert(plugin, "Datastore rollup upsert", plugin.getDatastoreServiceUrl(), entities);
+    }
+
+    @Override
+    public void writeUtilization(GoogleCloudLoggingPlugin plugin, UtilizationBatch batch) throws Exception {
+        List<JenkinsUtilization> entities = new ArrayList<JenkinsUtilization>(batch.getSampleCount());
+        for (int sample = 0; sample < batch.getSampleCount(); sample++) {
+            entities.add(toJenkinsUtilization(batch, sample));
+        }
+        upsert(plugin, "Datastore utilization upsert", plugin.getDatastoreServiceUrl(), entities);
+    }
+
+    /**
+     * Upserts the entities in commits Datastore accepts, each one retried on its own so a failure part way through
+     * does not send the commits that already went through again.
+     *
+     * @param plugin Plugin holding the retry policy and breaker
+     * @param operation Description of the write for log messages
+     * @param serviceUrl Endpoint to write to, or blank for Datastore itself
+     * @param entities Entities to write
+     *
+     * @throws Exception the failure of the first commit that could not be written
+     */
+    private <E> void upsert(GoogleCloudLoggingPlugin plugin, String operation, final String serviceUrl, List<E> entities)
+            throws Exception {
+        int chunkSize = GoogleCloudLoggingConstants.DATASTORE_MAX_ENTITIES_PER_COMMIT;
+        for (int from = 0; from < entities.size(); from += chunkSize) {
+            final List<E> chunk = entities.subList(from, Math.min(entities.size(), from + chunkSize));
+            plugin.getDatastoreRetryPolicy().call(operation, plugin.getDatastoreBreaker(), new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    // Upserts are idempotent, so a retry after the entities went through just writes them again
+                    getEntityManager(serviceUrl).upsert(chunk);
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads a build back by key, whichever key layout and index policy it was written with. Builds written before the
+     * key layout was changed are found under their sequential key.
+     *
+     * @param plugin Plugin holding the Datastore settings
+     * @param jobName Full name of the job
+     * @param buildNumber Number of the build
+     *
+     * @return The build, or null if it was never written
+     */
+    public JenkinsBuild loadBuild(GoogleCloudLoggingPlugin plugin, String jobName, String buildNumber) {
+        EntityManager entityManager = getEntityManager(plugin.getDatastoreServiceUrl());
+        DatastoreKeyLayout keyLayout = plugin.getDatastoreKeyLayout();
+        JenkinsBuild build = entityManager.load(JenkinsBuild.class,
+                keyLayout.toId(jobName, buildNumber, plugin.getDatastoreKeyShards()));
+        if (build == null && keyLayout != DatastoreKeyLayout.SEQUENTIAL) {
+            build = entityManager.load(JenkinsBuild.class, DatastoreKeyLayout.SEQUENTIAL.toId(jobName, buildNumber, 0));
+        }
+        return build;
+    }
+
+    /**
+     * @param plugin Plugin holding the Datastore settings
+     * @param build Build loaded with {@link #loadBuild}
+     *
+     * @return The build's pipeline stages, empty for freestyle builds
+     */
+    public List<JenkinsStage> loadStages(GoogleCloudLoggingPlugin plugin, JenkinsBuild build) {
+        EntityManager entityManager = getEntityManager(plugin.getDatastoreServiceUrl());
+        EntityQueryRequest request = entityManager.createEntityQueryRequest("SELECT * FROM JenkinsStage WHERE buildId = @buildId");
+        request.setNamedBinding("buildId", build.getId());
+        return entityManager.executeEntityQueryRequest(JenkinsStage.class, request).getResults();
+    }
+
+    static JenkinsBuild toJenkinsBuild(BuildRecord record) {
+        return new JenkinsBuild(record.getBuildTag(), record.getJobName(), record.getBuildNumber(),
+                new Date(record.getBuildStartTime()), new Date(record.getBuildEndTime()), record.getBuildResult(), record.getBuildUrl(),
+                record.getJenkinsUrl(), record.getExecutorNumber(), record.getWorkspace(), BuildParameter.join(record.getParams()),
+                record.getGitCommit(), record.getGitUrl(), record.getGitBranch(), record.getUpstreamUrl(),
+                record.getUpstreamBuildNumber(), record.getUpstreamProject(), record.isPipeline());
+    }
+
+    /**
+     * @param batch Samples of executor utilization
+     * @param sample Index of the sample to map
+     *
+     * @return The sample as an entity, keyed by controller and time so a sample written again replaces itself
+     */
+    static JenkinsUtilization toJenkinsUtilization(UtilizationBatch batch, int sample) {
+        int start = batch.getRowStart(sample);
+        int end = batch.getRowEnd(sample);
+        List<String> nodeNames = new ArrayList<String>(end - start);
+        List<String> nodeLabels = new ArrayList<String>(end - start);
+        List<Long> busy = new ArrayList<Long>(end - start);
+        List<Long> executors = new ArrayList<Long>(end - start);
+        List<Boolean> offline = new ArrayList<Boolean>(end - start);
+        long busyTotal = 0;
+        long executorTotal = 0;
+        long offlineTotal = 0;
+        for (int i = start; i < end; i++) {
+            nodeNames.add(batch.getNodeName(i));
+            nodeLabels.add(batch.getLabels(i) != null ? batch.getLabels(i) : "");
+            busy.add((long) batch.getBusy(i));
+            executors.add((long) batch.getExecutors(i));
+            offline.add(batch.isOffline(i));
+            busyTotal += batch.getBusy(i);
+            executorTotal += batch.getExecutors(i);
+            offlineTotal += batch.isOffline(i) ? 1 : 0;
+        }
+
+        long time = batch.getSampleTime(sample);
+        return new JenkinsUtilization(batch.getJenkinsUrl() + "-" + time, batch.getJenkinsUrl(), new Date(time),
+                busyTotal, executorTotal, offlineTotal, nodeNames, nodeLabels, busy, executors, offline);
+    }
+
+    /**
+     * The histogram is kept as "upperMs:count" pairs delimited by a comma, for the buckets holding any builds.
+     */
+    static JenkinsBuildRollup toJenkinsBuildRollup(BuildRollup rollup) {
+        DurationHistogram histogram = rollup.getHistogram();
+        StringBuilder buckets = new StringBuilder();
+        for (int bucket : histogram.getNonEmptyBuckets()) {
+            if (buckets.length() > 0) {
+                buckets.append(',');
+            }
+            buckets.append(DurationHistogram.upperBound(bucket)).append(':').append(histogram.getCount(bucket));
+        }
+
+        // Each flush is its own entity, the random suffix keeps it from replacing an earlier delta of the bucket
+        String id = rollup.getJobName() + "-" + rollup.getBranch() + "-" + rollup.getBucketStart() + "-" + UUID.randomUUID();
+        return new JenkinsBuildRollup(id, rollup.getJobName(), rollup.getBranch(), new Date(rollup.getBucketStart()),
+                rollup.getBucketMinutes(), rollup.getBuilds(), rollup.getSuccesses(), rollup.getFailures(),
+                rollup.getUnstable(), rollup.getAborted(), rollup.getTotalDurationMillis(), rollup.getMinDurationMillis(),
+                rollup.getMaxDurationMillis(), rollup.getDurationQuantile(0.5), rollup.getDurationQuantile(0.95),
+                buckets.toString());
+    }
+
+    static JenkinsStage toJenkinsStage(JenkinsBuild build, StageRecord stage) {
+        return new JenkinsStage(build.getId(), build.getJobName(), build.getBuildNumber(), stage.getStageId(),
+                stage.getParentStageId(), stage.getName(), stage.isParallelBranch(), new Date(stage.getStartTime()),
+                new Date(stage.getEndTime()), stage.getResult(), stage.getNodeLabel());
+    }
+
+    /**
+     * @param serviceUrl Endpoint to use instead of Datastore, such as a local emulator, or blank for Datastore itself
+     *
+     * @return Entity manager for the endpoint, kept until the endpoint setting changes
+     */
+    private synchronized EntityManager getEntityManager(String serviceUrl) {
+        String url = serviceUrl.trim();
+        if (em == null || !url.equals(emServiceUrl)) {
+            EntityManagerFactory emf = EntityManagerFactory.getInstance();
+            if (url.isEmpty()) {
+                em = emf.createDefaultEntityManager();
+            } else {
+                ConnectionParameters parameters = new ConnectionParameters();
+                parameters.setServiceURL(url);
+                em = emf.createEntityManager(parameters);
+            }
+            emServiceUrl = url;
+        }
+        return em;
+    }
+}
@@ -0,0 +1,784 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.spool;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of build records waiting to be exported.
+ *
+ * Records are appended to the active segment file before they are handed to the dispatcher and acknowledged once
+ * they have been written out. Acknowledgements go to a companion .ack file next to each segment. A record that only
+ * some of the sinks have written is noted per sink in a .sinks file, so a replay skips the sinks that are done. A segment is
+ * deleted as soon as all of its records are acknowledged, and segments that are mostly acknowledged have their
+ * stragglers copied forward so a few stuck records do not keep whole segments on disk.
+ *
+ * Each entry is laid out as [payload length][record id][JSON payload][CRC32 of payload]. A torn entry at the end of
+ * a segment, left by a crash mid-write, is truncated away when the spool is opened.
+ *
+ * Records are never given up on because a destination is down, throttling or held: they stay until they are
+ * written. Only a record the service has rejected as invalid several times, or one that can no longer be read, is
+ * moved to the dead letter file, one JSON record per line, where it can be inspected and loaded by hand.
+ */
+public class BuildRecordSpool {
+    private static final Logger LOGGER = Logger.getLogger(BuildRecordSpool.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String ACK_SUFFIX = ".ack";
+    private static final String SINK_ACK_SUFFIX = ".sinks";
+    private static final String DEAD_LETTER_FILE = "build-records.dead";
+    private static final int HEADER_BYTES = 12;
+    private static final int TRAILER_BYTES = 4;
+    private static final int MAX_ENTRY_BYTES = 16 * 1024 * 1024;
+    /** Copy a closed segment's remaining records forward once no more than 1 in this many are still unacknowledged */
+    private static final int COMPACT_RATIO = 4;
+    /** Move a record to the dead letter file once the service has rejected it this many times */
+    private static final int MAX_REJECTIONS = 3;
+
+    private final File directory;
+    private final long segmentMaxBytes;
+    private final Gson gson = new Gson();
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private final Set<Long> inFlight = new HashSet<Long>();
+    private final Map<Long, Integer> rejections = new HashMap<Long, Integer>();
+    /** Sinks that have written each record that is not acknowledged yet */
+    private final Map<Long, Set<String>> writtenTo = new HashMap<Long, Set<String>>();
+    /** When each unacknowledged record was spooled */
+    private final Map<Long, Long> spooledAt = new HashMap<Long, Long>();
+    private Segment active;
+    private long nextId;
+    private long nextSegment;
+    private long deadLettered;
+
+    private BuildRecordSpool(File directory, long segmentMaxBytes) {
+        this.directory = directory;
+        this.segmentMaxBytes = segmentMaxBytes;
+    }
+
+    /**
+     * Opens the spool in the given directory, recovering any segments left behind by a previous run.
+     *
+     * @param directory Directory the segment files live in
+     * @param segmentMaxBytes Size at which the active segment is closed and a new one started
+     *
+     * @return The opened spool
+     *
+     * @throws IOException
+     */
+    public static BuildRecordSpool open(File directory, long segmentMaxBytes) throws IOException {
+        BuildRecordSpool spool = new BuildRecordSpool(directory, segmentMaxBytes);
+        spool.load();
+        return spool;
+    }
+
+    private synchronized void load() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create spool directory " + directory);
+        }
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+                    continue;
+                }
+
+                long seq;
+                try {
+                    seq = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+
+                Segment segment = new Segment(seq);
+                segment.recover();
+                nextSegment = Math.max(nextSegment, seq + 1);
+                if (segment.count > 0) {
+                    nextId = Math.max(nextId, segment.firstId + segment.count);
+                }
+
+                if (segment.count == 0 || segment.isFullyAcked()) {
+                    segment.delete();
+                } else {
+                    segments.put(seq, segment);
+                    // The segment was last written no earlier than any of its records
+                    long modified = segment.file.lastModified();
+                    for (long id = segment.firstId; id < segment.firstId + segment.count; id++) {
+                        if (!segment.isAcked(id)) {
+                            spooledAt.put(id, modified);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (!segments.isEmpty()) {
+            LOGGER.log(Level.INFO, "Google Cloud Logging spool recovered " + getPendingCount() + " unexported build records");
+        }
+        roll();
+    }
+
+    /**
+     * Persists a record and marks it as in flight.
+     *
+     * @param record Build record to persist
+     *
+     * @return Entry to acknowledge or release once the export finishes
+     *
+     * @throws IOException
+     */
+    public synchronized SpoolEntry append(BuildRecord record) throws IOException {
+        long id = write(gson.toJson(record).getBytes(UTF_8));
+        inFlight.add(id);
+        spooledAt.put(id, System.currentTimeMillis());
+        return new SpoolEntry(id, record);
+    }
+
+    /**
+     * Marks a record as exported. Its segment is deleted once every record in it has been acknowledged.
+     *
+     * @param id Id of the exported record
+     */
+    public synchronized void ack(long id) {
+        inFlight.remove(id);
+        rejections.remove(id);
+        spooledAt.remove(id);
+        writtenTo.remove(id);
+
+        Segment segment = find(id);
+        if (segment == null || !segment.ack(id)) {
+            return;
+        }
+
+        if (segment != active && segment.isFullyAcked()) {
+            segment.delete();
+            segments.remove(segment.seq);
+        }
+    }
+
+    /**
+     * Notes that one sink has written a record, while others have not yet. A replay of the record skips that sink.
+     *
+     * @param id Id of the record
+     * @param sink Name of the sink that wrote it
+     */
+    public synchronized void ackSink(long id, String sink) {
+        Segment segment = find(id);
+        if (segment == null || segment.isAcked(id)) {
+            return;
+        }
+        Set<String> sinks = writtenTo.get(id);
+        if (sinks == null) {
+            sinks = new HashSet<String>();
+            writtenTo.put(id, sinks);
+        }
+        if (sinks.add(sink)) {
+            segment.ackSink(id, sink);
+        }
+    }
+
+    /**
+     * Hands a record back to the spool without acknowledging it, so it gets picked up again by the next replay.
+     *
+     * @param id Id of the record that was not exported
+     */
+    public synchronized void release(long id) {
+        inFlight.remove(id);
+    }
+
+    /**
+     * Hands back a record the service refused as invalid. It is replayed like a released record until it has been
+     * rejected {@value #MAX_REJECTIONS} times, and then moved to the dead letter file.
+     *
+     * @param entry The rejected record
+     * @param reason Why it was rejected, for the log
+     */
+    public synchronized void reject(SpoolEntry entry, String reason) {
+        long id = entry.getId();
+        inFlight.remove(id);
+
+        Integer count = rejections.get(id);
+        int next = count == null ? 1 : count + 1;
+        if (next < MAX_REJECTIONS) {
+            rejections.put(id, next);
+            return;
+        }
+        deadLetter(id, gson.toJson(entry.getRecord()).getBytes(UTF_8), "rejected " + next + " times, last :: " + reason);
+    }
+
+    /**
+     * Reads records that are neither acknowledged nor in flight, and marks them as in flight.
+     *
+     * @param max Maximum number of records to return
+     *
+     * @return Records to export again, oldest first
+     *
+     * @throws IOException
+     */
+    public List<SpoolEntry> readPending(int max) throws IOException {
+        List<Segment> snapshot;
+        List<Long> limits = new ArrayList<Long>();
+        synchronized (this) {
+            if (max <= 0 || getPendingCount() == 0) {
+                return Collections.emptyList();
+            }
+            snapshot = new ArrayList<Segment>(segments.values());
+            for (Segment segment : snapshot) {
+                limits.add(segment.size);
+            }
+        }
+
+        // Segments are only ever appended to, so reading up to the sizes seen above needs no lock
+        List<SpoolEntry> pending = new ArrayList<SpoolEntry>();
+        for (int i = 0; i < snapshot.size() && pending.size() < max; i++) {
+            Segment segment = snapshot.get(i);
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ);
+            } catch (IOException e) {
+                // Deleted since the snapshot because all of its records were acknowledged
+                continue;
+            }
+
+            try {
+                EntryScanner scanner = new EntryScanner(channel, limits.get(i));
+                while (pending.size() < max && scanner.next()) {
+                    if (claim(segment, scanner.id)) {
+                        BuildRecord record = decode(scanner.id, scanner.payload);
+                        if (record != null) {
+                            pending.add(new SpoolEntry(scanner.id, record, getWrittenTo(scanner.id)));
+                        }
+                    }
+                }
+            } finally {
+                channel.close();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Copies the remaining records of mostly acknowledged segments into the active segment and deletes the old files.
+     *
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        for (Segment segment : new ArrayList<Segment>(segments.values())) {
+            int unacked = segment.count - segment.ackedCount;
+            if (segment == active || unacked == 0 || unacked * COMPACT_RATIO > segment.count || hasInFlight(segment)) {
+                continue;
+            }
+
+            FileChannel channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ);
+            try {
+                EntryScanner scanner = new EntryScanner(channel, segment.size);
+                while (scanner.next()) {
+                    if (!segment.isAcked(scanner.id)) {
+                        long copy = write(scanner.payload);
+                        Integer count = rejections.remove(scanner.id);
+                        if (count != null) {
+                            rejections.put(copy, count);
+                        }
+                        Long since = spooledAt.remove(scanner.id);
+                        if (since != null) {
+                            spooledAt.put(copy, since);
+                        }
+                        Set<String> sinks = writtenTo.remove(scanner.id);
+                        if (sinks != null) {
+                            writtenTo.put(copy, sinks);
+                            for (String sink : sinks) {
+                                active.ackSink(copy, sink);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                channel.close();
+            }
+
+            segment.delete();
+            segments.remove(segment.seq);
+        }
+    }
+
+    /**
+     * @return Number of records that are neither acknowledged nor in flight
+     */
+    public synchronized int getPendingCount() {
+        return getUnackedCount() - inFlight.size();
+    }
+
+    /**
+     * @return Number of records on disk that have not been acknowledged yet, including in flight ones
+     */
+    public synchronized int getUnackedCount() {
+        int unacked = 0;
+        for (Segment segment : segments.values()) {
+            unacked += segment.count - segment.ackedCount;
+        }
+        return unacked;
+    }
+
+    /**
+     * @return How long the oldest record that has not been acknowledged has been waiting, 0 if there is none
+     */
+    public synchronized long getOldestUnackedAgeMillis() {
+        if (spooledAt.isEmpty()) {
+            return 0;
+        }
+        // Compaction moves old records to new ids, so the lowest id is not necessarily the oldest
+        long oldest = Long.MAX_VALUE;
+        for (long since : spooledAt.values()) {
+            oldest = Math.min(oldest, since);
+        }
+        return Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    /**
+     * @return Number of records moved to the dead letter file since the spool was opened
+     */
+    public synchronized long getDeadLetteredCount() {
+        return deadLettered;
+    }
+
+    /**
+     * @return Total size of the segment files
+     */
+    public synchronized long getSizeBytes() {
+        long size = 0;
+        for (Segment segment : segments.values()) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Flushes the active segment to disk and closes all files. Unacknowledged records are replayed on the next open.
+     */
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        active = null;
+    }
+
+    private long write(byte[] payload) throws IOException {
+        if (active == null) {
+            throw new IOException("Google Cloud Logging spool is closed");
+        }
+        if (active.size >= segmentMaxBytes) {
+            roll();
+        }
+
+        long id = nextId;
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length + TRAILER_BYTES);
+        buffer.putInt(payload.length).putLong(id).put(payload).putInt((int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            active.channel.write(buffer);
+        }
+
+        if (active.firstId < 0) {
+            active.firstId = id;
+        }
+        active.count++;
+        active.size += buffer.limit();
+        nextId++;
+        return id;
+    }
+
+    /**
+     * Closes the active segment and starts a new one.
+     */
+    private void roll() throws IOException {
+        if (active != null) {
+            active.channel.force(false);
+            active.channel.close();
+            active.channel = null;
+            if (active.isFullyAcked()) {
+                active.delete();
+                segments.remove(active.seq);
+            }
+        }
+
+        Segment segment = new Segment(nextSegment++);
+        segment.channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        segments.put(segment.seq, segment);
+        active = segment;
+    }
+
+    private synchronized boolean claim(Segment segment, long id) {
+        if (segments.get(segment.seq) != segment || segment.isAcked(id) || inFlight.contains(id)) {
+            return false;
+        }
+        inFlight.add(id);
+        return true;
+    }
+
+    private synchronized Set<String> getWrittenTo(long id) {
+        Set<String> sinks = writtenTo.get(id);
+        return sinks == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(new HashSet<String>(sinks));
+    }
+
+    private BuildRecord decode(long id, byte[] payload) {
+        try {
+            return gson.fromJson(new String(payload, UTF_8), BuildRecord.class);
+        } catch (JsonParseException e) {
+            synchronized (this) {
+                inFlight.remove(id);
+                deadLetter(id, payload, "unreadable :: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Appends the record to the dead letter file and acknowledges it. If it cannot be written there it stays in the
+     * spool, to be tried again on a later replay.
+     */
+    private void deadLetter(long id, byte[] payload, String reason) {
+        File file = new File(directory, DEAD_LETTER_FILE);
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(payload.length + 1);
+                buffer.put(payload).put((byte) '\n').flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to move spooled build record " + id + " to " + file + ", keeping it :: "
+                    + e.getMessage());
+            return;
+        }
+
+        LOGGER.log(Level.SEVERE, "Google Cloud Logging moved spooled build record " + id + " to " + file + ", " + reason);
+        deadLettered++;
+        ack(id);
+    }
+
+    private boolean hasInFlight(Segment segment) {
+        for (Long id : inFlight) {
+            if (segment.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Segment find(long id) {
+        for (Segment segment : segments.descendingMap().values()) {
+            if (segment.contains(id)) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One segment file plus its acknowledgement file. Record ids within a segment are contiguous.
+     */
+    private final class Segment {
+        private final long seq;
+        private final File file;
+        private final File ackFile;
+        private final File sinkAckFile;
+        private final BitSet acked = new BitSet();
+        private FileChannel channel;
+        private FileChannel ackChannel;
+        private FileChannel sinkAckChannel;
+        private long firstId = -1;
+        private int count;
+        private int ackedCount;
+        private long size;
+
+        private Segment(long seq) {
+            this.seq = seq;
+            String name = SEGMENT_PREFIX + String.format("%016d", seq);
+            this.file = new File(directory, name + SEGMENT_SUFFIX);
+            this.ackFile = new File(directory, name + ACK_SUFFIX);
+            this.sinkAckFile = new File(directory, name + SINK_ACK_SUFFIX);
+        }
+
+        /**
+         * Scans the segment after a restart, truncating a torn trailing entry and loading the acknowledgements.
+         */
+        private void recover() throws IOException {
+            FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                EntryScanner scanner = new EntryScanner(in, in.size());
+                while (scanner.next()) {
+                    if (firstId < 0) {
+                        firstId = scanner.id;
+                    }
+                    count = (int) (scanner.id - firstId + 1);
+                }
+                if (scanner.position < in.size()) {
+                    LOGGER.log(Level.WARNING, "Truncating torn entry at the end of " + file);
+                    in.truncate(scanner.position);
+                }
+                size = scanner.position;
+            } finally {
+                in.close();
+            }
+
+            if (ackFile.exists()) {
+                FileChannel acks = FileChannel.open(ackFile.toPath(), StandardOpenOption.READ);
+                try {
+                    ByteBuffer buffer = ByteBuffer.allocate(8);
+                    long position = 0;
+                    while (readFully(acks, buffer, position)) {
+                        buffer.flip();
+                        long id = buffer.getLong();
+                        if (contains(id) && !acked.get((int) (id - firstId))) {
+                            acked.set((int) (id - firstId));
+                            ackedCount++;
+                        }
+                        buffer.clear();
+                        position += 8;
+                    }
+                } finally {
+                    acks.close();
+                }
+            }
+
+            if (sinkAckFile.exists()) {
+                recoverSinkAcks();
+            }
+        }
+
+        /**
+         * Reads back which sinks wrote the records that are not fully acknowledged, each entry being
+         * [record id][name length][UTF-8 name]. A torn entry at the end is ignored.
+         */
+        private void recoverSinkAcks() throws IOException {
+            FileChannel in = FileChannel.open(sinkAckFile.toPath(), StandardOpenOption.READ);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(10);
+                long position = 0;
+                while (readFully(in, header, position)) {
+                    header.flip();
+                    long id = header.getLong();
+                    int length = header.getShort() & 0xffff;
+                    ByteBuffer name = ByteBuffer.allocate(length);
+                    if (!readFully(in, name, position + 10)) {
+                        break;
+                    }
+                    if (!isAcked(id)) {
+                        Set<String> sinks = writtenTo.get(id);
+                        if (sinks == null) {
+                            sinks = new HashSet<String>();
+                            writtenTo.put(id, sinks);
+                        }
+                        sinks.add(new String(name.array(), UTF_8));
+                    }
+                    header.clear();
+                    position += 10 + length;
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        private boolean contains(long id) {
+            return firstId >= 0 && id >= firstId && id < firstId + count;
+        }
+
+        private boolean isAcked(long id) {
+            return !contains(id) || acked.get((int) (id - firstId));
+        }
+
+        private boolean isFullyAcked() {
+            return ackedCount >= count;
+        }
+
+        /**
+         * @return false if the record was already acknowledged
+         */
+        private boolean ack(long id) {
+            int index = (int) (id - firstId);
+            if (acked.get(index)) {
+                return false;
+            }
+            acked.set(index);
+            ackedCount++;
+
+            try {
+                if (ackChannel == null) {
+                    ackChannel = FileChannel.open(ackFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND);
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(8);
+                buffer.putLong(id).flip();
+                while (buffer.hasRemaining()) {
+                    ackChannel.write(buffer);
+                }
+            } catch (IOException e) {
+                // The record is exported, at worst it gets sent again after a restart
+                LOGGER.log(Level.WARNING, "Unable to record acknowledgement in " + ackFile + " :: " + e.getMessage());
+            }
+            return true;
+        }
+
+        private void ackSink(long id, String sink) {
+            byte[] name = sink.getBytes(UTF_8);
+            try {
+                if (sinkAckChannel == null) {
+                    sinkAckChannel = FileChannel.open(sinkAckFile.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(10 + name.length);
+                buffer.putLong(id).putShort((short) name.length).put(name).flip();
+                while (buffer.hasRemaining()) {
+                    sinkAckChannel.write(buffer);
+                }
+            } catch (IOException e) {
+                // At worst the sink writes the record again after a restart
+                LOGGER.log(Level.WARNING, "Unable to record sink acknowledgement in " + sinkAckFile + " :: " + e.getMessage());
+            }
+        }
+
+        private void close() {
+            try {
+                if (channel != null) {
+                    channel.force(false);
+                    channel.close();
+                }
+                if (ackChannel != null) {
+                    ackChannel.close();
+                }
+                if (sinkAckChannel != null) {
+                    sinkAckChannel.close();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing spool segment " + file + " :: " + e.getMessage());
+            }
+            channel = null;
+            ackChannel = null;
+            sinkAckChannel = null;
+        }
+
+        private void delete() {
+            close();
+            if (!file.delete() && file.exists()) {
+                LOGGER.log(Level.WARNING, "Unable to delete spool segment " + file);
+            }
+            if (!ackFile.delete() && ackFile.exists()) {
+                LOGGER.log(Level.WARNING, "Unable to delete spool acknowledgements " + ackFile);
+            }
+            if (!sinkAckFile.delete() && sinkAckFile.exists()) {
+                LOGGER.log(Level.WARNING, "Unable to delete spool sink acknowledgements " + sinkAckFile);
+            }
+        }
+    }
+
+    /**
+     * Walks the entries of a segment, stopping at the first incomplete or corrupt one.
+     */
+    private static final class EntryScanner {
+        private final FileChannel channel;
+        private final long limit;
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        private long position;
+        private long id;
+        private byte[] payload;
+
+        private EntryScanner(FileChannel channel, long limit) {
+            this.channel = channel;
+            this.limit = limit;
+        }
+
+        private boolean next() throws IOException {
+            if (position + HEADER_BYTES + TRAILER_BYTES > limit) {
+                return false;
+            }
+
+            header.clear();
+            if (!readFully(channel, header, position)) {
+                return false;
+            }
+            header.flip();
+            int length = header.getInt();
+            long entryId = header.getLong();
+            if (length < 0 || length > MAX_ENTRY_BYTES || position + HEADER_BYTES + length + TRAILER_BYTES > limit) {
+                return false;
+            }
+
+            ByteBuffer body = ByteBuffer.allocate(length + TRAILER_BYTES);
+            if (!readFully(channel, body, position + HEADER_BYTES)) {
+                return false;
+            }
+            body.flip();
+            byte[] bytes = new byte[length];
+            body.get(bytes);
+            int expected = body.getInt();
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != expected) {
+                return false;
+            }
+
+            id = entryId;
+            payload = bytes;
+            position += HEADER_BYTES + length + TRAILER_BYTES;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.spool;
+
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A build record together with its position in the spool, so it can be acknowledged once exported, and the sinks it
+ * has already been written to, so a replay only goes to the ones that failed.
+ */
+public final class SpoolEntry {
+    /** Id of records that could not be written to the spool and only exist in memory */
+    public static final long NOT_SPOOLED = -1;
+
+    private final long id;
+    private final BuildRecord record;
+    private final Set<String> writtenTo;
+
+    public SpoolEntry(long id, BuildRecord record) {
+        this(id, record, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param id Id of the record in the spool
+     * @param record The build record
+     * @param writtenTo Names of the sinks that already wrote the record
+     */
+    public SpoolEntry(long id, BuildRecord record, Set<String> writtenTo) {
+        this.id = id;
+        this.record = record;
+        this.writtenTo = writtenTo;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public BuildRecord getRecord() {
+        return record;
+    }
+
+    public boolean isSpooled() {
+        return id != NOT_SPOOLED;
+    }
+
+    /**
+     * @param sink Name of a sink
+     *
+     * @return true if the sink already wrote this record on an earlier attempt
+     */
+    public boolean isWrittenTo(String sink) {
+        return writtenTo.contains(sink);
+    }
+}
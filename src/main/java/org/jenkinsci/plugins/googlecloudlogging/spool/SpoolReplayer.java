@@ -0,0 +1,68 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.jenkinsci.plugins.googlecloudlogging.spool;
+
+import org.jenkinsci.plugins.googlecloudlogging.dispatch.ExportDispatcher;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically feeds spooled records that were never exported back into the dispatcher, as far as the queue has room,
+ * and compacts the spool afterwards.
+ */
+public class SpoolReplayer implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(SpoolReplayer.class.getName());
+
+    private final GoogleCloudLoggingPlugin plugin;
+    private final BuildRecordSpool spool;
+
+    public SpoolReplayer(GoogleCloudLoggingPlugin plugin, BuildRecordSpool spool) {
+        this.plugin = plugin;
+        this.spool = spool;
+    }
+
+    @Override
+    public void run() {
+        try {
+            ExportDispatcher dispatcher = plugin.getDispatcher();
+            if (dispatcher != null) {
+                List<SpoolEntry> pending = spool.readPending(dispatcher.getRemainingCapacity());
+                int replayed = 0;
+                for (SpoolEntry entry : pending) {
+                    if (dispatcher.offer(entry)) {
+                        replayed++;
+                    }
+                }
+                if (replayed > 0) {
+                    LOGGER.log(Level.INFO, "Replayed " + replayed + " spooled build records");
+                }
+            }
+
+            spool.compact();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error replaying Google Cloud Logging spool :: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Keep the scheduled task alive, a thrown exception would cancel it
+            LOGGER.log(Level.WARNING, "Error replaying Google Cloud Logging spool", e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.utilization;
+
+import java.util.Arrays;
+
+/**
+ * Samples of every computer's executors, kept column by column in primitive arrays that are reused from one flush
+ * to the next. Once the arrays have grown to the number of computers, taking a sample allocates nothing.
+ */
+public final class UtilizationBatch {
+    private long[] sampleTimes = new long[8];
+    private int[] sampleEnds = new int[8];
+    private int samples;
+
+    private String[] nodeNames = new String[64];
+    private String[] labels = new String[64];
+    private int[] busy = new int[64];
+    private int[] executors = new int[64];
+    private boolean[] offline = new boolean[64];
+    private int rows;
+
+    private String jenkinsUrl;
+
+    /**
+     * @param time Time of the sample
+     * @param jenkinsUrl Root URL of the controller, to tell controllers writing to the same table apart
+     */
+    void beginSample(long time, String jenkinsUrl) {
+        if (samples == sampleTimes.length) {
+            sampleTimes = Arrays.copyOf(sampleTimes, samples * 2);
+            sampleEnds = Arrays.copyOf(sampleEnds, samples * 2);
+        }
+        sampleTimes[samples] = time;
+        sampleEnds[samples] = rows;
+        samples++;
+        this.jenkinsUrl = jenkinsUrl;
+    }
+
+    /**
+     * Adds a computer to the current sample.
+     */
+    void add(String nodeName, String nodeLabels, int busyExecutors, int totalExecutors, boolean nodeOffline) {
+        if (rows == nodeNames.length) {
+            int capacity = rows * 2;
+            nodeNames = Arrays.copyOf(nodeNames, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+            busy = Arrays.copyOf(busy, capacity);
+            executors = Arrays.copyOf(executors, capacity);
+            offline = Arrays.copyOf(offline, capacity);
+        }
+        nodeNames[rows] = nodeName;
+        labels[rows] = nodeLabels;
+        busy[rows] = busyExecutors;
+        executors[rows] = totalExecutors;
+        offline[rows] = nodeOffline;
+        rows++;
+        sampleEnds[samples - 1] = rows;
+    }
+
+    /**
+     * Empties the batch, keeping its arrays for the next samples.
+     */
+    void clear() {
+        // Drop the references so removed agents can be collected
+        Arrays.fill(nodeNames, 0, rows, null);
+        Arrays.fill(labels, 0, rows, null);
+        samples = 0;
+        rows = 0;
+    }
+
+    public int getSampleCount() {
+        return samples;
+    }
+
+    public long getSampleTime(int sample) {
+        return sampleTimes[sample];
+    }
+
+    /**
+     * @return Index of the sample's first computer
+     */
+    public int getRowStart(int sample) {
+        return sample == 0 ? 0 : sampleEnds[sample - 1];
+    }
+
+    /**
+     * @return Index after the sample's last computer
+     */
+    public int getRowEnd(int sample) {
+        return sampleEnds[sample];
+    }
+
+    public String getNodeName(int row) {
+        return nodeNames[row];
+    }
+
+    /**
+     * @return Labels configured on the node, separated by spaces, null if the computer has no node any more
+     */
+    public String getLabels(int row) {
+        return labels[row];
+    }
+
+    public int getBusy(int row) {
+        return busy[row];
+    }
+
+    public int getExecutors(int row) {
+        return executors[row];
+    }
+
+    public boolean isOffline(int row) {
+        return offline[row];
+    }
+
+    public String getJenkinsUrl() {
+        return jenkinsUrl;
+    }
+}
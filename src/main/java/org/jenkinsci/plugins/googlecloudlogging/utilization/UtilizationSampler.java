@@ -0,0 +1,102 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.utilization;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.jenkinsci.plugins.googlecloudlogging.sink.BuildRecordSink;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Samples the busy and total executors, offline state and labels of every computer, and hands the samples to the
+ * enabled sinks every {@value GoogleCloudLoggingConstants#UTILIZATION_FLUSH_SAMPLES} samples.
+ *
+ * Only the computer list and the counters each computer keeps are read, the queue is never locked. If no sink could
+ * write the samples they are kept for the next flush, up to
+ * {@value GoogleCloudLoggingConstants#UTILIZATION_MAX_PENDING_SAMPLES} samples, then dropped.
+ */
+public class UtilizationSampler implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(UtilizationSampler.class.getName());
+
+    private final GoogleCloudLoggingPlugin plugin;
+    private final UtilizationBatch batch = new UtilizationBatch();
+
+    public UtilizationSampler(GoogleCloudLoggingPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public synchronized void run() {
+        try {
+            sample(System.currentTimeMillis());
+            if (batch.getSampleCount() >= GoogleCloudLoggingConstants.UTILIZATION_FLUSH_SAMPLES) {
+                flush();
+            }
+        } catch (RuntimeException e) {
+            // Keep the scheduled task alive, a thrown exception would cancel it
+            LOGGER.log(Level.WARNING, "Error sampling Google Cloud Logging executor utilization", e);
+        }
+    }
+
+    private void sample(long now) {
+        Jenkins jenkins = Jenkins.getInstance();
+        batch.beginSample(now, jenkins.getRootUrl());
+        for (Computer computer : jenkins.getComputers()) {
+            Node node = computer.getNode();
+            batch.add(computer.getName(), node != null ? node.getLabelString() : null, computer.countBusy(),
+                    computer.countExecutors(), computer.isOffline());
+        }
+    }
+
+    /**
+     * Writes the samples taken so far to every enabled sink.
+     */
+    public synchronized void flush() {
+        if (batch.getSampleCount() == 0) {
+            return;
+        }
+
+        int attempted = 0;
+        int failed = 0;
+        for (BuildRecordSink sink : BuildRecordSink.all()) {
+            if (!sink.isEnabled(plugin)) {
+                continue;
+            }
+            attempted++;
+            try {
+                sink.writeUtilization(plugin, batch);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error writing Google Cloud Logging utilization to " + sink.getName() + " :: " + e.getMessage());
+                failed++;
+            }
+        }
+
+        if (attempted > 0 && failed == attempted
+                && batch.getSampleCount() < GoogleCloudLoggingConstants.UTILIZATION_MAX_PENDING_SAMPLES) {
+            return;
+        }
+        if (attempted > 0 && failed == attempted) {
+            LOGGER.log(Level.WARNING, "Dropped " + batch.getSampleCount() + " Google Cloud Logging utilization samples that could not be written");
+        }
+        batch.clear();
+    }
+}
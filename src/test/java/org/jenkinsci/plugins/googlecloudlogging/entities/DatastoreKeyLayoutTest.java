@@ -0,0 +1,90 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.entities;
+
+import org.jenkinsci.plugins.googlecloudlogging.constants.GoogleCloudLoggingConstants;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Where the builds of one busy job land in the key space under each layout. Datastore splits a kind's keys into
+ * ranges and each range is served on its own, so writes piling into one range are what the prefixed layouts are for.
+ */
+public class DatastoreKeyLayoutTest {
+    private static final String JOB = "folder/service-build";
+    private static final int BUILDS = 10000;
+    private static final int LATEST = 1000;
+    private static final int RANGES = 16;
+    private static final int SHARDS = GoogleCloudLoggingConstants.DEFAULT_DATASTORE_KEY_SHARDS;
+
+    @Test
+    public void prefixedLayoutsSpreadTheLatestBuildsOfAJob() {
+        double sequential = busiestRangeShare(DatastoreKeyLayout.SEQUENTIAL);
+        double hashed = busiestRangeShare(DatastoreKeyLayout.HASHED);
+        double sharded = busiestRangeShare(DatastoreKeyLayout.SHARDED);
+        System.out.printf("Latest %d of %d builds of one job, busiest of %d key ranges: SEQUENTIAL %.1f%%, "
+                + "HASHED %.1f%%, SHARDED %.1f%%%n", LATEST, BUILDS, RANGES, sequential * 100, hashed * 100, sharded * 100);
+        assertTrue(hashed < sequential / 4);
+        assertTrue(sharded < sequential / 4);
+    }
+
+    @Test
+    public void everyLayoutEndsWithTheSequentialKey() {
+        for (DatastoreKeyLayout layout : DatastoreKeyLayout.values()) {
+            String id = layout.toId(JOB, "1234", SHARDS);
+            assertTrue(id, id.endsWith(JOB + "-1234"));
+            assertEquals(id, layout.toId(JOB, "1234", SHARDS));
+        }
+    }
+
+    /**
+     * Splits the keys of all the job's builds into ranges holding as many keys each, and counts where the writes of
+     * the latest builds go.
+     *
+     * @return Share of the latest builds written to the busiest range
+     */
+    static double busiestRangeShare(DatastoreKeyLayout layout) {
+        List<String> keys = new ArrayList<String>(BUILDS);
+        for (int number = 1; number <= BUILDS; number++) {
+            keys.add(layout.toId(JOB, String.valueOf(number), SHARDS));
+        }
+        List<String> sorted = new ArrayList<String>(keys);
+        Collections.sort(sorted);
+        String[] bounds = new String[RANGES - 1];
+        for (int i = 1; i < RANGES; i++) {
+            bounds[i - 1] = sorted.get(i * BUILDS / RANGES);
+        }
+
+        int[] writes = new int[RANGES];
+        for (String key : keys.subList(BUILDS - LATEST, BUILDS)) {
+            int found = Arrays.binarySearch(bounds, key);
+            writes[found >= 0 ? found + 1 : -found - 1]++;
+        }
+        int busiest = 0;
+        for (int count : writes) {
+            busiest = Math.max(busiest, count);
+        }
+        return busiest / (double) LATEST;
+    }
+}
@@ -0,0 +1,469 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.fake;
+
+import com.google.datastore.v1.CommitRequest;
+import com.google.datastore.v1.CommitResponse;
+import com.google.datastore.v1.Entity;
+import com.google.datastore.v1.Key;
+import com.google.datastore.v1.Mutation;
+import com.google.datastore.v1.MutationResult;
+import com.google.datastore.v1.Value;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-process stand-in for the BigQuery and Datastore endpoints the plugin calls, so exports can be driven offline.
+ *
+ * BigQuery: tables get, insert and patch, jobs.insert and jobs.get for QUERY mode, and tabledata.insertAll for
+ * STREAMING mode. Query jobs complete on their first poll. Datastore: commit, as sent by the client when its service
+ * URL points here.
+ *
+ * Every request waits the configured latency and then fails at the configured error rate with a 500 backendError, or
+ * at the throttle rate with a 429 rateLimitExceeded. What got through is kept per table and per kind, keyed by insert
+ * ID, build tag or entity name, so a test can tell rows delivered from rows lost or written twice.
+ *
+ * With {@link #setDatastoreRelay(String)}, Datastore requests are passed on to the Datastore emulator instead, and
+ * the index updates it reports for each commit are added up.
+ */
+public class FakeGoogleCloud {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Pattern JOBS = Pattern.compile(".*/projects/([^/]+)/jobs");
+    private static final Pattern JOB = Pattern.compile(".*/projects/([^/]+)/jobs/([^/]+)");
+    private static final Pattern TABLES = Pattern.compile(".*/projects/([^/]+)/datasets/([^/]+)/tables");
+    private static final Pattern TABLE = Pattern.compile(".*/projects/([^/]+)/datasets/([^/]+)/tables/([^/]+)");
+    private static final Pattern INSERT_ALL = Pattern.compile(".*/projects/([^/]+)/datasets/([^/]+)/tables/([^/]+)/insertAll");
+    private static final Pattern DATASTORE = Pattern.compile(".*/projects/([^/:]+):([A-Za-z]+)");
+    private static final Pattern BUILD_TAG = Pattern.compile("'((?:[^'\\\\]|\\\\.)*)' as build_tag");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile double throttleRate;
+    private volatile String datastoreRelay;
+
+    private final Map<String, String> tables = new ConcurrentHashMap<String, String>();
+    private final Map<String, Set<String>> rows = new ConcurrentHashMap<String, Set<String>>();
+    private final Map<String, Set<String>> entities = new ConcurrentHashMap<String, Set<String>>();
+    private final AtomicLong rowsReceived = new AtomicLong();
+    private final AtomicLong entitiesReceived = new AtomicLong();
+    private final AtomicLong indexedValues = new AtomicLong();
+    private final AtomicLong indexUpdates = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+
+    /**
+     * Starts the stand-in on a free port of the loopback interface.
+     *
+     * @param threads Requests served at the same time
+     *
+     * @throws IOException If no port could be bound
+     */
+    public FakeGoogleCloud(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return Root URL to give the plugin for both BigQuery and Datastore
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public FakeGoogleCloud setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * @param errorRate Share of requests, 0 to 1, answered with a 500 backendError
+     */
+    public FakeGoogleCloud setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param throttleRate Share of requests, 0 to 1, answered with a 429 rateLimitExceeded
+     */
+    public FakeGoogleCloud setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+        return this;
+    }
+
+    /**
+     * @param emulatorHost host:port of a Datastore emulator to pass Datastore requests on to, or null to answer them
+     */
+    public FakeGoogleCloud setDatastoreRelay(String emulatorHost) {
+        this.datastoreRelay = emulatorHost;
+        return this;
+    }
+
+    /**
+     * @param table Table ID
+     *
+     * @return Distinct rows written to the table, by insert ID for streamed rows and by build tag for query jobs
+     */
+    public int getDeliveredRows(String table) {
+        Set<String> ids = rows.get(table);
+        return ids != null ? ids.size() : 0;
+    }
+
+    /**
+     * @param kind Datastore kind
+     *
+     * @return Distinct entities upserted into the kind, by key name
+     */
+    public int getDeliveredEntities(String kind) {
+        Set<String> names = entities.get(kind);
+        return names != null ? names.size() : 0;
+    }
+
+    /**
+     * @return Rows received in all, repeated ones included
+     */
+    public long getRowsReceived() {
+        return rowsReceived.get();
+    }
+
+    /**
+     * @return Entities received in all, repeated ones included
+     */
+    public long getEntitiesReceived() {
+        return entitiesReceived.get();
+    }
+
+    /**
+     * @return Property values of the upserted entities that were not excluded from indexes
+     */
+    public long getIndexedValues() {
+        return indexedValues.get();
+    }
+
+    /**
+     * @return Index updates reported in the commit responses: by the emulator when relaying, otherwise one per
+     * indexed value
+     */
+    public long getIndexUpdates() {
+        return indexUpdates.get();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String path = exchange.getRequestURI().getPath();
+        // The client sends PATCH as a POST when the transport cannot
+        String override = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+        String method = override != null ? override : exchange.getRequestMethod();
+        byte[] body = readBody(exchange);
+        boolean datastore = DATASTORE.matcher(path).matches();
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < throttleRate) {
+            throttled.incrementAndGet();
+            fail(exchange, datastore, 429, "rateLimitExceeded", "RESOURCE_EXHAUSTED", 8);
+            return;
+        }
+        if (roll < throttleRate + errorRate) {
+            failed.incrementAndGet();
+            fail(exchange, datastore, datastore ? 503 : 500, "backendError", "UNAVAILABLE", 14);
+            return;
+        }
+
+        Matcher matcher;
+        if (datastore) {
+            matcher = DATASTORE.matcher(path);
+            matcher.matches();
+            if (datastoreRelay != null) {
+                relay(exchange, path, body, "commit".equals(matcher.group(2)));
+            } else if ("commit".equals(matcher.group(2))) {
+                commit(exchange, body);
+            } else {
+                fail(exchange, true, 501, "notImplemented", "UNIMPLEMENTED", 12);
+            }
+        } else if ((matcher = INSERT_ALL.matcher(path)).matches() && "POST".equals(method)) {
+            insertAll(exchange, matcher.group(3), body);
+        } else if ((matcher = TABLE.matcher(path)).matches()) {
+            table(exchange, method, matcher.group(3), body);
+        } else if ((matcher = TABLES.matcher(path)).matches() && "POST".equals(method)) {
+            JsonObject table = parse(body).getAsJsonObject();
+            tables.put(table.getAsJsonObject("tableReference").get("tableId").getAsString(), table.toString());
+            json(exchange, 200, table.toString());
+        } else if ((matcher = JOB.matcher(path)).matches()) {
+            json(exchange, 200, job(matcher.group(1), matcher.group(2), "DONE"));
+        } else if ((matcher = JOBS.matcher(path)).matches() && "POST".equals(method)) {
+            insertJob(exchange, matcher.group(1), body);
+        } else {
+            json(exchange, 404, error(404, "notFound", "No fake for " + method + " " + path));
+        }
+    }
+
+    private void table(HttpExchange exchange, String method, String tableId, byte[] body) throws IOException {
+        if ("PATCH".equals(method) || "PUT".equals(method)) {
+            JsonObject patch = parse(body).getAsJsonObject();
+            String current = tables.get(tableId);
+            JsonObject table = current != null ? parse(current.getBytes(UTF_8)).getAsJsonObject() : new JsonObject();
+            table.add("schema", patch.get("schema"));
+            tables.put(tableId, table.toString());
+            json(exchange, 200, table.toString());
+            return;
+        }
+        String table = tables.get(tableId);
+        if (table == null) {
+            json(exchange, 404, error(404, "notFound", "Not found: Table " + tableId));
+        } else {
+            json(exchange, 200, table);
+        }
+    }
+
+    private void insertAll(HttpExchange exchange, String tableId, byte[] body) throws IOException {
+        JsonArray sent = parse(body).getAsJsonObject().getAsJsonArray("rows");
+        Set<String> ids = rowsOf(tableId);
+        for (JsonElement row : sent) {
+            JsonElement insertId = row.getAsJsonObject().get("insertId");
+            ids.add(insertId != null ? insertId.getAsString() : UUID.randomUUID().toString());
+            rowsReceived.incrementAndGet();
+        }
+        json(exchange, 200, "{\"kind\":\"bigquery#tableDataInsertAllResponse\"}");
+    }
+
+    private void insertJob(HttpExchange exchange, String projectId, byte[] body) throws IOException {
+        JsonObject query = parse(body).getAsJsonObject().getAsJsonObject("configuration").getAsJsonObject("query");
+        String tableId = query.getAsJsonObject("destinationTable").get("tableId").getAsString();
+        Set<String> ids = rowsOf(tableId);
+        Matcher tags = BUILD_TAG.matcher(query.get("query").getAsString());
+        while (tags.find()) {
+            ids.add(tags.group(1));
+            rowsReceived.incrementAndGet();
+        }
+        json(exchange, 200, job(projectId, "job_" + UUID.randomUUID().toString().replace("-", ""), "RUNNING"));
+    }
+
+    private void commit(HttpExchange exchange, byte[] body) throws IOException {
+        CommitRequest request = CommitRequest.parseFrom(body);
+        int updates = countEntities(request);
+        CommitResponse.Builder response = CommitResponse.newBuilder();
+        for (int i = 0; i < request.getMutationsCount(); i++) {
+            response.addMutationResults(MutationResult.getDefaultInstance());
+        }
+        indexUpdates.addAndGet(updates);
+        response.setIndexUpdates(updates);
+        send(exchange, 200, "application/x-protobuf", response.build().toByteArray());
+    }
+
+    private void relay(HttpExchange exchange, String path, byte[] body, boolean commit) throws IOException {
+        if (commit) {
+            countEntities(CommitRequest.parseFrom(body));
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://" + datastoreRelay + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/x-protobuf");
+        OutputStream out = connection.getOutputStream();
+        out.write(body);
+        out.close();
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        byte[] response = in != null ? readFully(in) : new byte[0];
+        if (commit && status == 200) {
+            indexUpdates.addAndGet(CommitResponse.parseFrom(response).getIndexUpdates());
+        }
+        String contentType = connection.getContentType();
+        send(exchange, status, contentType != null ? contentType : "application/x-protobuf", response);
+    }
+
+    /**
+     * Keeps the names of the entities a commit writes and counts their indexed values.
+     *
+     * @return Values of the commit not excluded from indexes
+     */
+    private int countEntities(CommitRequest request) {
+        int indexed = 0;
+        for (Mutation mutation : request.getMutationsList()) {
+            Entity entity = mutation.hasUpsert() ? mutation.getUpsert() : mutation.hasInsert() ? mutation.getInsert()
+                    : mutation.hasUpdate() ? mutation.getUpdate() : null;
+            if (entity != null) {
+                Key.PathElement element = entity.getKey().getPath(entity.getKey().getPathCount() - 1);
+                String name = element.getName().isEmpty() ? String.valueOf(element.getId()) : element.getName();
+                entitiesOf(element.getKind()).add(name);
+                entitiesReceived.incrementAndGet();
+                for (Value value : entity.getPropertiesMap().values()) {
+                    if (!value.getExcludeFromIndexes()) {
+                        indexed++;
+                    }
+                }
+            }
+        }
+        indexedValues.addAndGet(indexed);
+        return indexed;
+    }
+
+    private Set<String> rowsOf(String tableId) {
+        return setOf(rows, tableId);
+    }
+
+    private Set<String> entitiesOf(String kind) {
+        return setOf(entities, kind);
+    }
+
+    private static Set<String> setOf(Map<String, Set<String>> sets, String name) {
+        synchronized (sets) {
+            Set<String> set = sets.get(name);
+            if (set == null) {
+                set = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                sets.put(name, set);
+            }
+            return set;
+        }
+    }
+
+    private static String job(String projectId, String jobId, String state) {
+        return "{\"kind\":\"bigquery#job\",\"jobReference\":{\"projectId\":\"" + projectId + "\",\"jobId\":\"" + jobId
+                + "\"},\"status\":{\"state\":\"" + state + "\"}}";
+    }
+
+    private static String error(int code, String reason, String message) {
+        return "{\"error\":{\"code\":" + code + ",\"message\":\"" + message + "\",\"errors\":[{\"domain\":\"global\","
+                + "\"reason\":\"" + reason + "\",\"message\":\"" + message + "\"}]}}";
+    }
+
+    private static void fail(HttpExchange exchange, boolean datastore, int status, String reason, String rpcStatus,
+                             int rpcCode) throws IOException {
+        if (datastore) {
+            send(exchange, status, "application/x-protobuf", rpcStatus(rpcCode, rpcStatus));
+        } else {
+            json(exchange, status, error(status, reason, "Injected by the fake"));
+        }
+    }
+
+    /**
+     * @return A google.rpc.Status message, written by hand as it is only two fields: code = 1 and message = 2
+     */
+    private static byte[] rpcStatus(int code, String message) {
+        byte[] text = message.getBytes(UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(text.length + 4);
+        out.write(0x08);
+        out.write(code);
+        out.write(0x12);
+        out.write(text.length);
+        out.write(text, 0, text.length);
+        return out.toByteArray();
+    }
+
+    private static void json(HttpExchange exchange, int status, String json) throws IOException {
+        send(exchange, status, "application/json; charset=UTF-8", json.getBytes(UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        return readFully(in);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static JsonElement parse(byte[] body) {
+        return new JsonParser().parse(new InputStreamReader(new ByteArrayInputStream(body), UTF_8));
+    }
+}
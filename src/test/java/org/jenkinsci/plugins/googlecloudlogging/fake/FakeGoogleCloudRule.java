@@ -0,0 +1,84 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.fake;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * Starts a {@link FakeGoogleCloud} for each test and points the Datastore client at a project, then stops the fake
+ * and puts the project properties back as they were, so they do not leak into later tests in the same JVM.
+ */
+public class FakeGoogleCloudRule extends ExternalResource {
+    private static final String[] PROJECT_PROPERTIES = {"GCLOUD_PROJECT", "GOOGLE_CLOUD_PROJECT"};
+
+    private final int threads;
+    private final String project;
+    private final String[] previous = new String[PROJECT_PROPERTIES.length];
+    private FakeGoogleCloud fake;
+
+    /**
+     * @param threads Requests the fake serves at the same time
+     * @param project Project the Datastore client uses
+     */
+    public FakeGoogleCloudRule(int threads, String project) {
+        this.threads = threads;
+        this.project = project;
+    }
+
+    @Override
+    protected void before() throws Throwable {
+        for (int i = 0; i < PROJECT_PROPERTIES.length; i++) {
+            previous[i] = System.getProperty(PROJECT_PROPERTIES[i]);
+        }
+        setProject(project);
+        fake = new FakeGoogleCloud(threads);
+    }
+
+    @Override
+    protected void after() {
+        if (fake != null) {
+            fake.stop();
+            fake = null;
+        }
+        for (int i = 0; i < PROJECT_PROPERTIES.length; i++) {
+            if (previous[i] == null) {
+                System.clearProperty(PROJECT_PROPERTIES[i]);
+            } else {
+                System.setProperty(PROJECT_PROPERTIES[i], previous[i]);
+            }
+        }
+    }
+
+    /**
+     * @return The fake of the running test
+     */
+    public FakeGoogleCloud get() {
+        return fake;
+    }
+
+    /**
+     * Changes the project for the rest of the test. The Datastore client takes it from the environment when talking
+     * to an emulator.
+     *
+     * @param project Project the Datastore client uses
+     */
+    public void setProject(String project) {
+        for (String property : PROJECT_PROPERTIES) {
+            System.setProperty(property, project);
+        }
+    }
+}
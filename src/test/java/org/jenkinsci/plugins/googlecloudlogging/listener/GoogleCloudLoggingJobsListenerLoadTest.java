@@ -0,0 +1,199 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.listener;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.googlecloudlogging.dispatch.ExportDispatcher;
+import org.jenkinsci.plugins.googlecloudlogging.fake.FakeGoogleCloud;
+import org.jenkinsci.plugins.googlecloudlogging.fake.FakeGoogleCloudRule;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.jenkinsci.plugins.googlecloudlogging.spool.BuildRecordSpool;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Load harness: completes thousands of builds at once through {@link GoogleCloudLoggingJobsListener}, against
+ * {@link FakeGoogleCloud} standing in for BigQuery in STREAMING mode and for Datastore, and reports end-to-end
+ * throughput, the time each completion held its executor, and the rows delivered against the rows lost.
+ *
+ * The builds are created without being run, so only the listener's own work is timed. It takes minutes, so it only
+ * runs with the system property googlecloudlogging.load set to true. Set googlecloudlogging.load.builds to change
+ * how many builds complete, 2000 by default.
+ */
+public class GoogleCloudLoggingJobsListenerLoadTest {
+    private static final String PROJECT = "load-project";
+    private static final String DATASET = "ci";
+    private static final String TABLE = "builds";
+    private static final int BUILDS = Integer.getInteger("googlecloudlogging.load.builds", 2000);
+    private static final int EXECUTORS = 64;
+    private static final long DELIVERY_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public FakeGoogleCloudRule cloud = new FakeGoogleCloudRule(32, PROJECT);
+
+    private FakeGoogleCloud fake;
+
+    @BeforeClass
+    public static void onlyOnRequest() {
+        Assume.assumeTrue("googlecloudlogging.load is not set", Boolean.getBoolean("googlecloudlogging.load"));
+    }
+
+    @Before
+    public void startFake() {
+        fake = cloud.get();
+    }
+
+    @Test
+    public void healthyEndpointsDeliverEveryBuild() throws Exception {
+        fake.setLatencyMillis(20);
+        LoadReport report = run("healthy");
+        assertEquals(0, report.lostRows);
+        assertEquals(0, report.lostEntities);
+    }
+
+    @Test
+    public void throttledAndFailingEndpointsLoseNothing() throws Exception {
+        fake.setLatencyMillis(50).setErrorRate(0.05).setThrottleRate(0.10);
+        LoadReport report = run("5% errors, 10% throttled");
+        assertEquals(0, report.lostRows);
+        assertEquals(0, report.lostEntities);
+    }
+
+    private LoadReport run(String scenario) throws Exception {
+        GoogleCloudLoggingPlugin plugin = j.jenkins.getPlugin(GoogleCloudLoggingPlugin.class);
+        JSONObject form = new JSONObject();
+        form.put("enableBigQuery", true);
+        form.put("bqProject", PROJECT);
+        form.put("bqDataset", DATASET);
+        form.put("bqTable", TABLE);
+        form.put("bqWriteMode", "STREAMING");
+        form.put("bqRootUrl", fake.getUrl());
+        form.put("enableDatastore", true);
+        form.put("datastoreServiceUrl", fake.getUrl());
+        form.put("exportWorkers", 4);
+        form.put("backPressurePolicy", "SPILL");
+        form.put("retryMaxAttempts", 8);
+        form.put("retryInitialBackoffMs", 50);
+        form.put("retryMaxBackoffMs", 2000);
+        // Injected failures are spread out, they should be retried rather than hold the sink off
+        form.put("breakerFailureThreshold", 1000);
+        form.put("bqMaxRequestsPerSecond", 500);
+        form.put("datastoreMaxRequestsPerSecond", 500);
+        plugin.configure(null, form);
+
+        final GoogleCloudLoggingJobsListener listener = RunListener.all().get(GoogleCloudLoggingJobsListener.class);
+        FreeStyleProject project = j.createFreeStyleProject("load");
+        final List<FreeStyleBuild> builds = new ArrayList<FreeStyleBuild>(BUILDS);
+        for (int i = 0; i < BUILDS; i++) {
+            FreeStyleBuild build = project.createExecutable();
+            build.setResult(Result.SUCCESS);
+            builds.add(build);
+        }
+
+        ExecutorService executors = Executors.newFixedThreadPool(EXECUTORS);
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Future<Long>> holds = new ArrayList<Future<Long>>(BUILDS);
+        for (final FreeStyleBuild build : builds) {
+            holds.add(executors.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    go.await();
+                    long start = System.nanoTime();
+                    listener.onCompleted(build, TaskListener.NULL);
+                    return System.nanoTime() - start;
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        go.countDown();
+        long[] holdNanos = new long[BUILDS];
+        for (int i = 0; i < BUILDS; i++) {
+            holdNanos[i] = holds.get(i).get();
+        }
+        long submitted = System.nanoTime();
+        executors.shutdown();
+
+        long deadline = System.currentTimeMillis() + DELIVERY_TIMEOUT_MS;
+        while ((fake.getDeliveredRows(TABLE) < BUILDS || fake.getDeliveredEntities("JenkinsBuild") < BUILDS)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        long delivered = System.nanoTime();
+
+        LoadReport report = new LoadReport();
+        report.lostRows = BUILDS - fake.getDeliveredRows(TABLE);
+        report.lostEntities = BUILDS - fake.getDeliveredEntities("JenkinsBuild");
+
+        Arrays.sort(holdNanos);
+        long total = 0;
+        for (long hold : holdNanos) {
+            total += hold;
+        }
+        ExportDispatcher dispatcher = plugin.getDispatcher();
+        BuildRecordSpool spool = plugin.getSpool();
+
+        System.out.println("=== Google Cloud Logging load: " + scenario + " ===");
+        System.out.printf("builds completed          %d on %d executors%n", BUILDS, EXECUTORS);
+        System.out.printf("all queued after          %d ms%n", TimeUnit.NANOSECONDS.toMillis(submitted - start));
+        System.out.printf("all delivered after       %d ms, %.0f builds/s end to end%n",
+                TimeUnit.NANOSECONDS.toMillis(delivered - start), BUILDS * 1e9 / (delivered - start));
+        System.out.printf("executor hold             mean %.2f ms, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                total / 1e6 / BUILDS, holdNanos[BUILDS / 2] / 1e6, holdNanos[BUILDS * 99 / 100] / 1e6,
+                holdNanos[BUILDS - 1] / 1e6);
+        System.out.printf("BigQuery rows             %d delivered, %d lost, %d sent again%n", fake.getDeliveredRows(TABLE),
+                report.lostRows, fake.getRowsReceived() - fake.getDeliveredRows(TABLE));
+        System.out.printf("Datastore entities        %d delivered, %d lost, %d sent again%n",
+                fake.getDeliveredEntities("JenkinsBuild"), report.lostEntities,
+                fake.getEntitiesReceived() - fake.getDeliveredEntities("JenkinsBuild"));
+        System.out.printf("requests                  %d, %d failed, %d throttled%n", fake.getRequestCount(),
+                fake.getFailedCount(), fake.getThrottledCount());
+        System.out.printf("dispatcher dropped        %d, spool pending %d, dead-lettered %d%n",
+                dispatcher != null ? dispatcher.getDroppedCount() : 0, spool != null ? spool.getPendingCount() : 0,
+                spool != null ? spool.getDeadLetteredCount() : 0);
+        return report;
+    }
+
+    private static final class LoadReport {
+        int lostRows;
+        int lostEntities;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+Copyright 2017 The Home Depot
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.jenkinsci.plugins.googlecloudlogging.sink;
+
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildParameter;
+import org.jenkinsci.plugins.googlecloudlogging.entities.BuildRecord;
+import org.jenkinsci.plugins.googlecloudlogging.entities.DatastoreIndexPolicy;
+import org.jenkinsci.plugins.googlecloudlogging.entities.DatastoreKeyLayout;
+import org.jenkinsci.plugins.googlecloudlogging.entities.StageRecord;
+import org.jenkinsci.plugins.googlecloudlogging.fake.FakeGoogleCloud;
+import org.jenkinsci.plugins.googlecloudlogging.fake.FakeGoogleCloudRule;
+import org.jenkinsci.plugins.googlecloudlogging.plugin.GoogleCloudLoggingPlugin;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upserts builds through {@link DatastoreSink} under each index policy and key layout, and reports the index updates
+ * each upsert costs and how long the commits took. Against {@link FakeGoogleCloud} the indexed values of the entities
+ * sent are counted. With DATASTORE_EMULATOR_HOST set, the commits are also passed on to the emulator and the index
+ * updates it reports are used, new builds and builds written again counted apart.
+ *
+ * Set the system property googlecloudlogging.datastore.builds to change how many builds each run writes, 500 by
+ * default.
+ */
+public class DatastoreIndexComparisonTest {
+    private static final String PROJECT = "index-project";
+    private static final int BUILDS = Integer.getInteger("googlecloudlogging.datastore.builds", 500);
+    private static final int BATCH = 100;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public FakeGoogleCloudRule cloud = new FakeGoogleCloudRule(8, PROJECT);
+
+    private FakeGoogleCloud fake;
+
+    @Before
+    public void startFake() {
+        fake = cloud.get();
+    }
+
+    @Test
+    public void minimalPolicyIndexesTwoValuesPerBuild() throws Exception {
+        Comparison all = upsert(DatastoreIndexPolicy.ALL, DatastoreKeyLayout.SEQUENTIAL);
+        Comparison minimal = upsert(DatastoreIndexPolicy.MINIMAL, DatastoreKeyLayout.SEQUENTIAL);
+        print("fake", all);
+        print("fake", minimal);
+        assertEquals(11.0, all.indexedValues / (double) BUILDS, 0);
+        assertEquals(2.0, minimal.indexedValues / (double) BUILDS, 0);
+    }
+
+    @Test
+    public void emulatorIndexUpdatesAndCommitTimes() throws Exception {
+        String emulator = System.getenv("DATASTORE_EMULATOR_HOST");
+        Assume.assumeTrue("DATASTORE_EMULATOR_HOST is not set", emulator != null && !emulator.isEmpty());
+        fake.setDatastoreRelay(emulator);
+        // env-init names the emulator's project, which it may insist on
+        String project = System.getenv("DATASTORE_PROJECT_ID");
+        if (project != null && !project.isEmpty()) {
+            cloud.setProject(project);
+        }
+
+        for (DatastoreKeyLayout layout : DatastoreKeyLayout.values()) {
+            Comparison all = upsert(DatastoreIndexPolicy.ALL, layout);
+            Comparison minimal = upsert(DatastoreIndexPolicy.MINIMAL, layout);
+            print("emulator", all);
+            print("emulator", minimal);
+            assertTrue(minimal.newIndexUpdates < all.newIndexUpdates);
+        }
+    }
+
+    /**
+     * Writes {@link #BUILDS} builds of one job in batches of {@link #BATCH}, then writes them all again.
+     */
+    private Comparison upsert(DatastoreIndexPolicy policy, DatastoreKeyLayout layout) throws Exception {
+        GoogleCloudLoggingPlugin plugin = j.jenkins.getPlugin(GoogleCloudLoggingPlugin.class);
+        JSONObject form = new JSONObject();
+        form.put("enableDatastore", true);
+        form.put("datastoreServiceUrl", fake.getUrl());
+        form.put("datastoreIndexPolicy", policy.name());
+        form.put("datastoreKeyLayout", layout.name());
+        form.put("datastoreMaxRequestsPerSecond", 1000);
+        plugin.configure(null, form);
+
+        // A job of its own per run, so the first pass writes new entities even against a long-running emulator
+        String jobName = "compare/" + policy + "-" + layout + "-" + System.currentTimeMillis();
+        List<BuildRecord> records = new ArrayList<BuildRecord>(BUILDS);
+        for (int number = 1; number <= BUILDS; number++) {
+            records.add(record(jobName, number));
+        }
+
+        Comparison comparison = new Comparison(policy, layout);
+        DatastoreSink sink = new DatastoreSink();
+        long values = fake.getIndexedValues();
+        long updates = fake.getIndexUpdates();
+        comparison.newNanos = write(sink, plugin, records);
+        comparison.indexedValues = fake.getIndexedValues() - values;
+        comparison.newIndexUpdates = fake.getIndexUpdates() - updates;
+        updates = fake.getIndexUpdates();
+        comparison.rewriteNanos = write(sink, plugin, records);
+        comparison.rewriteIndexUpdates = fake.getIndexUpdates() - updates;
+        return comparison;
+    }
+
+    private static long write(DatastoreSink sink, GoogleCloudLoggingPlugin plugin, List<BuildRecord> records)
+            throws Exception {
+        long start = System.nanoTime();
+        for (int from = 0; from < records.size(); from += BATCH) {
+            sink.write(plugin, records.subList(from, Math.min(records.size(), from + BATCH)));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static BuildRecord record(String jobName, int number) {
+        long start = 1500000000000L + number * 60000L;
+        List<BuildParameter> params = Collections.singletonList(new BuildParameter("BRANCH", "master", false));
+        return new BuildRecord(jobName + "-" + number, jobName, String.valueOf(number), start, start + 42000L,
+                "SUCCESS", "https://ci.example.com/job/" + jobName + "/" + number + "/", "https://ci.example.com/", "1",
+                "/var/lib/jenkins/workspace/" + jobName, params, "0123456789abcdef0123456789abcdef01234567",
+                "git@github.com:example/service.git", "origin/master", "job/upstream/", "77", "upstream", false,
+                jobName + "#" + number, Collections.<StageRecord>emptyList(), 0, 1200L, 0L, 41000L, "linux", "agent-1");
+    }
+
+    private static void print(String target, Comparison comparison) {
+        System.out.printf("%-8s %-7s %-10s indexed values/build %5.1f, index updates/build new %5.1f rewrite %5.1f, "
+                        + "ms/commit new %6.2f rewrite %6.2f%n", target, comparison.policy, comparison.layout,
+                comparison.indexedValues / (double) BUILDS, comparison.newIndexUpdates / (double) BUILDS,
+                comparison.rewriteIndexUpdates / (double) BUILDS, millisPerCommit(comparison.newNanos),
+                millisPerCommit(comparison.rewriteNanos));
+    }
+
+    private static double millisPerCommit(long nanos) {
+        int commits = (BUILDS + BATCH - 1) / BATCH;
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1) / commits;
+    }
+
+    private static class Comparison {
+        private final DatastoreIndexPolicy policy;
+        private final DatastoreKeyLayout layout;
+        private long indexedValues;
+        private long newIndexUpdates;
+        private long rewriteIndexUpdates;
+        private long newNanos;
+        private long rewriteNanos;
+
+        private Comparison(DatastoreIndexPolicy policy, DatastoreKeyLayout layout) {
+            this.policy = policy;
+            this.layout = layout;
+        }
+    }
+}